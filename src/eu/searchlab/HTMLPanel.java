@@ -21,6 +21,8 @@
 package eu.searchlab;
 
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 import eu.searchlab.storage.table.TableViewer;
@@ -28,6 +30,8 @@ import eu.searchlab.storage.table.TableViewer;
 public class HTMLPanel {
 
     private final Map<String, String> htmls;
+    private final Map<String, CompletableFuture<String>> waiting; // futures of graphs which were requested before they were painted
+    private final Set<String> announced;
     private final int width, height;
 
     /**
@@ -37,6 +41,8 @@ public class HTMLPanel {
      */
     public HTMLPanel(final int width, final int height) {
         this.htmls = new ConcurrentHashMap<>();
+        this.waiting = new ConcurrentHashMap<>();
+        this.announced = ConcurrentHashMap.newKeySet();
         this.width = width;
         this.height = height;
     }
@@ -48,11 +54,39 @@ public class HTMLPanel {
      * @param tv
      */
     public void put(final String name, final TableViewer tv) {
-        this.htmls.put(name, tv.render2html(this.width, this.height, true));
+        final String html = tv.render2html(this.width, this.height, true);
+        this.htmls.put(name, html);
+        final CompletableFuture<String> future = this.waiting.remove(name);
+        if (future != null) future.complete(html);
+    }
+
+    /**
+     * Announce the names of graphs which will be put to the panel later.
+     * Requests for announced graphs can wait for them with future(name).
+     * @param names
+     */
+    public void announce(final String... names) {
+        for (final String name: names) this.announced.add(name);
     }
 
     public boolean has(final String name) {
-        return this.htmls.containsKey(name);
+        return this.htmls.containsKey(name) || this.announced.contains(name);
+    }
+
+    /**
+     * Get a future of a graph html which is completed when the graph is put to the panel.
+     * If the graph exists already, the future is completed.
+     * @param name
+     * @return the future of the html
+     */
+    public CompletableFuture<String> future(final String name) {
+        final String html = this.htmls.get(name);
+        if (html != null) return CompletableFuture.completedFuture(html);
+        final CompletableFuture<String> future = this.waiting.computeIfAbsent(name, k -> new CompletableFuture<>());
+        // the graph may have been put after the first check but before the future was registered
+        final String late = this.htmls.get(name);
+        if (late != null && this.waiting.remove(name, future)) future.complete(late);
+        return future;
     }
 
     public String get(final String name) {
@@ -38,9 +38,11 @@ import eu.searchlab.http.EventCount;
 import eu.searchlab.http.WebServer;
 import eu.searchlab.operation.AsynchronousScheduler;
 import eu.searchlab.operation.FrequencyScheduler;
+import eu.searchlab.storage.io.CachedIO;
 import eu.searchlab.storage.io.GenericIO;
 import eu.searchlab.storage.io.IOPath;
 import eu.searchlab.storage.io.MinioS3IO;
+import eu.searchlab.storage.json.PersistentTray;
 import eu.searchlab.storage.queues.QueueFactory;
 import eu.searchlab.storage.queues.QueueStats;
 import eu.searchlab.storage.queues.RabbitQueueFactory;
@@ -58,7 +60,7 @@ public class Searchlab {
     //public static Map<String, String> hzMap;
 
     // IO and MinIO
-    public static GenericIO io;
+    public static GenericIO io, assetIO; // assetIO is a cached io for the delivery of user assets
     public static IOPath dataIOp, statusIOp, aaaaaIOp, auditUserRequestsIOp, auditUserVisitorsIOp;
 
     // elastic client
@@ -267,11 +269,21 @@ public class Searchlab {
         final String bucket = bucket_endpoint.substring(0, p);
         final String endpoint = bucket_endpoint.substring(p + 1);
         io = new MinioS3IO("http://" + endpoint + ":" + getPort(s3address, "9000"), getUser(s3address, "admin"), getPassword(s3address, "12345678"));
+        final String cachePath = System.getProperty("storage.cache.path", "");
+        assetIO = io;
+        if (cachePath.length() > 0) try {
+            final long cacheSize = Long.parseLong(System.getProperty("storage.cache.size", "1024")) * 1024L * 1024L;
+            final long blockSize = Long.parseLong(System.getProperty("storage.cache.blocksize", "4")) * 1024L * 1024L;
+            assetIO = new CachedIO(io, new File(cachePath), cacheSize, blockSize);
+        } catch (final IOException e) {
+            Logger.warn("could not initialize cache at " + cachePath, e);
+        }
         dataIOp = new IOPath(bucket, s3DataPath);
         statusIOp = dataIOp.append("status");
         aaaaaIOp  = dataIOp.append("aaaaa");
-        auditUserRequestsIOp = statusIOp.append("audit_user_requests.csv");
-        auditUserVisitorsIOp = statusIOp.append("audit_user_visitors.csv");
+        // folders of time-partitioned segments; older single-object tables next to the folders are split on first load
+        auditUserRequestsIOp = statusIOp.append("audit_user_requests");
+        auditUserVisitorsIOp = statusIOp.append("audit_user_visitors");
         Logger.info("Connected S3 at " + s3address.replaceAll(".*@", ""));
 
         // initialize audit and aaaaa
@@ -337,15 +349,17 @@ public class Searchlab {
                 try {Thread.sleep(1000);} catch (final InterruptedException e) {}
             }
             Logger.info("server kill termination requested");
-            webserver.server.stop();
+            webserver.stop();
             asynchronousScheduler.shutdown();
             frequencyScheduler.shutdown();
+            PersistentTray.flushAll();
         } else {
             // something with the pid file creation did not work; fail-over to normal operation waiting for a kill command
             try {
                 webserver.server.getWorker().awaitTermination();
                 asynchronousScheduler.shutdown();
                 frequencyScheduler.shutdown();
+                PersistentTray.flushAll();
             } catch (final InterruptedException e) {
                 Logger.error(e);
             }
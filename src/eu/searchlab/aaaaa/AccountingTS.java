@@ -30,8 +30,8 @@ import org.json.JSONObject;
 import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.GenericIO;
 import eu.searchlab.storage.io.IOPath;
-import eu.searchlab.storage.table.MinuteSeriesTable;
-import eu.searchlab.storage.table.TableParser;
+import eu.searchlab.storage.table.SegmentedTimeSeries;
+import eu.searchlab.storage.table.TableCodec;
 import eu.searchlab.tools.DateParser;
 import eu.searchlab.tools.MultiProtocolURL;
 
@@ -47,12 +47,13 @@ import eu.searchlab.tools.MultiProtocolURL;
 public class AccountingTS {
 
     private final ConcurrentIO cio;
-    private final IOPath aaaaaIop, accountingIop;
+    private final IOPath aaaaaIop, accountingIop, corpusIop;
 
     public AccountingTS(final GenericIO io, final IOPath aaaaaIop) {
         this.cio = new ConcurrentIO(io, 10000);
         this.aaaaaIop = aaaaaIop;
         this.accountingIop = this.aaaaaIop.append("accounting");
+        this.corpusIop = this.aaaaaIop.append("corpus"); // binary segments; not in the assets which are served to the user
     }
 
     public IOPath getAssetsPathForUser(final String user_id) {
@@ -74,22 +75,52 @@ public class AccountingTS {
 
     public void storeCorpus(final String user_id, final String range, final List<MultiProtocolURL> urls, final Set<String> collections, final long depth, final long size) throws IOException {
         final IOPath userPath = getAssetsPathForUser(user_id);
-        final IOPath corpusPath = userPath.append("corpus.csv");
-        MinuteSeriesTable corpusTable = new MinuteSeriesTable(corpusViewColNames, corpusMetaColNames, corpusDataColNames, false);
-        if (this.cio.exists(corpusPath)) try {corpusTable = new MinuteSeriesTable(this.cio, corpusPath, corpusViewColNames.length, corpusMetaColNames.length, corpusDataColNames.length, false);} catch (final IOException e) {}
-        if (corpusTable.viewCols.length != corpusViewColNames.length ||
-            corpusTable.metaCols.length != corpusMetaColNames.length ||
-            corpusTable.dataCols.length != corpusDataColNames.length) {
-            corpusTable = new MinuteSeriesTable(corpusViewColNames, corpusMetaColNames, corpusDataColNames, false);
-        }
-
+        final IOPath corpusPath = this.corpusIop.append(user_id);
+        // the corpus is partitioned by month; only the segment of the current month is read and written.
+        // A corpus table in the assets of the user is moved into the segments.
+        final SegmentedTimeSeries corpusSeries = new SegmentedTimeSeries(
+                this.cio, corpusPath, userPath.append("corpus" + TableCodec.EXTENSION),
+                corpusViewColNames, corpusMetaColNames, corpusDataColNames, false, SegmentedTimeSeries.Partition.MONTH);
+        moveAssetSegments(userPath.append("corpus"), corpusSeries);
         for (final MultiProtocolURL url: urls) {
-            corpusTable.addValues(System.currentTimeMillis(),
+            corpusSeries.addValues(System.currentTimeMillis(),
                     new String[] {user_id, range, url.getHost()},
                     new String[] {collections.toString().replaceAll("\\[", "").replaceAll("\\]", "")},
                     new long[] {depth, size});
         }
-        TableParser.storeCSV(this.cio, corpusPath, corpusTable.table.table());
+        corpusSeries.store();
+
+        // the user sees the corpus as one csv file per month in the assets. The file of the current month is written
+        // with each change; the files of other months are written only if they do not exist, i.e. after a migration.
+        final SegmentedTimeSeries.Partition month = SegmentedTimeSeries.Partition.MONTH;
+        final long current = month.start(System.currentTimeMillis());
+        for (final long start: corpusSeries.segmentStarts()) {
+            final IOPath csvPath = userPath.append("corpus-" + month.label(start) + ".csv");
+            if (start != current && this.cio.exists(csvPath)) continue;
+            corpusSeries.range(start, month.next(start)).storeCSV(this.cio, csvPath);
+        }
+    }
+
+    /**
+     * move segments which were stored within the assets of the user into a series
+     * @param folder the segment folder within the assets
+     * @param series the target series
+     * @throws IOException
+     */
+    private void moveAssetSegments(final IOPath folder, final SegmentedTimeSeries series) throws IOException {
+        // the listing is done by prefix and would also contain the corpus exports next to the folder
+        final String prefix = folder.getObjectPath() + "/";
+        try {
+            if (this.cio.getIO().list(folder).stream().noneMatch(meta -> meta.getIOPath().getObjectPath().startsWith(prefix))) return;
+        } catch (final IOException e) {
+            return; // the folder does not exist
+        }
+        final SegmentedTimeSeries assetSeries = new SegmentedTimeSeries(
+                this.cio, folder, null,
+                corpusViewColNames, corpusMetaColNames, corpusDataColNames, false, SegmentedTimeSeries.Partition.MONTH);
+        series.append(assetSeries.range(0, Long.MAX_VALUE));
+        series.store();
+        assetSeries.deleteBefore(Long.MAX_VALUE);
     }
 
 }
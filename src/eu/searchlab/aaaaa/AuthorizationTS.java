@@ -25,6 +25,7 @@ import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.GenericIO;
 import eu.searchlab.storage.io.IOPath;
 import eu.searchlab.storage.table.MinuteSeriesTable;
+import eu.searchlab.storage.table.TableCodec;
 import eu.searchlab.storage.table.TableParser;
 
 public class AuthorizationTS {
@@ -42,13 +43,14 @@ public class AuthorizationTS {
         this.cio = new ConcurrentIO(io, 10000);
         this.aaaaaIop = aaaaaIop;
         this.authorizationIop = this.aaaaaIop.append("authorization");
-        this.loginIop = this.authorizationIop.append("login.csv");
+        this.loginIop = this.authorizationIop.append("login" + TableCodec.EXTENSION);
         loadLoginTable();
     }
 
     private void loadLoginTable() throws IOException {
-        if (this.cio.exists(this.loginIop)) {
-            final long lastModified = this.cio.getIO().lastModified(this.loginIop);
+        if (TableParser.exists(this.cio, this.loginIop)) {
+            // a table which is not converted from csv yet has no modification date
+            final long lastModified = this.cio.exists(this.loginIop) ? this.cio.getIO().lastModified(this.loginIop) : Long.MAX_VALUE;
             if (lastModified < this.loginTableLoadTime) return;
             this.loginTable = new MinuteSeriesTable(this.cio, this.loginIop, authorizationViewColNames.length, authorizationMetaColNames.length, authorizationDataColNames.length, false);
             if (this.loginTable.viewCols.length != authorizationViewColNames.length ||
@@ -68,7 +70,7 @@ public class AuthorizationTS {
                 new String[] {user_id},
                 new String[] {cookie_id},
                 new long[] {});
-        TableParser.storeCSV(this.cio, this.loginIop, this.loginTable.table.table());
+        TableParser.storeTable(this.cio, this.loginIop, this.loginTable.table.table());
     }
 
     public String getCookieId(final String user_id) throws IOException {
@@ -27,7 +27,9 @@ import org.json.JSONObject;
 import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.GenericIO;
 import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.storage.io.VersionChannel;
 import eu.searchlab.storage.json.ImmutableTray;
+import eu.searchlab.storage.json.JournaledTray;
 import eu.searchlab.storage.json.PersistentTray;
 import eu.searchlab.storage.json.Tray;
 import eu.searchlab.tools.Logger;
@@ -40,6 +42,7 @@ public class UserDB {
     private final static String ACCOUNTING_PATH     = "acctg.json"; // what has the user done / statistics
     private final static String AUDIT_PATH          = "audit.json"; // what has the user done / timeline
     private final static String ASSIGNMENT_PATH     = "asgmt.json"; // what is due to be done (technical)
+    private final static String VERSIONS_PATH       = "versions.json"; // ETags of the latest writes to the trays above
 
     private final GenericIO aaaIO, assignmentIO;
     private final ConcurrentIO aaaCIO, assignmentCIO;
@@ -57,11 +60,22 @@ public class UserDB {
         this.acctgPath = basePath.append(ACCOUNTING_PATH);
         this.auditPath = basePath.append(AUDIT_PATH);
         this.asgmtPath = basePath.append(ASSIGNMENT_PATH);
-        this.authnDB = new PersistentTray(this.aaaCIO, this.authnPath);
-        this.authrDB = new ImmutableTray(this.aaaCIO, this.authrPath);
-        this.acctgDB = new PersistentTray(this.aaaCIO, this.acctgPath);
-        this.auditDB = new PersistentTray(this.aaaCIO, this.auditPath);
-        this.asgmtDB = new PersistentTray(this.assignmentCIO, this.asgmtPath);
+
+        // trays are checked for changes from other nodes only once within the staleness time
+        final long staleness = Long.parseLong(System.getProperty("storage.tray.staleness", "2000"));
+        final VersionChannel aaaChannel = new VersionChannel(this.aaaIO, basePath.append(VERSIONS_PATH), staleness);
+        final VersionChannel assignmentChannel = this.assignmentIO == this.aaaIO ? aaaChannel : new VersionChannel(this.assignmentIO, basePath.append(VERSIONS_PATH), staleness);
+        // the growing user trays are journaled: a change writes only a delta object, not the whole tray
+        final int compaction = Integer.parseInt(System.getProperty("storage.tray.compaction", Integer.toString(JournaledTray.DEFAULT_COMPACTION_THRESHOLD)));
+        this.authnDB = new JournaledTray(this.aaaCIO, this.authnPath, aaaChannel, 0, compaction);
+        // users are looked up at login by the identities of the authentication services
+        this.authnDB.addIndex("email").addIndex("login_github").addIndex("id_patreon");
+        this.authrDB = new ImmutableTray(this.aaaCIO, this.authrPath, aaaChannel);
+        // accounting and audit are updated in bursts for many users; these mutations are collected and written together
+        final long writeBehind = Long.parseLong(System.getProperty("storage.tray.writebehind", "1000"));
+        this.acctgDB = new JournaledTray(this.aaaCIO, this.acctgPath, aaaChannel, writeBehind, compaction);
+        this.auditDB = new PersistentTray(this.aaaCIO, this.auditPath, aaaChannel, writeBehind);
+        this.asgmtDB = new PersistentTray(this.assignmentCIO, this.asgmtPath, assignmentChannel);
     }
 
     public GenericIO getAuthenticationIO() {
@@ -132,17 +146,37 @@ public class UserDB {
      * @throws IOException
      */
     public Authentication getAuthentiationByEmail(final String email) throws IOException {
+        return getAuthentiationWhere("email", email);
+    }
+
+    /**
+     * get the authentication object by the github login
+     * @param github_login
+     * @return the authentication object if one exist or NULL otherwise
+     * @throws IOException
+     */
+    public Authentication getAuthentiationByGithubLogin(final String github_login) throws IOException {
+        return getAuthentiationWhere("login_github", github_login);
+    }
+
+    /**
+     * get the authentication object by the patreon id
+     * @param patreon_id
+     * @return the authentication object if one exist or NULL otherwise
+     * @throws IOException
+     */
+    public Authentication getAuthentiationByPatreonId(final String patreon_id) throws IOException {
+        return getAuthentiationWhere("id_patreon", patreon_id);
+    }
+
+    private Authentication getAuthentiationWhere(final String field, final String value) throws IOException {
+        if (value == null || value.length() == 0) return null;
         try {
-            for (final String id: this.authnDB.keys()) {
-                final Authentication a = new Authentication(this.authnDB.getObject(id));
-                if (a.getEmail().equals(email)) {
-                    return a;
-                }
-            }
+            final JSONObject json = this.authnDB.getOneWhere(field, value);
+            return json == null ? null : new Authentication(json);
         } catch (final JSONException e) {
             throw new IOException(e.getMessage());
         }
-        return null;
     }
 
     public void setAuthorization(final Authorization authr) throws IOException {
@@ -27,6 +27,7 @@ import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.GenericIO;
 import eu.searchlab.storage.io.IOPath;
 import eu.searchlab.storage.table.MinuteSeriesTable;
+import eu.searchlab.storage.table.TableParser;
 
 public class IndexAudit implements FrequencyTask {
 
@@ -51,10 +52,10 @@ public class IndexAudit implements FrequencyTask {
         this.visitorsIOp = visitorsIOp;
         this.lastSeen = new ConcurrentHashMap<>();
         this.requestsTable = new MinuteSeriesTable(indexSizeViewColNames, indexSizeMetaColNames, indexSizeDataColNames, false);
-        if (io.exists(requestsIOp)) try {this.requestsTable = new MinuteSeriesTable(this.cio, requestsIOp, indexSizeViewColNames.length, indexSizeMetaColNames.length, indexSizeDataColNames.length, false);} catch (final IOException e) {}
+        if (TableParser.exists(this.cio, requestsIOp)) try {this.requestsTable = new MinuteSeriesTable(this.cio, requestsIOp, indexSizeViewColNames.length, indexSizeMetaColNames.length, indexSizeDataColNames.length, false);} catch (final IOException e) {}
         this.requestsTableModified = System.currentTimeMillis();
         this.visitorsTable = new MinuteSeriesTable(webViewColNames, webMetaColNames, webDataColNames, false);
-        if (io.exists(visitorsIOp)) try {this.visitorsTable = new MinuteSeriesTable(this.cio, visitorsIOp, webViewColNames.length, webMetaColNames.length, webDataColNames.length, false);} catch (final IOException e) {}
+        if (TableParser.exists(this.cio, visitorsIOp)) try {this.visitorsTable = new MinuteSeriesTable(this.cio, visitorsIOp, webViewColNames.length, webMetaColNames.length, webDataColNames.length, false);} catch (final IOException e) {}
         this.visitorsTableModified = System.currentTimeMillis();
     }
 
@@ -112,14 +113,14 @@ public class IndexAudit implements FrequencyTask {
         int sizeAfter = this.requestsTable.size();
         if (sizeAfter > sizeBeforeRequest) {
             // store the table
-            this.requestsTable.storeCSV(this.cio, this.requestsIOp);
+            this.requestsTable.store(this.cio, this.requestsIOp);
             this.requestsTableModified = System.currentTimeMillis();
         }
 
         sizeAfter = this.visitorsTable.size();
         if (sizeAfter > sizeBeforeVisitor) {
             // store the table
-            this.visitorsTable.storeCSV(this.cio, this.visitorsIOp);
+            this.visitorsTable.store(this.cio, this.visitorsIOp);
             this.visitorsTableModified = System.currentTimeMillis();
         }
 
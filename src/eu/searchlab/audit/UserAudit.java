@@ -21,10 +21,12 @@ package eu.searchlab.audit;
 
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import eu.searchlab.Searchlab;
 import eu.searchlab.operation.FrequencyTask;
@@ -32,6 +34,7 @@ import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.GenericIO;
 import eu.searchlab.storage.io.IOPath;
 import eu.searchlab.storage.table.MinuteSeriesTable;
+import eu.searchlab.storage.table.SegmentedTimeSeries;
 import eu.searchlab.storage.table.TableViewer;
 import eu.searchlab.tools.DateParser;
 import eu.searchlab.tools.Logger;
@@ -50,26 +53,103 @@ public class UserAudit implements FrequencyTask {
     private final static String[] visitorsMetaColNames = new String[] {};
     private final static String[] visitorsDataColNames = new String[] {"data.visitors"};
 
-    private final ConcurrentHashMap<String, TreeMap<Long, String>> lastSeen;
+    // the time span of the graphs; only the segments within this span are loaded
+    private final static long GRAPH_MILLIS = Long.parseLong(System.getProperty("audit.graph.days", "30")) * DateParser.DAY_MILLIS;
+
+    /**
+     * The visits of one user within one audit period. This has a constant size,
+     * independent from the number of requests, and is updated without locks.
+     */
+    private final static class Visits {
+        private final long firstTime;
+        private final String firstIP;
+        private final LongAdder count;
+
+        private Visits(final long time, final String ip00) {
+            this.firstTime = time;
+            this.firstIP = ip00;
+            this.count = new LongAdder();
+        }
+    }
+
+    private volatile ConcurrentHashMap<String, Visits> lastSeen;
     private final ConcurrentIO cio;
-    private final IOPath requestsIOp, visitorsIOp;
+    private final SegmentedTimeSeries requestsSeries, visitorsSeries;
     private MinuteSeriesTable requestsTable, visitorsTable, visitorsTableAggregated;
-    private long requestsTableModified, visitorsTableModified;
+    private long retentionChecked;
+    private long visitorsBase; // the number of visitors before the first row of the visitors table
+    private long visitorsBaseMonth, visitorsBaseMonths; // the number of visitors in the months before visitorsBaseMonth
+    private boolean graphsPainted;
 
+    /**
+     * UserAudit
+     * @param io
+     * @param requestsIOp the folder of the daily segments of the requests table
+     * @param visitorsIOp the folder of the monthly segments of the visitors table
+     * @throws IOException
+     */
     public UserAudit(final GenericIO io, final IOPath requestsIOp, final IOPath visitorsIOp) throws IOException {
         this.cio = new ConcurrentIO(io, 10000);
-        this.requestsIOp = requestsIOp;
-        this.visitorsIOp = visitorsIOp;
         this.lastSeen = new ConcurrentHashMap<>();
-        this.requestsTable = new MinuteSeriesTable(requestsViewColNames, requestsMetaColNames, requestdDataColNames, false);
-        Logger.info("loading " + visitorsIOp.toString());
-        if (io.exists(requestsIOp)) try {this.requestsTable = new MinuteSeriesTable(this.cio, requestsIOp, requestsViewColNames.length, requestsMetaColNames.length, requestdDataColNames.length, false);} catch (final IOException e) {}
-        this.requestsTableModified = System.currentTimeMillis();
-        this.visitorsTable = new MinuteSeriesTable(visitorsViewColNames, visitorsMetaColNames, visitorsDataColNames, false);
-        this.visitorsTableAggregated = new MinuteSeriesTable(visitorsViewColNames, visitorsMetaColNames, visitorsDataColNames, false);
+        this.visitorsBaseMonth = -1;
+        this.visitorsBaseMonths = 0;
+        Logger.info("loading " + requestsIOp.toString());
+        this.requestsSeries = new SegmentedTimeSeries(this.cio, requestsIOp, requestsViewColNames, requestsMetaColNames, requestdDataColNames, false, SegmentedTimeSeries.Partition.DAY);
         Logger.info("loading " + visitorsIOp.toString());
-        if (io.exists(visitorsIOp)) try {this.visitorsTable = new MinuteSeriesTable(this.cio, visitorsIOp, visitorsViewColNames.length, visitorsMetaColNames.length, visitorsDataColNames.length, false);} catch (final IOException e) {}
-        this.visitorsTableModified = System.currentTimeMillis();
+        this.visitorsSeries = new SegmentedTimeSeries(this.cio, visitorsIOp, visitorsViewColNames, visitorsMetaColNames, visitorsDataColNames, false, SegmentedTimeSeries.Partition.MONTH);
+        loadTables(System.currentTimeMillis());
+        this.retentionChecked = 0;
+        this.graphsPainted = false;
+        Searchlab.htmlPanel.announce("requests_per_minute", "visitors_per_minute", "visitors_per_minute_aggregated");
+    }
+
+    /**
+     * load the graphed time span of the series into the in-memory tables
+     * @param now
+     * @throws IOException
+     */
+    private void loadTables(final long now) throws IOException {
+        final long from = now - GRAPH_MILLIS;
+        this.requestsSeries.unloadBefore(from);
+        this.visitorsSeries.unloadBefore(from);
+        this.requestsTable = this.requestsSeries.range(from, Long.MAX_VALUE);
+        this.visitorsTable = this.visitorsSeries.range(from, Long.MAX_VALUE);
+        this.visitorsBase = visitorsBefore(from);
+        this.visitorsTableAggregated = aggregateVisitors();
+    }
+
+    /**
+     * count the visitors before the graphed time span. The months before the span are counted only once a month
+     * and their segments are not kept in memory; the rest is taken from the segment which contains the start of the span.
+     * @param from the start of the graphed time span
+     * @return the number of visitors before the given time
+     * @throws IOException
+     */
+    private long visitorsBefore(final long from) throws IOException {
+        final long month = SegmentedTimeSeries.Partition.MONTH.start(from);
+        if (month != this.visitorsBaseMonth) {
+            this.visitorsBaseMonths = total(this.visitorsSeries.range(0, month));
+            this.visitorsSeries.unloadBefore(month);
+            this.visitorsBaseMonth = month;
+        }
+        return this.visitorsBaseMonths + total(this.visitorsSeries.range(month, from));
+    }
+
+    private static long total(final MinuteSeriesTable table) {
+        long total = 0;
+        for (int row = 0; row < table.size(); row++) total += table.getLong(row)[0];
+        return total;
+    }
+
+    /**
+     * aggregate the visitors table, starting with the number of visitors before the graphed time span
+     * @return the aggregated visitors table
+     */
+    private MinuteSeriesTable aggregateVisitors() {
+        final MinuteSeriesTable table = new MinuteSeriesTable(visitorsViewColNames, visitorsMetaColNames, visitorsDataColNames, false);
+        table.addValues(-1, new String[] {}, new String[] {}, new long[] {this.visitorsBase}); // rows with a negative time are not part of the aggregation result
+        table.append(this.visitorsTable);
+        return table.aggregation();
     }
 
     /**
@@ -78,96 +158,89 @@ public class UserAudit implements FrequencyTask {
      * @param ip00  the pseudomized IP
      */
     public void event(final String id, final String ip00) {
-        TreeMap<Long, String> u = this.lastSeen.get(id);
-        if (u == null) {
-            u = new TreeMap<>();
-            this.lastSeen.put(id, u);
-        }
-        synchronized (u) {
-            u.put(System.currentTimeMillis(), ip00);
-        }
+        final ConcurrentHashMap<String, Visits> visits = this.lastSeen;
+        Visits v = visits.get(id); // the common case of a known user does not lock
+        if (v == null) v = visits.computeIfAbsent(id, k -> new Visits(System.currentTimeMillis(), ip00));
+        v.count.increment();
     }
 
     @Override
     public void check() {
 
-        // flush the lastSeen and update tables & make a copy of the audit log:
-        // this will prevent that the log is modified while we evaluate it
-        final ConcurrentHashMap<String, TreeMap<Long, String>> audit = new ConcurrentHashMap<>();
-        audit.putAll(this.lastSeen);
-        this.lastSeen.clear();
+        // swap the lastSeen map: new events are recorded in a new map while we evaluate the old one.
+        // Events of requests which obtained the old map just before the swap may be missed.
+        final ConcurrentHashMap<String, Visits> audit = this.lastSeen;
+        this.lastSeen = new ConcurrentHashMap<>();
 
-        // check if the tables have been updated by another process meanwhile
+        // load rows which other processes have written meanwhile and append them to the in-memory tables.
+        // The tables are built again only if segments were compacted or created by another process
+        // and once a day to drop the rows which are not graphed any more.
         final long now = System.currentTimeMillis();
-        final int sizeBeforeRequest = this.requestsTable.size();
-        final int sizeBeforeVisitor = this.visitorsTable.size();
-        try {
-            final long modified = this.cio.getIO().lastModified(this.requestsIOp);
-            if (modified > this.requestsTableModified) {
-                this.requestsTable = new MinuteSeriesTable(this.cio, this.requestsIOp, requestsViewColNames.length, requestsMetaColNames.length, requestdDataColNames.length, false);
-                this.requestsTableModified = now;
-            }
-        } catch (final IOException e) {
-        }
-        try {
-            final long modified = this.cio.getIO().lastModified(this.visitorsIOp);
-            if (modified > this.visitorsTableModified) {
-                this.visitorsTable = new MinuteSeriesTable(this.cio, this.visitorsIOp, visitorsViewColNames.length, visitorsMetaColNames.length, visitorsDataColNames.length, false);
-                this.visitorsTableModified = now;
-            }
+        boolean changed = !this.graphsPainted;
+        final MinuteSeriesTable newRequests = new MinuteSeriesTable(requestsViewColNames, requestsMetaColNames, requestdDataColNames, false);
+        final MinuteSeriesTable newVisitors = new MinuteSeriesTable(visitorsViewColNames, visitorsMetaColNames, visitorsDataColNames, false);
+        final boolean rebuild = this.requestsSeries.refresh(newRequests) | this.visitorsSeries.refresh(newVisitors) || now - this.retentionChecked > DateParser.DAY_MILLIS;
+        if (rebuild) try {
+            loadTables(now);
+            changed = true;
         } catch (final IOException e) {
+            Logger.warn("could not load audit segments", e);
+        } else if (newRequests.size() > 0 || newVisitors.size() > 0) {
+            this.requestsTable.append(newRequests);
+            this.visitorsTable.append(newVisitors);
+            if (newVisitors.size() > 0) this.visitorsTableAggregated = aggregateVisitors();
+            changed = true;
         }
 
         // read out copy of audit (the original one has been flushed already)
-        // and write into the requests and visitor tables
+        // and append to the requests and visitor tables; only the new rows are written to the segments
         if (audit.size() > 0) {
-            audit.forEach((id, events) -> {
-                // events is now a time -> IP mapping.
+            // sort the users by the time of their first event to append the rows in time order
+            final List<Map.Entry<String, Visits>> users = new ArrayList<>(audit.entrySet());
+            users.sort((u0, u1) -> Long.compare(u0.getValue().firstTime, u1.getValue().firstTime));
+            for (final Map.Entry<String, Visits> user: users) {
                 // for the request table we are not interested in the different IPs, just the number of requests that happened:
-                final int count = events.size();
-                if (count > 0) {
-                    // we get out just one single ip as reference. We consider that all IPs should be the same
-                    final Map.Entry<Long, String> event = events.entrySet().iterator().next();
-                    final long eventTime = event.getKey(); // we could also use 'now', not sure what is best.
-                    final String ip = event.getValue();
+                final String id = user.getKey();
+                final long count = user.getValue().count.sum();
+                // we get out just one single ip as reference. We consider that all IPs should be the same
+                final long eventTime = user.getValue().firstTime; // we could also use 'now', not sure what is best.
+                final String ip = user.getValue().firstIP;
+                try {
+                    this.requestsSeries.addValues(eventTime, new String[] {id}, new String[] {ip}, new long[] {count});
                     this.requestsTable.addValues(eventTime, new String[] {id}, new String[] {ip}, new long[] {count});
+                } catch (final IOException e) {
+                    Logger.warn("could not load requests segment", e);
                 }
-            });
+            }
 
             // the number of visitors is just the number of entries because the visitor is identified by it's id, not the IP
-            this.visitorsTable.addValues(now, new String[] {}, new String[] {}, new long[] {audit.size()});
+            try {
+                this.visitorsSeries.addValues(now, new String[] {}, new String[] {}, new long[] {audit.size()});
+                this.visitorsTable.addValues(now, new String[] {}, new String[] {}, new long[] {audit.size()});
+                final int last = this.visitorsTableAggregated.size() - 1;
+                final long aggregated = (last < 0 ? 0 : this.visitorsTableAggregated.getLong(last)[0]) + audit.size();
+                this.visitorsTableAggregated.addValues(now, new String[] {}, new String[] {}, new long[] {aggregated});
+            } catch (final IOException e) {
+                Logger.warn("could not load visitors segment", e);
+            }
+            changed = true;
         }
 
-        // clean up old rows
-        try {
+        // clean up old segments; this is done once a day because only whole segments are removed
+        if (now - this.retentionChecked > DateParser.DAY_MILLIS) try {
             final Date cut = DateParser.minuteDateFormatParser().parse("2022-05-29 00:00");
-            this.requestsTable.deleteBefore(cut.getTime());
-            this.visitorsTable.deleteBefore(cut.getTime());
+            this.requestsSeries.deleteBefore(cut.getTime());
+            this.visitorsSeries.deleteBefore(cut.getTime());
+            this.retentionChecked = now;
         } catch (final ParseException e) {}
-        this.requestsTable.before(now);
-        this.requestsTable.sort();
-        assert this.requestsTable.checkOrder();
-        this.visitorsTable.before(now);
-        this.visitorsTable.sort();
-        assert this.visitorsTable.checkOrder();
-
-        // store tables
-        int sizeAfter = this.requestsTable.size();
-        if (sizeAfter > sizeBeforeRequest) {
-            // store the table
-            this.requestsTable.storeCSV(this.cio, this.requestsIOp);
-            this.requestsTableModified = now;
-        }
 
-        sizeAfter = this.visitorsTable.size();
-        if (sizeAfter > sizeBeforeVisitor) {
-            // store the table
-            this.visitorsTable.storeCSV(this.cio, this.visitorsIOp);
-            this.visitorsTableModified = now;
-        }
+        // write the new rows
+        this.requestsSeries.store();
+        this.visitorsSeries.store();
 
-        // make aggregation of visitorsTable into visitorsTableAggregated
-        this.visitorsTableAggregated = this.visitorsTable.aggregation();
+        // graphs are painted only if their data has changed
+        if (!changed) return;
+        this.graphsPainted = true;
 
         // paint a graph
         final TableViewer requestsTableViewer = this.requestsTable.getGraph("requests_per_minute", "Requests per Minute", "Date", MinuteSeriesTable.TS_DATE, new String[] {"data.requests SteelBlue"}, new String[] {});
@@ -19,10 +19,49 @@
 
 package eu.searchlab.http;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import eu.searchlab.storage.io.IOPath;
 
 public abstract class AbstractService implements Service {
 
+    // calls to blocking backends run in their own bounded pool so that slow backends cannot occupy all worker threads
+    private static ExecutorService backendPool = null;
+
+    private static synchronized ExecutorService getBackendPool() {
+        if (backendPool == null) {
+            final int threads = Integer.parseInt(System.getProperty("http.backend.threads", "32"));
+            final AtomicInteger count = new AtomicInteger(0);
+            backendPool = Executors.newFixedThreadPool(threads, r -> {
+                final Thread t = new Thread(r, "Backend " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return backendPool;
+    }
+
+    /**
+     * Compute a response in the backend pool. The worker thread which called the service is released at once;
+     * the request is completed when the returned deferred response is completed.
+     * @param call the computation of the response which may block on a backend
+     * @return a deferred response
+     */
+    protected static ServiceResponse async(final Callable<ServiceResponse> call) {
+        return new ServiceResponse(CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (final Exception e) {
+                throw new CompletionException(e);
+            }
+        }, getBackendPool()));
+    }
+
     @Override
     public String[] getPaths() {
         return new String[] {};
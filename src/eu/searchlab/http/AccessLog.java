@@ -0,0 +1,261 @@
+/**
+ *  AccessLog
+ *  Copyright 19.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONObject;
+
+import eu.searchlab.tools.Logger;
+
+/**
+ * AccessLog writes one JSON object per request into a log file.
+ * Request threads only put an entry into a ring buffer; they never wait for the file or for each other.
+ * If the buffer is full because the disk is too slow, the entry is dropped and counted.
+ * A single writer thread formats the entries and writes them in batches; the file is flushed after a batch
+ * when the flush interval has passed. The file is rotated when it exceeds the maximum size or when the day changes;
+ * rotated files get the time of the rotation in their name and only the newest files are kept.
+ */
+public final class AccessLog implements Runnable {
+
+    private final static DateTimeFormatter rotationFormat = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+
+    private final static class Entry {
+        private final long time;
+        private final String ip, client, user, method, path, referer, userAgent;
+        private final int status;
+        private final long size;
+
+        private Entry(final String ip, final String client, final String user, final String method, final String path, final int status, final long size, final String referer, final String userAgent) {
+            this.time = System.currentTimeMillis();
+            this.ip = ip;
+            this.client = client;
+            this.user = user;
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.size = size;
+            this.referer = referer;
+            this.userAgent = userAgent;
+        }
+    }
+
+    private final File dir, file;
+    private final long maxSize, flushInterval;
+    private final int keep;
+    private final AtomicReferenceArray<Entry> ring;
+    private final int mask;
+    private final AtomicLong head, dropped; // head is the next position which is claimed by a producer
+    private volatile long tail; // the next position which is read by the writer
+    private volatile boolean shallRun;
+    private final Thread writerThread;
+    private Writer writer;
+    private long fileSize, fileDay;
+
+    /**
+     * AccessLog
+     * @param dir the directory of the log files
+     * @param capacity the number of entries in the ring buffer; this is rounded up to a power of two
+     * @param maxSize the size in bytes after which the log file is rotated
+     * @param keep the number of rotated log files which are kept
+     * @param flushInterval the time in milliseconds after which written entries are flushed
+     */
+    public AccessLog(final File dir, final int capacity, final long maxSize, final int keep, final long flushInterval) {
+        this.dir = dir;
+        this.file = new File(dir, "access.log");
+        this.maxSize = maxSize;
+        this.keep = keep;
+        this.flushInterval = flushInterval;
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.head = new AtomicLong(0);
+        this.dropped = new AtomicLong(0);
+        this.tail = 0;
+        this.shallRun = true;
+        this.writer = null;
+        this.writerThread = new Thread(this, "Access Log Writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * log a request; this never blocks
+     */
+    public void log(final String ip, final String client, final String user, final String method, final String path, final int status, final long size, final String referer, final String userAgent) {
+        final Entry entry = new Entry(ip, client, user, method, path, status, size, referer, userAgent);
+        long h;
+        do {
+            h = this.head.get();
+            if (h - this.tail > this.mask) {
+                this.dropped.incrementAndGet();
+                return;
+            }
+        } while (!this.head.compareAndSet(h, h + 1));
+        this.ring.set((int) (h & this.mask), entry);
+    }
+
+    /**
+     * @return the number of entries which were dropped because the buffer was full
+     */
+    public long dropped() {
+        return this.dropped.get();
+    }
+
+    @Override
+    public void run() {
+        final StringBuilder sb = new StringBuilder(1024);
+        long lastFlush = System.currentTimeMillis();
+        boolean dirty = false;
+        long reportedDrops = 0;
+        while (this.shallRun || this.tail < this.head.get()) {
+            final int count = drain(sb);
+            if (count > 0) dirty = true;
+            final long now = System.currentTimeMillis();
+            if (dirty && (now - lastFlush >= this.flushInterval || !this.shallRun)) {
+                if (this.writer != null) try {
+                    this.writer.flush();
+                } catch (final IOException e) {
+                    Logger.warn("access log flush failed: " + e.getMessage());
+                }
+                dirty = false;
+                lastFlush = now;
+                final long drops = this.dropped.get();
+                if (drops > reportedDrops) {
+                    Logger.warn("access log dropped " + (drops - reportedDrops) + " entries");
+                    reportedDrops = drops;
+                }
+            }
+            if (count == 0 && this.shallRun) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(100, this.flushInterval)));
+        }
+        closeWriter();
+    }
+
+    /**
+     * write all published entries
+     * @param sb a buffer for the lines
+     * @return the number of written entries
+     */
+    private int drain(final StringBuilder sb) {
+        int count = 0;
+        long t = this.tail;
+        while (t < this.head.get()) {
+            final int slot = (int) (t & this.mask);
+            final Entry entry = this.ring.get(slot);
+            if (entry == null) {
+                // the position is claimed but the entry is not published yet
+                if (!this.shallRun) Thread.onSpinWait(); // the producer is between claim and publish
+                break;
+            }
+            this.ring.set(slot, null);
+            this.tail = ++t; // the slot can be claimed again
+            sb.setLength(0);
+            format(sb, entry);
+            write(entry.time, sb);
+            count++;
+        }
+        return count;
+    }
+
+    private static void format(final StringBuilder sb, final Entry entry) {
+        sb.append("{\"time\":\"").append(Instant.ofEpochMilli(entry.time).toString()).append('"');
+        sb.append(",\"ip\":").append(JSONObject.quote(entry.ip));
+        sb.append(",\"client\":").append(JSONObject.quote(entry.client));
+        sb.append(",\"user\":").append(JSONObject.quote(entry.user));
+        sb.append(",\"method\":").append(JSONObject.quote(entry.method));
+        sb.append(",\"path\":").append(JSONObject.quote(entry.path));
+        sb.append(",\"status\":").append(entry.status);
+        sb.append(",\"size\":").append(entry.size);
+        sb.append(",\"referer\":").append(JSONObject.quote(entry.referer));
+        sb.append(",\"agent\":").append(JSONObject.quote(entry.userAgent));
+        sb.append("}\n");
+    }
+
+    private void write(final long time, final StringBuilder line) {
+        final long day = time / 86400000L;
+        try {
+            if (this.writer != null && (this.fileSize >= this.maxSize || day != this.fileDay)) rotate(time);
+            if (this.writer == null) open(day);
+            this.writer.append(line);
+            this.fileSize += line.length();
+        } catch (final IOException e) {
+            Logger.warn("access log write failed: " + e.getMessage());
+            closeWriter(); // try again with a new file at the next entry
+        }
+    }
+
+    private void open(final long day) throws IOException {
+        this.dir.mkdirs();
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, true), StandardCharsets.UTF_8), 65536);
+        this.fileSize = this.file.length();
+        this.fileDay = this.file.length() > 0 ? this.file.lastModified() / 86400000L : day;
+    }
+
+    private void rotate(final long time) {
+        closeWriter();
+        // a file which was rotated in the same millisecond, i.e. after a write failure, is not overwritten:
+        // a counter is appended which sorts after the name without counter
+        final String base = "access-" + rotationFormat.format(Instant.ofEpochMilli(time));
+        File rotated = new File(this.dir, base + ".log");
+        for (int i = 1; rotated.exists() && i < 100; i++) rotated = new File(this.dir, base + String.format("_%02d", i) + ".log");
+        if (rotated.exists() || !this.file.renameTo(rotated)) Logger.warn("access log rotation to " + rotated.getName() + " failed");
+
+        // delete the oldest rotated files; the names sort in the order of the rotation time
+        final String[] rotatedFiles = this.dir.list((d, name) -> name.startsWith("access-") && name.endsWith(".log"));
+        if (rotatedFiles == null || rotatedFiles.length <= this.keep) return;
+        Arrays.sort(rotatedFiles);
+        for (int i = 0; i < rotatedFiles.length - this.keep; i++) new File(this.dir, rotatedFiles[i]).delete();
+    }
+
+    private void closeWriter() {
+        if (this.writer == null) return;
+        try {
+            this.writer.close();
+        } catch (final IOException e) {
+            Logger.warn("access log close failed: " + e.getMessage());
+        }
+        this.writer = null;
+    }
+
+    /**
+     * write all remaining entries and close the log file
+     */
+    public void close() {
+        this.shallRun = false;
+        LockSupport.unpark(this.writerThread);
+        try {
+            this.writerThread.join(10000);
+        } catch (final InterruptedException e) {}
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ *  Compression
+ *  Copyright 19.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPOutputStream;
+
+import eu.searchlab.tools.Logger;
+
+/**
+ * Content negotiation and compression of responses.
+ * Dynamic content is compressed with gzip. Static files are compressed once and the compressed variant is
+ * stored in a cache directory; it is used as long as it is not older than the file. Variants which exist
+ * next to a file with the extension .br or .gz, i.e. produced by a build step, are preferred; this is the only
+ * way to deliver brotli because there is no brotli encoder in the JDK.
+ */
+public final class Compression {
+
+    public final static String GZIP = "gzip";
+    public final static String BROTLI = "br";
+
+    // responses smaller than this are not compressed because the compression overhead is larger than the gain
+    public final static int minSize = Integer.parseInt(System.getProperty("http.compression.minsize", "1024"));
+    private final static File cacheDir = new File(System.getProperty("http.compression.cache", "data/cache/compressed"));
+
+    public final static class Variant {
+        public final String encoding;
+        public final File file;
+
+        private Variant(final String encoding, final File file) {
+            this.encoding = encoding;
+            this.file = file;
+        }
+    }
+
+    /**
+     * test if a content encoding is accepted by the client
+     * @param acceptEncoding the Accept-Encoding header of the request, may be null
+     * @param encoding
+     * @return true if the encoding is listed with a q-value greater than zero
+     */
+    public static boolean accepts(final String acceptEncoding, final String encoding) {
+        if (acceptEncoding == null) return false;
+        for (final String token: acceptEncoding.split(",")) {
+            final String[] params = token.split(";");
+            final String coding = params[0].trim();
+            if (!coding.equalsIgnoreCase(encoding) && !coding.equals("*")) continue;
+            for (int i = 1; i < params.length; i++) {
+                final String p = params[i].trim();
+                if (p.startsWith("q=")) try {
+                    return Double.parseDouble(p.substring(2)) > 0.0d;
+                } catch (final NumberFormatException e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * test if content of a mime type can be compressed; compressed formats like images and archives are excluded
+     * @param mime
+     * @return true if the content is text
+     */
+    public static boolean compressible(final String mime) {
+        if (mime == null) return false;
+        return mime.startsWith("text/") || mime.contains("json") || mime.contains("javascript") || mime.contains("xml") || mime.contains("svg");
+    }
+
+    public static byte[] gzip(final byte[] b) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(b.length / 4 + 64);
+        try (final GZIPOutputStream os = new GZIPOutputStream(baos, 8192)) {
+            os.write(b);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * get a compressed variant of a static file
+     * @param f the file
+     * @param mime the mime type of the file
+     * @param acceptEncoding the Accept-Encoding header of the request
+     * @return a compressed variant or null if the file shall be delivered uncompressed
+     */
+    public static Variant variant(final File f, final String mime, final String acceptEncoding) {
+        if (!compressible(mime) || f.length() < minSize) return null;
+        final long lastModified = f.lastModified();
+        if (accepts(acceptEncoding, BROTLI)) {
+            final File br = new File(f.getPath() + ".br");
+            if (br.exists() && br.lastModified() >= lastModified) return new Variant(BROTLI, br);
+        }
+        if (!accepts(acceptEncoding, GZIP)) return null;
+        final File gz = new File(f.getPath() + ".gz");
+        if (gz.exists() && gz.lastModified() >= lastModified) return new Variant(GZIP, gz);
+        final File cached = new File(cacheDir, f.getAbsolutePath() + ".gz");
+        if (cached.exists() && cached.lastModified() >= lastModified) return new Variant(GZIP, cached);
+        // compress the file to a temporary file which is moved to the cache; concurrent requests may do this twice but never see a partial file
+        File tmp = null;
+        try {
+            cached.getParentFile().mkdirs();
+            tmp = File.createTempFile(cached.getName(), ".tmp", cached.getParentFile());
+            try (final InputStream is = new FileInputStream(f); final OutputStream os = new GZIPOutputStream(new FileOutputStream(tmp), 8192)) {
+                is.transferTo(os);
+            }
+            Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Variant(GZIP, cached);
+        } catch (final IOException e) {
+            Logger.warn("could not compress " + f.toString(), e);
+            if (tmp != null) tmp.delete();
+            return null;
+        }
+    }
+}
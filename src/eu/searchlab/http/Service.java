@@ -24,7 +24,7 @@ import java.io.IOException;
 public interface Service {
 
     public enum Type {
-        OBJECT, ARRAY, STRING, TABLE, BINARY;
+        OBJECT, ARRAY, STRING, TABLE, BINARY, STREAM;
     }
 
     public boolean supportsPath(String path);
@@ -33,4 +33,14 @@ public interface Service {
 
     public ServiceResponse serve(ServiceRequest request) throws IOException;
 
+    /**
+     * A non-blocking service does only in-memory work and returns a small response at once.
+     * Such services are called in the IO thread of the web server without a dispatch to a worker thread;
+     * they must never wait for IO, locks or other services.
+     * @return true if the service can be called in an IO thread
+     */
+    public default boolean isNonBlocking() {
+        return false;
+    }
+
 }
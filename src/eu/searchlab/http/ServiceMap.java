@@ -21,6 +21,8 @@ package eu.searchlab.http;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import eu.searchlab.storage.io.IOPath;
 
@@ -28,14 +30,27 @@ import eu.searchlab.storage.io.IOPath;
 public class ServiceMap {
 
     private static List<Service> services = new ArrayList<>();
+    private static Map<String, Service> paths = new ConcurrentHashMap<>(); // the canonical paths given by getPaths() of the services
 
     public static void register(final Service service) {
         services.add(service);
+        for (final String path: service.getPaths()) paths.putIfAbsent(IOPath.canonicalPath(path), service);
+    }
+
+    /**
+     * get a service by one of the paths which it declares with getPaths(); this is a single lookup without
+     * calls to supportsPath and can be done in the IO thread
+     * @param path
+     * @return the service or null if no service declares the path
+     */
+    public static Service getServiceByPath(final String path) {
+        return paths.get(IOPath.canonicalPath(path));
     }
 
     public static Service getService(String path) {
         path = IOPath.canonicalPath(path);
-        Service service = null;
+        Service service = paths.get(path);
+        if (service != null) return service;
         for (int i = 0; i < services.size(); i++) {
             if (services.get(i).supportsPath(path)) {
                 service = services.get(i);
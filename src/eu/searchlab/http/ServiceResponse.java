@@ -21,12 +21,15 @@
 package eu.searchlab.http;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -40,6 +43,14 @@ import io.undertow.util.StatusCodes;
 
 public class ServiceResponse {
 
+    /**
+     * A ContentWriter produces the content of a response while it is sent.
+     * The content is written in chunks to the client and is never held in memory as a whole.
+     */
+    public interface ContentWriter {
+        public void write(Writer writer) throws IOException;
+    }
+
     private final static String empty_response = "";
 
     private Object object;
@@ -49,6 +60,7 @@ public class ServiceResponse {
     private int statusCode;
     private Map<String, String> xtraHeaders;
     private String mime;
+    private CompletableFuture<ServiceResponse> deferred;
 
     public ServiceResponse() {
         this.setCORS = false;
@@ -58,6 +70,7 @@ public class ServiceResponse {
         this.object = empty_response;
         this.type = Type.STRING;
         this.mime = null;
+        this.deferred = null;
     }
 
     public ServiceResponse(final JSONObject json) {
@@ -90,6 +103,25 @@ public class ServiceResponse {
         this.type = Type.TABLE;
     }
 
+    /**
+     * A deferred response is sent when the future is completed. The web server does not
+     * hold a worker thread while the response is waiting; the future must complete with a response
+     * that is not deferred, also in case of a timeout.
+     * @param future the future of the response
+     */
+    public ServiceResponse(final CompletableFuture<ServiceResponse> future) {
+        this();
+        this.deferred = future;
+    }
+
+    public boolean isDeferred() {
+        return this.deferred != null;
+    }
+
+    public CompletableFuture<ServiceResponse> getDeferred() {
+        return this.deferred;
+    }
+
     public int getStatusCode() {
         return this.statusCode;
     }
@@ -128,6 +160,12 @@ public class ServiceResponse {
         return this;
     }
 
+    public ServiceResponse setValue(final ContentWriter writer) {
+        this.object = writer;
+        this.type = Type.STREAM;
+        return this;
+    }
+
     public ServiceResponse setCORS() {
         this.setCORS = true;
         return this;
@@ -249,6 +287,10 @@ public class ServiceResponse {
         return this.object instanceof IndexedTable;
     }
 
+    public boolean isStream() {
+        return this.object instanceof ContentWriter;
+    }
+
     public String getMimeType() {
         if (isObject() || isArray()) return "application/javascript";
         if (isString()) {
@@ -286,11 +328,21 @@ public class ServiceResponse {
         return (IndexedTable) this.object;
     }
 
+    public ContentWriter getStream() throws IOException {
+        if (!isStream()) throw new IOException("object type is not ContentWriter: " + this.object.getClass().getName());
+        return (ContentWriter) this.object;
+    }
+
     public String toString(final boolean minified) throws IOException {
         if (isObject()) return getObject().toString(minified ? 0 : 2);
         if (isArray()) return getArray().toString(minified ? 0 : 2);
         if (isString()) return getString();
         if (isByteArray()) return new String((byte[]) this.object, StandardCharsets.UTF_8);
+        if (isStream()) {
+            final StringWriter writer = new StringWriter();
+            getStream().write(writer);
+            return writer.toString();
+        }
         return null;
     }
 
@@ -299,6 +351,7 @@ public class ServiceResponse {
         if (isArray()) return getArray().toString(minified ? 0 : 2).getBytes(StandardCharsets.UTF_8);
         if (isString()) return getString().getBytes(StandardCharsets.UTF_8);
         if (isByteArray()) return (byte[]) this.object;
+        if (isStream()) return toString(minified).getBytes(StandardCharsets.UTF_8);
         return null;
     }
 }
@@ -19,16 +19,22 @@
 
 package eu.searchlab.http;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.LinkedHashSet;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import eu.searchlab.storage.table.IndexedTable;
+
 public class TableGenerator {
 
     private final LinkedHashSet<String> keys;
     private final JSONArray table;
+    private final IndexedTable rows; // rows which are streamed to the writer without a JSON copy of the table
     private final String tablehash, tablename;
 
     public TableGenerator(String tablename, JSONObject json) throws JSONException {
@@ -47,6 +53,7 @@ public class TableGenerator {
         this.tablename = tablename;
         this.keys = new LinkedHashSet<>();
         this.table = new JSONArray();
+        this.rows = null;
         this.tablehash = "h" + array.hashCode();
         if (array == null || array.length() == 0) return; // well thats then an empty table
         if (array.get(0) instanceof JSONObject) {
@@ -82,35 +89,76 @@ public class TableGenerator {
         this.tablehash = "h" + tablename.hashCode();
         this.tablename = tablename;
         this.table = null;
+        this.rows = null;
         this.keys = keys;
     }
 
+    public TableGenerator(String tablename, IndexedTable table) {
+        this.tablehash = "h" + table.hashCode();
+        this.tablename = tablename;
+        this.table = null;
+        this.rows = table;
+        this.keys = new LinkedHashSet<>(table.table().columnNames());
+    }
+
     public String getTableI() throws JSONException {
-        if (this.table == null) {
+        final StringWriter writer = new StringWriter();
+        try {
+            writeTableI(writer);
+        } catch (final IOException e) {
+            throw new JSONException(e.getMessage());
+        }
+        return writer.toString();
+    }
+
+    /**
+     * write the table with the data as html fragment; the data is written in chunks
+     * @param writer
+     * @throws IOException
+     */
+    public void writeTableI(final Writer writer) throws IOException {
+        if (this.table == null && this.rows == null) {
             final StringBuilder thead = new StringBuilder();
             this.keys.forEach(key -> thead.append("<th data-field=\"" + key + "\">" + key + "</th>\n"));
-            return
+            writer.write(
                     "<table id=\"table" + this.tablehash + "\" data-url=\"/api/get/" + this.tablename + ".json\" data-search=\"true\" data-show-columns=\"true\" data-show-pagination-switch=\"true\" data-pagination=\"true\">" +
                     "<thead><tr>" + thead + "</tr></thead>\n" +
                     "</table>\n" +
                     "<script>\n" +
                     "$('#table" + this.tablehash + "').bootstrapTable(" /*{columns: [" + columns.toString() + "], data: " + table.toString(2) + "\n}*/ + ")\n" +
-                    "</script>\n";
+                    "</script>\n");
         } else {
             final StringBuilder columns = new StringBuilder();
             this.keys.forEach(key -> columns.append("{field: '").append(key).append("', title: '").append(key).append("'},"));
             if (columns.length() > 0) columns.setLength(columns.length() - 1); // cut off comma
-            return
+            writer.write(
                     "<table id=\"table" + this.tablehash + "\" data-search=\"true\" data-show-columns=\"true\" data-show-pagination-switch=\"true\" data-pagination=\"true\">" +
                     "</table>\n" +
                     "<script>\n" +
-                    "$('#table" + this.tablehash + "').bootstrapTable({columns: [" + columns.toString() + "], data: " + this.table.toString(2) + "\n})\n" +
-                    "</script>\n";
+                    "$('#table" + this.tablehash + "').bootstrapTable({columns: [" + columns.toString() + "], data: ");
+            if (this.rows == null) this.table.write(writer, 2); else this.rows.writeJSON(writer, true);
+            writer.write("\n})\n" +
+                    "</script>\n");
         }
     }
 
     public String getTable() throws JSONException {
-        return "<html>\n" +
+        final StringWriter writer = new StringWriter();
+        try {
+            writeTable(writer);
+        } catch (final IOException e) {
+            throw new JSONException(e.getMessage());
+        }
+        return writer.toString();
+    }
+
+    /**
+     * write the table with the data as html page; the data is written in chunks
+     * @param writer
+     * @throws IOException
+     */
+    public void writeTable(final Writer writer) throws IOException {
+        writer.write("<html>\n" +
                 "<head>\n" +
                 "<link href=\"/css/bootstrap-custom.css\" rel=\"stylesheet\">\n" +
                 "<link href=\"/css/base.css\" rel=\"stylesheet\">\n" +
@@ -120,8 +168,9 @@ public class TableGenerator {
                 "<script src=\"/js/fontawesome-all.js\"></script>\n" +
                 "<script src=\"/js/bootstrap.min.js\"></script>\n" +
                 "<script src=\"/js/bootstrap-table.min.js\"></script>\n" +
-                "</head><body>\n" + getTableI() + "</body></html>";
+                "</head><body>\n");
+        writeTableI(writer);
+        writer.write("</body></html>");
     }
 
-
-}
\ No newline at end of file
+}
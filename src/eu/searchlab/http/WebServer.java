@@ -20,12 +20,17 @@
 package eu.searchlab.http;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.Buffer;
@@ -38,13 +43,17 @@ import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
+import org.xnio.Options;
 
 import com.github.jknack.handlebars.Context;
 import com.github.jknack.handlebars.Handlebars;
@@ -94,16 +103,20 @@ import eu.searchlab.tools.Logger;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
 import io.undertow.Undertow.Builder;
+import io.undertow.UndertowOptions;
+import io.undertow.io.UndertowOutputStream;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.Cookie;
+import io.undertow.server.handlers.GracefulShutdownHandler;
 import io.undertow.server.handlers.PathHandler;
-import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.util.AttachmentKey;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
+import io.undertow.util.SameThreadExecutor;
 import io.undertow.util.StatusCodes;
 
 public class WebServer {
@@ -113,6 +126,7 @@ public class WebServer {
     public final static String COOKIE_USER_ID_NAME = "searchlab-user";
 
     private final static byte[] SSI_MARKER = "<!--#".getBytes();
+    private final static AttachmentKey<Service> SERVICE_KEY = AttachmentKey.create(Service.class); // the service of a request which was resolved in the IO thread
 
     public static File UI_PATH, APPS_PATH, HTDOCS_PATH;
 
@@ -131,10 +145,19 @@ public class WebServer {
     private final int port;
     private final String bind;
     public final Undertow server;
+    private final GracefulShutdownHandler shutdownHandler;
+    private final AccessLog accessLog; // null if requests are logged with the Logger
 
     public WebServer(final int port, final String bind) {
         this.port = port;
         this.bind = bind;
+        final String accessLogPath = System.getProperty("http.accesslog.path", "");
+        this.accessLog = accessLogPath.length() == 0 ? null : new AccessLog(
+                new File(accessLogPath),
+                Integer.parseInt(System.getProperty("http.accesslog.buffer", "8192")),
+                Long.parseLong(System.getProperty("http.accesslog.maxsize", "64")) * 1024L * 1024L,
+                Integer.parseInt(System.getProperty("http.accesslog.keep", "30")),
+                Long.parseLong(System.getProperty("http.accesslog.flush", "1000")));
 
         // register services
         ServiceMap.register(new MirrorService());
@@ -174,12 +197,52 @@ public class WebServer {
         // Start webserver
         final PathHandler ph = Handlers.path();
         ph.addPrefixPath("/", new Fileserver(new File[] {UI_PATH, APPS_PATH, HTDOCS_PATH}));
-        final HttpHandler encodingHandler = new EncodingHandler.Builder().build(null).wrap(ph);
+        this.shutdownHandler = Handlers.gracefulShutdown(ph); // running requests are drained when the server is stopped
+        int ioThreads = Integer.parseInt(System.getProperty("http.io.threads", "0"));
+        if (ioThreads <= 0) ioThreads = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+        int workerThreads = Integer.parseInt(System.getProperty("http.worker.threads", "0"));
+        if (workerThreads <= 0) workerThreads = ioThreads * 8;
         final Builder builder = Undertow.builder().addHttpListener(this.port, this.bind);
-        builder.setHandler(encodingHandler);
-        builder.setBufferSize(1024 * 16 - 20);
+        builder.setHandler(this.shutdownHandler);
+        builder.setIoThreads(ioThreads);
+        builder.setWorkerThreads(workerThreads);
+        builder.setBufferSize(Integer.parseInt(System.getProperty("http.buffer.size", Integer.toString(1024 * 16 - 20))));
+        builder.setDirectBuffers(Boolean.parseBoolean(System.getProperty("http.buffer.direct", "true")));
+        builder.setSocketOption(Options.BACKLOG, Integer.parseInt(System.getProperty("http.backlog", "1000")));
+        builder.setSocketOption(Options.KEEP_ALIVE, Boolean.parseBoolean(System.getProperty("tcp.keepalive", "true"))); // TCP probes of idle connections
+        builder.setSocketOption(Options.TCP_NODELAY, true);
+        final boolean persistent = Boolean.parseBoolean(System.getProperty("http.keepalive", "true")); // HTTP/1.1 persistent connections
+        builder.setServerOption(UndertowOptions.PERSISTENT_CONNECTIONS, persistent);
+        builder.setServerOption(UndertowOptions.ALWAYS_SET_KEEP_ALIVE, persistent);
+        builder.setServerOption(UndertowOptions.IDLE_TIMEOUT, Integer.parseInt(System.getProperty("http.idle.timeout", "60000")));
+        builder.setServerOption(UndertowOptions.ENABLE_HTTP2, Boolean.parseBoolean(System.getProperty("http.http2", "true"))); // h2c with upgrade or prior knowledge
         this.server = builder.build();
         this.server.start();
+        Logger.info("web server started with " + ioThreads + " io threads and " + workerThreads + " worker threads");
+    }
+
+    private final static int STREAM_CHUNK_SIZE = 8192;
+
+    private final static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        public CountingOutputStream(final OutputStream out) {
+            super(out);
+            this.count = 0;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
     }
 
     private class Fileserver implements HttpHandler {
@@ -193,7 +256,7 @@ public class WebServer {
         @Override
         public void handleRequest(final HttpServerExchange exchange) throws Exception {
 
-            if (exchange.isInIoThread()) {
+            if (exchange.isInIoThread() && !isNonBlocking(exchange)) {
                 // dispatch to a worker thread, see
                 // https://undertow.io/undertow-docs/undertow-docs-2.0.0/undertow-handler-guide.html#dispatch-code
                 exchange.dispatch(this);
@@ -267,14 +330,19 @@ public class WebServer {
             if (!isTemplatingFileType(serviceRequest.getExt()) && f != null) {
                 // just serve the file
                 try {
-                    final ByteBuffer bb = file2bytebuffer(f);
+                    // a precompressed variant is used if the client accepts it; it is computed only once for each file version
+                    final Compression.Variant variant = Compression.variant(f, serviceRequest.getMime(), requestHeaders.getFirst(Headers.ACCEPT_ENCODING));
+                    final File sf = variant == null ? f : variant.file;
+                    final ByteBuffer bb = file2bytebuffer(sf);
                     final long d = f.lastModified();
                     exchange.getResponseHeaders().put(Headers.DATE, DateParser.formatRFC1123(new Date(d))); // like a proper file server
                     exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "public, max-age=" + (System.currentTimeMillis() - d + 600)); // 10 minutes cache, for production: increase
                     exchange.getResponseHeaders().remove(Headers.EXPIRES); // MUST NOT appear in headers to enable caching with cache-control
-                    exchange.setResponseContentLength(f.length());
+                    if (Compression.compressible(serviceRequest.getMime())) exchange.getResponseHeaders().put(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+                    if (variant != null) exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, variant.encoding);
+                    exchange.setResponseContentLength(sf.length());
                     exchange.getResponseSender().send(bb);
-                    log(serviceRequest.getIP00(), client, user, method, path, StatusCodes.OK, f.length(), referer, userAgent);
+                    log(serviceRequest.getIP00(), client, user, method, path, StatusCodes.OK, sf.length(), referer, userAgent);
                 } catch (final IOException e) {
                     exchange.setStatusCode(StatusCodes.NOT_FOUND).setReasonPhrase("not found");
                     exchange.getResponseSender().send("");
@@ -285,64 +353,179 @@ public class WebServer {
 
             try {
                 // generate response (handle servlets + handlebars)
-                final ServiceResponse serviceResponse = processPost(serviceRequest);
-                String mime = serviceResponse.getMime();
-                if (mime == null) mime = serviceRequest.getMime();
-
-                final byte[] b = serviceResponse.toByteArray(false);
-                final Set<Cookie> cookies = serviceResponse.getCookies();
-                for (final Cookie cookie: cookies) exchange.setResponseCookie(cookie);
-                exchange.setStatusCode(serviceResponse.getStatusCode());
-                final Map<String, String> xheaders = serviceResponse.getXtraHeaders();
-                if (xheaders != null) xheaders.forEach((k, v) -> exchange.getResponseHeaders().put(new HttpString(k), v));
-
-                // send html to client
-                if (b == null) {
-                    exchange.setStatusCode(StatusCodes.NOT_FOUND).setReasonPhrase("not found").getResponseSender().send("");
-                } else {
-                    if ("application/json".equals(serviceRequest.getMime()) && endsWith(b, "]);".getBytes())) {
-                        // JSONP patch
-                        exchange.getResponseHeaders().remove(Headers.CONTENT_TYPE);
-                        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, mime);
-                    }
-                    /*
-                    if (query.endsWith(".jsonlist") || query.endsWith(".gz")) {
-                        exchange.getResponseHeaders().remove(Headers.CONTENT_TYPE);
-                        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, mime);
-                        int q = 0;
-                        q = query.lastIndexOf('/');
-                        if (q > 0) {
-                            final String filename = query.substring(q + 1);
-                            exchange.getResponseHeaders().put(Headers.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
-                        }
-                    }
-                    */
-                    exchange.getResponseHeaders().put(Headers.DATE, DateParser.formatRFC1123(new Date())); // current time because it is generated right now
-                    exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "no-cache");
-                    exchange.setResponseContentLength(b.length);
-                    exchange.getResponseSender().send(ByteBuffer.wrap(b));
+                final Service service = exchange.getAttachment(SERVICE_KEY);
+                final ServiceResponse serviceResponse = processPost(serviceRequest, service == null ? ServiceMap.getService(path) : service);
+                if (serviceResponse.isDeferred()) {
+                    // the exchange is not ended when this handler returns; no worker thread is held while the response is waiting.
+                    // When the response is completed, it is sent from a worker thread.
+                    final CompletableFuture<ServiceResponse> deferred = serviceResponse.getDeferred();
+                    exchange.dispatch(SameThreadExecutor.INSTANCE, () -> deferred.whenComplete((response, t) ->
+                        exchange.dispatch(exchange.getConnection().getWorker(), () -> {
+                            try {
+                                if (t != null) {
+                                    final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage());
+                                }
+                                send(exchange, serviceRequest, response, method, client, userAgent);
+                            } catch (final IOException e) {
+                                send(exchange, serviceRequest, e, method, client, userAgent);
+                            }
+                        })));
+                    return;
+                }
+                send(exchange, serviceRequest, serviceResponse, method, client, userAgent);
+            } catch (final IOException e) {
+                send(exchange, serviceRequest, e, method, client, userAgent);
+            }
+        }
+
+        /**
+         * check if a request can be answered in the IO thread. This is the case for GET requests to non-blocking services
+         * without a user cookie; the validation of a cookie may need to read the user database.
+         * @param exchange
+         * @return true if the request must not be dispatched to a worker thread
+         */
+        private boolean isNonBlocking(final HttpServerExchange exchange) {
+            if (!exchange.getRequestMethod().equals(Methods.GET)) return false;
+            if (exchange.getRequestCookie(COOKIE_USER_ID_NAME) != null) return false;
+            String path = exchange.getRequestPath();
+            final String user = getUserPrefix(path);
+            if (user != null) path = path.substring(user.length() + 1);
+            final Service service = ServiceMap.getServiceByPath(path);
+            if (service == null) return false;
+            exchange.putAttachment(SERVICE_KEY, service); // the service is not resolved again when the request is processed
+            return service.isNonBlocking();
+        }
+
+        private void send(final HttpServerExchange exchange, final ServiceRequest serviceRequest, final ServiceResponse serviceResponse, final String method, final String client, final String userAgent) throws IOException {
+            final String user = serviceRequest.getUser();
+            final String path = serviceRequest.getPath();
+            final String referer = serviceRequest.getReferer();
+            String mime = serviceResponse.getMime();
+            if (mime == null) mime = serviceRequest.getMime();
+
+            final Set<Cookie> cookies = serviceResponse.getCookies();
+            for (final Cookie cookie: cookies) exchange.setResponseCookie(cookie);
+            exchange.setStatusCode(serviceResponse.getStatusCode());
+            final Map<String, String> xheaders = serviceResponse.getXtraHeaders();
+            if (xheaders != null) xheaders.forEach((k, v) -> exchange.getResponseHeaders().put(new HttpString(k), v));
+            final boolean compressible = Compression.compressible(mime);
+            final boolean gzip = compressible && Compression.accepts(exchange.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING), Compression.GZIP);
+            if (compressible) exchange.getResponseHeaders().put(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+
+            if (serviceResponse.isStream() && !exchange.isInIoThread()) {
+                // streams are written blocking; the small responses of non-blocking services are rendered into a byte array below
+                if ("application/json".equals(serviceRequest.getMime()) && serviceRequest.get("callback", "").length() > 0) {
+                    // JSONP patch
+                    exchange.getResponseHeaders().remove(Headers.CONTENT_TYPE);
+                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, mime);
                 }
+                exchange.getResponseHeaders().put(Headers.DATE, DateParser.formatRFC1123(new Date())); // current time because it is generated right now
+                exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "no-cache");
+                // the size of a stream is not known in advance, therefore it is always compressed if possible
+                if (gzip) exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, Compression.GZIP);
+                final long size = stream(exchange, serviceResponse.getStream(), gzip);
                 log(serviceRequest.getIP00(), client, user, method,
                         "GET".equals(method) ? path + (exchange.getQueryString().length() > 0 ? ("?" + exchange.getQueryString()) : "") : path,
-                                exchange.getStatusCode(), b == null ? 0 : b.length,
+                                exchange.getStatusCode(), size,
                                         referer, userAgent);
+                return;
+            }
+
+            byte[] b = serviceResponse.toByteArray(false);
+
+            // send html to client
+            if (b == null) {
+                exchange.setStatusCode(StatusCodes.NOT_FOUND).setReasonPhrase("not found").getResponseSender().send("");
+            } else {
+                if ("application/json".equals(serviceRequest.getMime()) && endsWith(b, "]);".getBytes())) {
+                    // JSONP patch
+                    exchange.getResponseHeaders().remove(Headers.CONTENT_TYPE);
+                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, mime);
+                }
+                /*
+                if (query.endsWith(".jsonlist") || query.endsWith(".gz")) {
+                    exchange.getResponseHeaders().remove(Headers.CONTENT_TYPE);
+                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, mime);
+                    int q = 0;
+                    q = query.lastIndexOf('/');
+                    if (q > 0) {
+                        final String filename = query.substring(q + 1);
+                        exchange.getResponseHeaders().put(Headers.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+                    }
+                }
+                */
+                exchange.getResponseHeaders().put(Headers.DATE, DateParser.formatRFC1123(new Date())); // current time because it is generated right now
+                exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "no-cache");
+                if (gzip && b.length >= Compression.minSize) {
+                    b = Compression.gzip(b);
+                    exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, Compression.GZIP);
+                }
+                exchange.setResponseContentLength(b.length);
+                exchange.getResponseSender().send(ByteBuffer.wrap(b));
+            }
+            log(serviceRequest.getIP00(), client, user, method,
+                    "GET".equals(method) ? path + (exchange.getQueryString().length() > 0 ? ("?" + exchange.getQueryString()) : "") : path,
+                            exchange.getStatusCode(), b == null ? 0 : b.length,
+                                    referer, userAgent);
+        }
+
+        /**
+         * Write the content of a stream response in chunks without a content length.
+         * The worker thread blocks while the client does not accept more data; the memory which is used
+         * for the response does not grow with its size.
+         * @param exchange
+         * @param content
+         * @param gzip if true, the content is compressed while it is written
+         * @return the number of bytes which were written
+         * @throws IOException if the content fails before the response was started
+         */
+        private long stream(final HttpServerExchange exchange, final ServiceResponse.ContentWriter content, final boolean gzip) throws IOException {
+            exchange.startBlocking();
+            final OutputStream out = exchange.getOutputStream();
+            final CountingOutputStream os = new CountingOutputStream(out);
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(gzip ? new GZIPOutputStream(os, STREAM_CHUNK_SIZE) : os, StandardCharsets.UTF_8), STREAM_CHUNK_SIZE);
+            try {
+                content.write(writer);
+                writer.close(); // completes the response; the writer is not closed on failure because that would send the partial content
             } catch (final IOException e) {
-                // to support the migration of the community forum from searchlab.eu to community.searchlab.eu we send of all unknown pages a redirect
-                if (e instanceof FileNotFoundException) {
-                    final String redirect = "https://community.searchlab.eu" + path + (query.length() > 0 ? "?" + query : "");
-                    exchange.setStatusCode(StatusCodes.PERMANENT_REDIRECT).setReasonPhrase("page moved");
-                    exchange.getResponseHeaders().put(Headers.LOCATION, redirect);
-                    exchange.getResponseSender().send("");
-                } else {
-                    exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE).setReasonPhrase(e.getMessage());
-                    exchange.getResponseSender().send("");
+                if (!exchange.isResponseStarted()) {
+                    // nothing was sent yet: drop the buffered content and its encoding, the error response is sent instead
+                    if (out instanceof UndertowOutputStream) ((UndertowOutputStream) out).resetBuffer();
+                    exchange.getResponseHeaders().remove(Headers.CONTENT_ENCODING);
+                    throw e;
                 }
-                log(serviceRequest.getIP00(), client, user, method, path, exchange.getStatusCode(), 0, referer, userAgent);
+                // the response cannot be completed; closing the connection tells the client that it is incomplete
+                Logger.warn("response stream broken after " + os.count + " bytes: " + e.getMessage());
+                try {exchange.getConnection().close();} catch (final IOException ee) {}
+            }
+            return os.count;
+        }
+
+        private void send(final HttpServerExchange exchange, final ServiceRequest serviceRequest, final IOException e, final String method, final String client, final String userAgent) {
+            final String user = serviceRequest.getUser();
+            final String path = serviceRequest.getPath();
+            final String query = serviceRequest.getQuery();
+            final String referer = serviceRequest.getReferer();
+            // to support the migration of the community forum from searchlab.eu to community.searchlab.eu we send of all unknown pages a redirect
+            if (e instanceof FileNotFoundException) {
+                final String redirect = "https://community.searchlab.eu" + path + (query.length() > 0 ? "?" + query : "");
+                exchange.setStatusCode(StatusCodes.PERMANENT_REDIRECT).setReasonPhrase("page moved");
+                exchange.getResponseHeaders().put(Headers.LOCATION, redirect);
+                exchange.getResponseSender().send("");
+            } else {
+                exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE).setReasonPhrase(e.getMessage());
+                exchange.getResponseSender().send("");
             }
+            log(serviceRequest.getIP00(), client, user, method, path, exchange.getStatusCode(), 0, referer, userAgent);
         }
 
         private final void log(final String ip, final String client, final String user, final String method, final String path, final int response, final long size, final String referer, final String userAgent) {
-            Logger.info(ip + " " + client + " " + user + " \"" + method + " " + path + "\" " + response + " " + size + " \"" + referer + "\" \"" + userAgent + "\"");
+            if (WebServer.this.accessLog != null) {
+                WebServer.this.accessLog.log(ip, client, user, method, path, response, size, referer, userAgent);
+            } else {
+                Logger.info(ip + " " + client + " " + user + " \"" + method + " " + path + "\" " + response + " " + size + " \"" + referer + "\" \"" + userAgent + "\"");
+            }
         }
 
         /**
@@ -352,6 +535,17 @@ public class WebServer {
          * @throws IOException in case this request cannot be fullfilled.
          */
         private ServiceResponse processPost(final ServiceRequest serviceRequest) throws IOException {
+            return processPost(serviceRequest, ServiceMap.getService(serviceRequest.getPath()));
+        }
+
+        /**
+         * processing a request with parameters
+         * @param post the post request with special object "PATH" which containes the request path
+         * @param service the service for the request path or null if there is none
+         * @return full html or any kind of response that should be transferred with http status code 200
+         * @throws IOException in case this request cannot be fullfilled.
+         */
+        private ServiceResponse processPost(final ServiceRequest serviceRequest, final Service service) throws IOException {
 
             final String path = serviceRequest.getPath();
 
@@ -361,7 +555,6 @@ public class WebServer {
             // generate response (handle servlets + handlebars)
             byte[] b = null;
             if (f != null) b = file2bytes(f); // throws FileNotFoundException which must be handled outside
-            final Service service = ServiceMap.getService(path);
 
             // we distinguish the following four cases of a response construction base on
             // the presence of a file for the given path and a service defined for the given path
@@ -377,15 +570,38 @@ public class WebServer {
                 throw new FileNotFoundException("not found:" + path);
             }
 
-            ServiceResponse serviceResponse = null;
-            if (b != null && service == null) {
-                // case (1) - serve the file
-                serviceResponse = new ServiceResponse(b); // sets Type.BINARY
+            // case (1) - serve the file; case (2) and (3) - call the service
+            final ServiceResponse serviceResponse = service == null ? new ServiceResponse(b) : service.serve(serviceRequest); // new ServiceResponse(b) sets Type.BINARY
+            if (serviceResponse.isDeferred()) {
+                // the response of the service is processed when it is completed
+                final byte[] template = b;
+                return new ServiceResponse(serviceResponse.getDeferred().thenApply(response -> {
+                    try {
+                        return processResponse(serviceRequest, template, f, service, response);
+                    } catch (final IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }));
             }
+            return processResponse(serviceRequest, b, f, service, serviceResponse);
+        }
+
+        /**
+         * transform the response of a service or a file into the final response
+         * @param serviceRequest the request
+         * @param b the content of the requested file or null if no file exists
+         * @param f the requested file or null if no file exists
+         * @param service the service for the request path or null if no service exists
+         * @param serviceResponse the response of the service or the file
+         * @return the response that can be sent to the client
+         * @throws IOException in case this request cannot be fullfilled.
+         */
+        private ServiceResponse processResponse(final ServiceRequest serviceRequest, byte[] b, final File f, final Service service, final ServiceResponse serviceResponse) throws IOException {
+
+            final String path = serviceRequest.getPath();
 
             if (b == null && service != null) {
                 // case (2) - construct a result based on the service
-                serviceResponse = service.serve(serviceRequest);
 
                 // depending on the path extension the OBJECT or ARRAY content can be transformed
                 // to html in the shape of a table or a graph
@@ -405,15 +621,17 @@ public class WebServer {
                     if (path.endsWith(".json")) {
                         final String callback = serviceRequest.get("callback", ""); //  used like "callback=?", which encapsulates then json into <callback> "([" <json> "]);"
                         final boolean minified = serviceRequest.get("minified", false);
-                        String jsons = "";
-                        jsons = minified ? json.toString() : json.toString(2);
-                        jsons = callback.length() > 0 ? (callback + "([" + jsons + "]);") : jsons;
-                        serviceResponse.setValue(jsons);
+                        serviceResponse.setValue(writer -> {
+                            if (callback.length() > 0) writer.write(callback + "([");
+                            json.write(writer, minified ? -1 : 2);
+                            if (callback.length() > 0) writer.write("]);");
+                        });
                         return serviceResponse;
                     }
                     if (path.endsWith(".table")) {
                         try {
-                            serviceResponse.setValue(new TableGenerator(tablename, json).getTable());
+                            final TableGenerator generator = new TableGenerator(tablename, json);
+                            serviceResponse.setValue(generator::writeTable);
                             return serviceResponse;
                         } catch (final JSONException e) {
                             throw new IOException(e.getMessage());
@@ -421,7 +639,8 @@ public class WebServer {
                     }
                     if (path.endsWith(".tablei")) {
                         try {
-                            serviceResponse.setValue(new TableGenerator(tablename, json).getTableI());
+                            final TableGenerator generator = new TableGenerator(tablename, json);
+                            serviceResponse.setValue(generator::writeTableI);
                             return serviceResponse;
                         } catch (final JSONException e) {
                             throw new IOException(e.getMessage());
@@ -434,53 +653,18 @@ public class WebServer {
                     if (array == null) return null;
 
                     if (path.endsWith(".json")) {
-                        serviceResponse.setValue(array.toString(2));
+                        serviceResponse.setValue(writer -> array.write(writer, 2));
                         return serviceResponse;
                     }
                     if (path.endsWith(".csv")) {
                         // write a csv file
-                        try {
-                            final List<String> headKeys = new ArrayList<>();
-                            final StringBuilder sb = new StringBuilder();
-                            // there are two types of array representations
-                            // - either as array of arrays where the first array has the column names
-                            // - or as array of objects where each array entry has objects with same keys
-                            final Object head = array.get(0);
-                            if (head instanceof JSONArray) {
-                                // array of arrays
-                                for (int i = 0; i < ((JSONArray) head).length(); i++) headKeys.add(((JSONArray) head).getString(i));
-                                for (final String k: headKeys) sb.append(k).append(';');
-                                sb.setCharAt(sb.length() - 1, '\n');
-                                for (int i = 1; i < array.length(); i++) {
-                                    final JSONArray row = array.getJSONArray(i);
-                                    for (int j = 0; j < headKeys.size(); j++) sb.append(row.getString(j)).append(';');
-                                    sb.setCharAt(sb.length() - 1, '\n');
-                                }
-                            } else {
-                                // array of objects
-                                headKeys.addAll(((JSONObject) head).keySet()); // this MUST be put into an List to ensure that the order is consistent in all lines
-                                for (final String k: headKeys) sb.append(k).append(';');
-                                sb.setCharAt(sb.length() - 1, '\n');
-                                for (int i = 0; i < array.length(); i++) {
-                                    final JSONObject row = array.getJSONObject(i);
-                                    for (final String k: headKeys) {
-                                        final Object vo = row.opt(k);
-                                        String vs = vo == null ? "" : vo instanceof String ? (String) vo : String.valueOf(vo);
-                                        if (vo instanceof Double || vo instanceof Float) vs = vs.replace('.', ','); // german decimal separator
-                                        sb.append(vs).append(';');
-                                    }
-                                    sb.setCharAt(sb.length() - 1, '\n');
-                                }
-                            }
-                            serviceResponse.setValue(sb.toString());
-                            return serviceResponse;
-                        } catch (final JSONException e) {
-                            throw new IOException(e.getMessage());
-                        }
+                        serviceResponse.setValue(writer -> writeCSV(writer, array));
+                        return serviceResponse;
                     }
                     if (path.endsWith(".table")) {
                         try {
-                            serviceResponse.setValue(new TableGenerator(tablename, array).getTable());
+                            final TableGenerator generator = new TableGenerator(tablename, array);
+                            serviceResponse.setValue(generator::writeTable);
                             return serviceResponse;
                         } catch (final JSONException e) {
                             throw new IOException(e.getMessage());
@@ -488,7 +672,8 @@ public class WebServer {
                     }
                     if (path.endsWith(".tablei")) {
                         try {
-                            serviceResponse.setValue(new TableGenerator(tablename, array).getTableI());
+                            final TableGenerator generator = new TableGenerator(tablename, array);
+                            serviceResponse.setValue(generator::writeTableI);
                             return serviceResponse;
                         } catch (final JSONException e) {
                             throw new IOException(e.getMessage());
@@ -499,21 +684,27 @@ public class WebServer {
                     final IndexedTable table = serviceResponse.getTable();
                     if (table == null) return null;
 
+                    if (path.endsWith(".json")) {
+                        final boolean asObjects = serviceRequest.get("asObjects", true);
+                        serviceResponse.setValue(writer -> table.writeJSON(writer, asObjects));
+                        return serviceResponse;
+                    }
+                    if (path.endsWith(".csv")) {
+                        serviceResponse.setValue(writer -> writeCSV(writer, table));
+                        return serviceResponse;
+                    }
+
                     if (path.endsWith(".table")) {
-                        try {
-                            serviceResponse.setValue(new TableGenerator(path, table.toJSON(true)).getTable());
-                            return serviceResponse;
-                        } catch (final JSONException e) {
-                            throw new IOException(e.getMessage());
-                        }
+                        // the rows are streamed like for json and csv
+                        final TableGenerator generator = new TableGenerator(path, table);
+                        serviceResponse.setValue(generator::writeTable);
+                        return serviceResponse;
                     }
                     if (path.endsWith(".tablei")) {
-                        try {
-                            serviceResponse.setValue(new TableGenerator(path, table.toJSON(true)).getTableI());
-                            return serviceResponse;
-                        } catch (final JSONException e) {
-                            throw new IOException(e.getMessage());
-                        }
+                        // the rows are streamed like for json and csv
+                        final TableGenerator generator = new TableGenerator(path, table);
+                        serviceResponse.setValue(generator::writeTableI);
+                        return serviceResponse;
                     }
                     new IOException("extension not appropriate for JSONArray");
                 }
@@ -521,8 +712,6 @@ public class WebServer {
 
             if (b != null && service != null) {
                 // case (3) - treat the file as template and use the service to instantiate the template with content
-                serviceResponse = service.serve(serviceRequest);
-
                 // apply template using the OBJECT or ARRAY content which the service produced
                 if (serviceResponse.getType() == Service.Type.OBJECT) {
                     final JSONObject json = serviceResponse.getObject();
@@ -569,6 +758,69 @@ public class WebServer {
             return serviceResponse;
         }
 
+        /**
+         * write a JSONArray as csv; there are two types of array representations
+         * - either as array of arrays where the first array has the column names
+         * - or as array of objects where each array entry has objects with same keys
+         */
+        private void writeCSV(final Writer writer, final JSONArray array) throws IOException {
+            if (array.length() == 0) return;
+            try {
+                final List<String> headKeys = new ArrayList<>();
+                final Object head = array.get(0);
+                if (head instanceof JSONArray) {
+                    // array of arrays
+                    for (int i = 0; i < ((JSONArray) head).length(); i++) headKeys.add(((JSONArray) head).getString(i));
+                    writer.write(String.join(";", headKeys));
+                    writer.write('\n');
+                    for (int i = 1; i < array.length(); i++) {
+                        final JSONArray row = array.getJSONArray(i);
+                        for (int j = 0; j < headKeys.size(); j++) {
+                            if (j > 0) writer.write(';');
+                            writer.write(row.getString(j));
+                        }
+                        writer.write('\n');
+                    }
+                } else {
+                    // array of objects
+                    headKeys.addAll(((JSONObject) head).keySet()); // this MUST be put into an List to ensure that the order is consistent in all lines
+                    writer.write(String.join(";", headKeys));
+                    writer.write('\n');
+                    for (int i = 0; i < array.length(); i++) {
+                        final JSONObject row = array.getJSONObject(i);
+                        for (int j = 0; j < headKeys.size(); j++) {
+                            if (j > 0) writer.write(';');
+                            writer.write(csvValue(row.opt(headKeys.get(j))));
+                        }
+                        writer.write('\n');
+                    }
+                }
+            } catch (final JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        /**
+         * write a table as csv, row by row
+         */
+        private void writeCSV(final Writer writer, final IndexedTable table) throws IOException {
+            writer.write(String.join(";", table.columnNames()));
+            writer.write('\n');
+            for (int row = 0; row < table.rowCount(); row++) {
+                for (int column = 0; column < table.columnCount(); column++) {
+                    if (column > 0) writer.write(';');
+                    writer.write(csvValue(table.column(column).get(row)));
+                }
+                writer.write('\n');
+            }
+        }
+
+        private String csvValue(final Object vo) {
+            final String vs = vo == null ? "" : vo instanceof String ? (String) vo : String.valueOf(vo);
+            if (vo instanceof Double || vo instanceof Float) return vs.replace('.', ','); // german decimal separator
+            return vs;
+        }
+
         private byte[] ssi(final ServiceRequest serviceRequest, final byte[] b) throws IOException {
             // apply server-side includes
             /*
@@ -813,7 +1065,19 @@ public class WebServer {
         return true;
     }
 
+    /**
+     * stop the server after the running requests are finished. New requests are rejected with 503 while
+     * the server drains; requests which are not finished within http.shutdown.timeout milliseconds are aborted.
+     */
     public void stop() {
+        this.shutdownHandler.shutdown();
+        try {
+            final long timeout = Long.parseLong(System.getProperty("http.shutdown.timeout", "30000"));
+            if (!this.shutdownHandler.awaitShutdown(timeout)) Logger.warn("web server stopped with running requests");
+        } catch (final InterruptedException e) {
+            Logger.warn("web server shutdown interrupted");
+        }
         this.server.stop();
+        if (this.accessLog != null) this.accessLog.close();
     }
 }
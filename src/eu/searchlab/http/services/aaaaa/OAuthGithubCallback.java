@@ -188,6 +188,11 @@ public class OAuthGithubCallback  extends AbstractService implements Service {
             // get userid for user to authenticate the user
             // - search email address in authentication database
             Authentication authentication = Searchlab.userDB.getAuthentiationByEmail(userEmail);
+            // - if not present, the primary email of the github account may have changed: search the github login
+            if (authentication == null) {
+                authentication = Searchlab.userDB.getAuthentiationByGithubLogin(userGithubLogin);
+                if (authentication != null) authentication.setEmail(userEmail);
+            }
             // - if not present, generate new entry
             if (authentication == null) {
                 authentication = new Authentication();
@@ -203,6 +203,11 @@ public class OAuthPatreonCallback  extends AbstractService implements Service {
             // get userid for user to authenticate the user
             // - search email address in authentication database
             Authentication authentication = Searchlab.userDB.getAuthentiationByEmail(userEmail);
+            // - if not present, the email of the patreon account may have changed: search the patreon id
+            if (authentication == null) {
+                authentication = Searchlab.userDB.getAuthentiationByPatreonId(userPatreonId);
+                if (authentication != null) authentication.setEmail(userEmail);
+            }
             // - if not present, generate new entry
             if (authentication == null) {
                 authentication = new Authentication();
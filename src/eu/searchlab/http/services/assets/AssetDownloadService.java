@@ -61,7 +61,7 @@ public class AssetDownloadService extends AbstractService implements Service {
 
         byte[] b;
         try {
-            b = Searchlab.io.readAll(apppath).get();
+            b = Searchlab.assetIO.readAll(apppath).get();
         } catch (final IOException | InterruptedException | ExecutionException e) {
             Logger.warn("attempt to list " + apppath.toString(), e);
             b = new byte[] {};
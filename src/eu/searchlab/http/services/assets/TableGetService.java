@@ -29,9 +29,24 @@ import eu.searchlab.http.Service;
 import eu.searchlab.http.ServiceRequest;
 import eu.searchlab.http.ServiceResponse;
 import eu.searchlab.storage.table.IndexedTable;
+import eu.searchlab.storage.table.MinuteSeriesTable;
+import eu.searchlab.storage.table.TableQuery;
+import eu.searchlab.tools.Logger;
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.api.Table;
 
+/**
+ * Query a table with the attributes
+ * where=col0:val0,col1:>=val1,... columns=col0,col1 orderby=-col0 groupby=col0 aggregate=count,col1.sum offset=0 limit=100
+ * The syntax of the attributes is described in TableQuery. The number of rows in one response is limited to MAX_LIMIT;
+ * the number of all matching rows is given in the X-Total-Count header and further rows can be fetched with offset.
+ * Time series tables can be read with a reduced resolution with the attributes points=1000 from=<millis> until=<millis>;
+ * the query is then done on the minute rows or the hour or day aggregates as chosen by MinuteSeriesTable.downsample.
+ */
 public class TableGetService extends AbstractService implements Service {
 
+    public final static int MAX_LIMIT = 100000;
+
     @Override
     public boolean supportsPath(String path) {
         if (!path.startsWith("api/get/")) return false;
@@ -56,36 +71,60 @@ public class TableGetService extends AbstractService implements Service {
         if (p < 0) return new ServiceResponse(new JSONArray());
         final int q = path.indexOf(".", p);
         final String tablename = path.substring(p + 5, q);
-        final boolean asObjects = request.get("asObjects", true);
-        final String where = request.get("where", ""); // where=col0:val0,col1:val1,...
-        final String select = request.get("select", ""); // get(column, value), pivot(column, op)
+        final String where = request.get("where", ""); // where=col0:val0,col1:>=val1,col2:prefix*,...
+        final String select = request.get("select", ""); // head
         final int count = request.get("count", -1);
+        int limit = request.get("limit", -1);
+        if (limit < 0 && "head".equals(select)) limit = count;
 
-        final IndexedTable table = selectArray(tablename, where, select, count, asObjects);
-        final JSONArray array = table.toJSON(asObjects);
-        return new ServiceResponse(array);
+        final IndexedTable it = TablePanel.tables.getTable(tablename);
+        if (it == null) return new ServiceResponse(new JSONArray());
+        final int points = request.get("points", -1);
+        try {
+            final IndexedTable source = points > 0 ? downsample(it, request.get("from", 0L), request.get("until", Long.MAX_VALUE), points) : it;
+            final TableQuery query = new TableQuery(source)
+                    .where(split(where))
+                    .columns(split(request.get("columns", "")))
+                    .orderBy(split(request.get("orderby", "")))
+                    .groupBy(split(request.get("groupby", "")))
+                    .aggregate(split(request.get("aggregate", "")))
+                    .offset(request.get("offset", 0))
+                    .limit(limit < 0 ? MAX_LIMIT : Math.min(MAX_LIMIT, limit));
+            // the table is written to the client row by row, see WebServer
+            final IndexedTable result = query.execute();
+            // the number of all matching rows; larger results can be fetched page by page with offset and limit
+            return new ServiceResponse(result).setSpecial(200, "X-Total-Count", Integer.toString(query.matches()));
+        } catch (final RuntimeException e) {
+            // malformed predicates, unknown columns, aggregates or values which do not match the column type
+            Logger.warn("bad query for table " + tablename + ": " + e.getMessage());
+            return new ServiceResponse(new JSONArray()).setBadRequest();
+        }
     }
 
-    public static IndexedTable selectArray(final String tablename, final String where, String select, int count, final boolean asObjects) throws IOException {
-
-        // get table from panel
-        IndexedTable it;
-        // where
-        if (where.length() > 0) {
-            it = TablePanel.tables.where(tablename, where.split(","));
-        } else {
-            it = TablePanel.tables.getTable(tablename);
+    /**
+     * read a time series table with a resolution which produces not more than the given number of rows
+     * @param it a table with the column layout of a MinuteSeriesTable
+     * @param from the first time, included
+     * @param until the end time, excluded
+     * @param points the maximum number of rows
+     * @return the rows in the chosen resolution
+     * @throws IllegalArgumentException if the table is not a time series
+     */
+    private static IndexedTable downsample(final IndexedTable it, final long from, final long until, final int points) throws IllegalArgumentException {
+        final Table t = it.table();
+        if (t.columnCount() < 2 || !t.column(0).name().equals(MinuteSeriesTable.TS_TIME) || !t.column(1).name().equals(MinuteSeriesTable.TS_DATE)) {
+            throw new IllegalArgumentException("table is not a time series");
         }
-
-        // execute constraints
-        // sort
-        // segment
-        if (it.rowCount() > 100000) {count = count <= 0 ? 100000 : Math.min(100000, count); select = "head";}
-        if ("head".equals(select) && count > 0) {
-            it = it.head(count);
+        final boolean dataIsDouble = t.columnNames().stream().anyMatch(name -> name.startsWith("data.") && t.column(name) instanceof DoubleColumn);
+        try {
+            return new IndexedTable(new MinuteSeriesTable(t.copy(), dataIsDouble).downsample(from, until, points));
+        } catch (final IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
         }
+    }
 
-        return it;
+    private static String[] split(final String list) {
+        return list.length() == 0 ? new String[0] : list.split(",");
     }
 
 }
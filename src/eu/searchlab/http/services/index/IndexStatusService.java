@@ -45,12 +45,13 @@ public class IndexStatusService extends AbstractService implements Service {
 
         // evaluate request parameter
         //final String indexName = call.optString("index", GridIndex.DEFAULT_INDEXNAME_WEB);
-        final JSONObject json = new JSONObject(true);
-
-        for (final String indexName: indexNames) {
-            json.put(indexName, Searchlab.ec.count(indexName));
-        }
-        return new ServiceResponse(json);
+        return async(() -> {
+            final JSONObject json = new JSONObject(true);
+            for (final String indexName: indexNames) {
+                json.put(indexName, Searchlab.ec.count(indexName));
+            }
+            return new ServiceResponse(json);
+        });
     }
 
 }
@@ -94,6 +94,12 @@ public class YaCySearchService extends AbstractService implements Service {
             }
         }
 
+        // the query is answered by the elasticsearch backend which may be slow; this must not block a worker thread
+        return async(() -> search(request));
+    }
+
+    private ServiceResponse search(final ServiceRequest request) {
+
         final boolean hasReferer = request.hasReferer(); // if this request comes with no referrer, do not offer more than one response pages
         final boolean allowPaging = true; // hasReferer
 
@@ -19,6 +19,9 @@
 
 package eu.searchlab.http.services.info;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import eu.searchlab.Searchlab;
 import eu.searchlab.http.AbstractService;
 import eu.searchlab.http.Service;
@@ -32,6 +35,9 @@ import eu.searchlab.http.ServiceResponse;
  */
 public class GraphGetService extends AbstractService implements Service {
 
+    // maximum time in milliseconds that a request waits for a graph which is not painted yet
+    private final static long timeout = Long.parseLong(System.getProperty("graph.wait.timeout", "600000"));
+
     @Override
     public boolean supportsPath(String path) {
         if (!path.startsWith("/api/graph/")) return false;
@@ -55,17 +61,11 @@ public class GraphGetService extends AbstractService implements Service {
 
         // Graphs may be computed at start-up time concurrently.
         // Because some graphs may not already exist a the time the server was started,
-        // we do some busy waiting here until the graph is available
-        final long timeout = System.currentTimeMillis() + 600000L; // 10 minutes
-        while (System.currentTimeMillis() < timeout) {
-            final String graph = Searchlab.htmlPanel.get(graphname);
-            if (graph != null && !graph.isEmpty()) {
-                return new ServiceResponse(graph);
-            }
-            try {Thread.sleep(1000);} catch (final InterruptedException e) {}
-        }
-
-        // timeout
-        return new ServiceResponse("");
+        // the response is deferred until the graph is available or the deadline is reached
+        final CompletableFuture<String> graph = Searchlab.htmlPanel.future(graphname);
+        if (graph.isDone()) return new ServiceResponse(graph.join());
+        return new ServiceResponse(graph
+                .thenApply(html -> new ServiceResponse(html))
+                .completeOnTimeout(new ServiceResponse(""), timeout, TimeUnit.MILLISECONDS));
     }
 }
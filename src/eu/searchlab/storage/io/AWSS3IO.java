@@ -31,15 +31,23 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
+import com.amazonaws.SdkClientException;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
@@ -48,6 +56,9 @@ import io.findify.s3mock.S3Mock;
 
 public class AWSS3IO extends AbstractIO implements GenericIO {
 
+    private final static long MIN_PART_SIZE = 5L * 1024L * 1024L;
+    private final static long MAX_PART_SIZE = 5L * 1024L * 1024L * 1024L;
+
     final AmazonS3Client s3;
     private final String endpointURL, accessKey, secretKey;
 
@@ -170,6 +181,55 @@ public class AWSS3IO extends AbstractIO implements GenericIO {
         this.s3.copyObject(fromIOp.getBucket(), fromIOp.getObjectPath(), toIOp.getBucket(), toIOp.getObjectPath());
     }
 
+    /**
+     * server-side merge with a multipart upload where each part is copied from a source object (upload-part-copy).
+     * No data is transferred through this client. All parts except the last must have a size of at least 5MB;
+     * otherwise the objects are merged by streaming.
+     */
+    @Override
+    public void mergeFrom(final IOPath iop, final IOPath... fromIOps) throws IOException {
+        final long[] sizes = new long[fromIOps.length];
+        try {
+            for (int i = 0; i < fromIOps.length; i++) {
+                sizes[i] = this.s3.getObjectMetadata(fromIOps[i].getBucket(), fromIOps[i].getObjectPath()).getContentLength();
+                if (i < fromIOps.length - 1 && sizes[i] < MIN_PART_SIZE) {
+                    super.mergeFrom(iop, fromIOps);
+                    return;
+                }
+            }
+        } catch (final SdkClientException e) {
+            throw new IOException(e.getMessage());
+        }
+        if (fromIOps.length == 0) {
+            super.mergeFrom(iop, fromIOps);
+            return;
+        }
+        final String uploadId = this.s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(iop.getBucket(), iop.getObjectPath())).getUploadId();
+        try {
+            final List<PartETag> etags = new ArrayList<>();
+            for (int i = 0; i < fromIOps.length; i++) {
+                // a single part copy is limited to 5GB; larger sources are split into parts of equal size
+                // so that no part is smaller than the minimum part size
+                final long count = Math.max(1, (sizes[i] + MAX_PART_SIZE - 1) / MAX_PART_SIZE);
+                final long partSize = (sizes[i] + count - 1) / count;
+                long offset = 0;
+                do {
+                    final CopyPartRequest request = new CopyPartRequest()
+                            .withSourceBucketName(fromIOps[i].getBucket()).withSourceKey(fromIOps[i].getObjectPath())
+                            .withDestinationBucketName(iop.getBucket()).withDestinationKey(iop.getObjectPath())
+                            .withUploadId(uploadId).withPartNumber(etags.size() + 1);
+                    if (count > 1) request.withFirstByte(offset).withLastByte(Math.min(offset + partSize, sizes[i]) - 1);
+                    etags.add(this.s3.copyPart(request).getPartETag());
+                    offset += partSize;
+                } while (offset < sizes[i]);
+            }
+            this.s3.completeMultipartUpload(new CompleteMultipartUploadRequest(iop.getBucket(), iop.getObjectPath(), uploadId, etags));
+        } catch (final SdkClientException e) {
+            this.s3.abortMultipartUpload(new AbortMultipartUploadRequest(iop.getBucket(), iop.getObjectPath(), uploadId));
+            throw new IOException(e.getMessage());
+        }
+    }
+
     @Override
     public InputStream read(final IOPath iop) throws IOException {
         final S3Object obj = this.s3.getObject(iop.getBucket(), iop.getObjectPath());
@@ -243,6 +303,63 @@ public class AWSS3IO extends AbstractIO implements GenericIO {
         return date.getTime() < System.currentTimeMillis();
     }
 
+    @Override
+    public String getETag(final IOPath iop) throws IOException {
+        try {
+            return this.s3.getObjectMetadata(iop.getBucket(), iop.getObjectPath()).getETag();
+        } catch (final AmazonS3Exception e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public IOObject readETagged(final IOPath iop) throws IOException {
+        final S3Object obj;
+        try {
+            obj = this.s3.getObject(iop.getBucket(), iop.getObjectPath());
+        } catch (final SdkClientException e) {
+            throw new IOException(e.getMessage());
+        }
+        if (obj == null) throw new IOException("object does not exist: " + iop.toString());
+        final String etag = obj.getObjectMetadata().getETag();
+        try (final InputStream is = obj.getObjectContent()) {
+            return new IOObject(iop, readAll(is, -1), etag);
+        } catch (final SdkClientException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private String writeConditional(final IOPath iop, final byte[] object, final String header, final String value) throws IOException {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("application/octet-stream");
+        metadata.setContentLength(object.length);
+        final PutObjectRequest request = new PutObjectRequest(iop.getBucket(), iop.getObjectPath(), new ByteArrayInputStream(object), metadata);
+        if (header != null) request.putCustomRequestHeader(header, value);
+        try {
+            final PutObjectResult result = this.s3.putObject(request);
+            return result.getETag();
+        } catch (final AmazonS3Exception e) {
+            // 412 if the condition was not met, 409 if a concurrent conditional write was in progress
+            if (e.getStatusCode() == 412 || e.getStatusCode() == 409) return null;
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public String writeETagged(final IOPath iop, final byte[] object) throws IOException {
+        return writeConditional(iop, object, null, null);
+    }
+
+    @Override
+    public String writeIfAbsent(final IOPath iop, final byte[] object) throws IOException {
+        return writeConditional(iop, object, "If-None-Match", "*");
+    }
+
+    @Override
+    public String writeIfMatch(final IOPath iop, final byte[] object, final String etag) throws IOException {
+        return writeConditional(iop, object, "If-Match", "\"" + etag + "\"");
+    }
+
     @Override
     public String toString() {
         return this.accessKey + "@" + this.endpointURL;
@@ -19,21 +19,35 @@
 
 package eu.searchlab.storage.io;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedOutputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
@@ -43,9 +57,68 @@ import eu.searchlab.tools.Logger;
 
 public abstract class AbstractIO implements GenericIO {
 
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    protected final static int MERGE_BUFFER_SIZE = 1024 * 1024;
+
+    // all asynchronous reads share one bounded pool; the number of concurrent reads per bucket is limited by lanes
+    private static ExecutorService pool = null;
+    private final int bucketLimit = Integer.parseInt(System.getProperty("storage.io.bucketlimit", "8"));
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
     protected final ConcurrentHashMap<IOPath, IODirList> dirListCache = new ConcurrentHashMap<>();
 
+    private static class Lane {
+        private int running = 0;
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            final int threads = Integer.parseInt(System.getProperty("storage.io.threads", "16"));
+            final AtomicInteger count = new AtomicInteger(0);
+            pool = Executors.newFixedThreadPool(threads, r -> {
+                final Thread t = new Thread(r, "IO reader " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Run a task in the IO pool. Tasks for a bucket wait in a lane if the bucket has already
+     * as many running tasks as the bucket limit allows, so that a single bucket cannot block the pool.
+     * Cancelling the returned future interrupts a running task or removes a waiting task.
+     * @param bucket
+     * @param callable
+     * @return the future of the task
+     */
+    protected <T> Future<T> submit(final String bucket, final Callable<T> callable) {
+        final FutureTask<T> task = new FutureTask<>(callable);
+        final Lane lane = this.lanes.computeIfAbsent(bucket, b -> new Lane());
+        final Runnable runner = () -> {
+            try {
+                task.run(); // does nothing if the task was cancelled while it was waiting
+            } finally {
+                next(lane);
+            }
+        };
+        synchronized (lane) {
+            if (lane.running < this.bucketLimit) {
+                lane.running++;
+                getPool().execute(runner);
+            } else {
+                lane.waiting.add(runner);
+            }
+        }
+        return task;
+    }
+
+    private static void next(final Lane lane) {
+        synchronized (lane) {
+            final Runnable r = lane.waiting.poll();
+            if (r == null) lane.running--; else getPool().execute(r);
+        }
+    }
+
     @Override
     public List<IOPathMeta> list(final IOPath path) throws IOException {
         final List<IOPathMeta> list = list(path.getBucket(), path.getObjectPath());
@@ -102,6 +175,7 @@ public abstract class AbstractIO implements GenericIO {
             final GZIPInputStream gis = new GZIPInputStream(bais);
             return gis;
         } catch (InterruptedException | ExecutionException e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
             throw new IOException(e.getMessage());
         }
     }
@@ -111,6 +185,7 @@ public abstract class AbstractIO implements GenericIO {
         int c;
         byte[] b = new byte[16384];
         while ((c = is.read(b, 0, b.length)) != -1) {
+            if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("read cancelled");
             baos.write(b, 0, c);
             if (len > 0 && baos.size() >= len) break;
         }
@@ -125,48 +200,59 @@ public abstract class AbstractIO implements GenericIO {
 
     @Override
     public Future<byte[]> readAll(final IOPath iop) throws IOException {
-        return this.executor.submit(() -> {
-            return readAll(read(iop), -1);
+        return submit(iop.getBucket(), () -> {
+            try (final InputStream is = read(iop)) {
+                return readAll(is, -1);
+            }
         });
     }
 
     @Override
     public Future<byte[]> readAll(final IOPath iop, final long offset) throws IOException {
-        return this.executor.submit(() -> {
-            return readAll(read(iop, offset), -1);
+        return submit(iop.getBucket(), () -> {
+            try (final InputStream is = read(iop, offset)) {
+                return readAll(is, -1);
+            }
         });
     }
 
     @Override
     public Future<byte[]> readAll(final IOPath iop, final long offset, final long len) throws IOException {
-        return this.executor.submit(() -> {
-            return readAll(read(iop, offset), (int) len);
+        return submit(iop.getBucket(), () -> {
+            try (final InputStream is = read(iop, offset)) {
+                return readAll(is, (int) len);
+            }
         });
     }
 
     @Override
-    public void merge(final IOPath fromIOp0, final IOPath fromIOp1, final IOPath toIOp) throws IOException {
-        final long size0 = this.size(fromIOp0);
-        final long size1 = this.size(fromIOp1);
-        final long size = size0 < 0 || size1 < 0 ? -1 : size0 + size1;
-        final PipedOutputStream pos = new PipedOutputStream();
-        this.write(toIOp, pos, size);
-        InputStream is = this.read(fromIOp0);
-        final byte[] buffer = new byte[4096];
-        int l;
+    public Map<IOPath, byte[]> readAllBatch(final Collection<IOPath> iops) throws IOException {
+        final Map<IOPath, Future<byte[]>> futures = new LinkedHashMap<>();
+        for (final IOPath iop: iops) futures.put(iop, readAll(iop));
+        final Map<IOPath, byte[]> result = new LinkedHashMap<>();
         try {
-            while ((l = is.read(buffer)) > 0) pos.write(buffer, 0, l);
-            is.close();
-        } catch (final IOException e) {}
-        is = this.read(fromIOp1);
-        try {
-            while ((l = is.read(buffer)) > 0) pos.write(buffer, 0, l);
-            is.close();
-        } catch (final IOException e) {}
-        pos.close();
-        this.dirListCache.remove(toIOp.getParent());
+            for (final Map.Entry<IOPath, Future<byte[]>> entry: futures.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            // the result is incomplete anyway; do not waste bandwidth for the remaining objects
+            for (final Future<byte[]> future: futures.values()) future.cancel(true);
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            throw new IOException(e.getMessage());
+        }
+        return result;
     }
 
+    @Override
+    public void merge(final IOPath fromIOp0, final IOPath fromIOp1, final IOPath toIOp) throws IOException {
+        this.mergeFrom(toIOp, fromIOp0, fromIOp1);
+    }
+
+    /**
+     * Merge objects by streaming. This is the fallback for backends which cannot compose objects on the
+     * server side: the objects are read one after another through a large buffer into a single write
+     * in the calling thread.
+     */
     @Override
     public void mergeFrom(final IOPath iop, final IOPath... fromIOps) throws IOException {
         long size = 0;
@@ -178,22 +264,33 @@ public abstract class AbstractIO implements GenericIO {
             }
             size += sizeN;
         }
-        final PipedOutputStream pos = new PipedOutputStream();
-        this.write(iop, pos, size);
-        final byte[] buffer = new byte[4096];
-        for (final IOPath fromIOp: fromIOps) {
-            final InputStream is = this.read(fromIOp);
-            int l;
-            while ((l = is.read(buffer)) > 0) pos.write(buffer, 0, l);
-            is.close();
+        // the source objects are opened only when the previous one is read completely
+        final Iterator<IOPath> sources = Arrays.asList(fromIOps).iterator();
+        final Enumeration<InputStream> streams = new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return sources.hasNext();
+            }
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return read(sources.next());
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        try (final InputStream is = new BufferedInputStream(new SequenceInputStream(streams), MERGE_BUFFER_SIZE)) {
+            this.write(iop, is, size);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
         }
-        pos.close();
         this.dirListCache.remove(iop.getParent());
     }
 
     @Override
     public void move(final IOPath fromIOp, final IOPath toIOp) throws IOException {
-        // there is unfortunately no server-side move
+        // there is unfortunately no server-side move; copy is a server-side operation in S3 backends
         this.copy(fromIOp, toIOp);
         this.remove(fromIOp);
         this.dirListCache.remove(fromIOp.getParent());
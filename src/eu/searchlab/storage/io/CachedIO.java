@@ -0,0 +1,451 @@
+/**
+ *  CachedIO
+ *  Copyright 19.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.storage.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedOutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.google.common.io.ByteStreams;
+
+import eu.searchlab.tools.Digest;
+import eu.searchlab.tools.Logger;
+
+/**
+ * CachedIO is a read-through cache for any GenericIO backend which stores objects in a local directory.
+ * Cache entries are keyed by the path and the ETag of the object, so a changed object is never served from
+ * the cache; each read asks the backend only for the ETag of the object and transfers the content only if
+ * it is not already cached. The cache is limited in size and evicts the least recently used entries.
+ * - complete objects are cached by read(iop) and readAll(iop), unless they are larger than a quarter of the cache
+ * - range reads are served from a cached complete object or from cached blocks of a fixed size
+ * - concurrent reads of the same object or block are downloaded only once
+ * All write operations are passed through to the backend.
+ */
+public class CachedIO extends AbstractIO implements GenericIO {
+
+    private final static String TMP_SUFFIX = ".tmp";
+
+    private final GenericIO io;
+    private final File cacheDir;
+    private final long maxSize;
+    private final long blockSize;
+    private final LinkedHashMap<String, Long> lru; // file name -> size, in access order
+    private final ConcurrentHashMap<String, CompletableFuture<File>> loading;
+    private long size;
+
+    @FunctionalInterface
+    private interface Loader {
+        public InputStream open() throws IOException;
+    }
+
+    /**
+     * CachedIO
+     * @param io the backend
+     * @param cacheDir the directory for cached objects. Files from a previous run are re-used.
+     * @param maxSize the maximum size of the cache in bytes
+     * @param blockSize the size of cached blocks for range reads in bytes
+     * @throws IOException
+     */
+    public CachedIO(final GenericIO io, final File cacheDir, final long maxSize, final long blockSize) throws IOException {
+        this.io = io;
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+        this.blockSize = blockSize;
+        this.lru = new LinkedHashMap<>(16, 0.75f, true);
+        this.loading = new ConcurrentHashMap<>();
+        this.size = 0;
+        cacheDir.mkdirs();
+        if (!cacheDir.isDirectory()) throw new IOException("cache path " + cacheDir.toString() + " is not a directory");
+
+        // restore the cache from a previous run; the modification date is the last access time
+        final File[] files = cacheDir.listFiles();
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (final File f: files) {
+            if (f.getName().endsWith(TMP_SUFFIX)) {
+                f.delete();
+                continue;
+            }
+            this.lru.put(f.getName(), f.length());
+            this.size += f.length();
+        }
+        synchronized (this.lru) {
+            evict(null);
+        }
+        Logger.info("initialized cache at " + cacheDir.toString() + " with " + this.lru.size() + " objects, " + this.size / 1024 / 1024 + " MB");
+    }
+
+    public GenericIO getBackend() {
+        return this.io;
+    }
+
+    public long getCacheSize() {
+        synchronized (this.lru) {
+            return this.size;
+        }
+    }
+
+    private static String entryName(final IOPath iop, final String etag) {
+        return Digest.encodeMD5Hex(iop.toString() + "|" + etag);
+    }
+
+    private void evict(final String keep) {
+        final Iterator<Map.Entry<String, Long>> i = this.lru.entrySet().iterator();
+        while (this.size > this.maxSize && i.hasNext()) {
+            final Map.Entry<String, Long> entry = i.next();
+            if (entry.getKey().equals(keep)) continue;
+            i.remove();
+            this.size -= entry.getValue();
+            new File(this.cacheDir, entry.getKey()).delete();
+        }
+    }
+
+    /**
+     * get a cached file or load it with the given loader. Concurrent requests for the same entry
+     * wait for the first download.
+     * @param name the name of the cache entry
+     * @param loader a source for the content if the entry is not cached
+     * @param iop if not null, the object must still have the given ETag after the download, otherwise the content
+     *   may belong to a newer version of the object and is not stored under the name
+     * @param etag the ETag of the object which is cached under the name
+     * @return the cached file or null if the object changed during the download
+     * @throws IOException
+     */
+    private File cached(final String name, final Loader loader, final IOPath iop, final String etag) throws IOException {
+        final File f = new File(this.cacheDir, name);
+        synchronized (this.lru) {
+            if (this.lru.get(name) != null) {
+                f.setLastModified(System.currentTimeMillis());
+                return f;
+            }
+        }
+        final CompletableFuture<File> future = new CompletableFuture<>();
+        final CompletableFuture<File> running = this.loading.putIfAbsent(name, future);
+        if (running != null) {
+            try {
+                return running.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        try {
+            final File tmp = new File(this.cacheDir, name + TMP_SUFFIX);
+            try (final InputStream is = loader.open(); final OutputStream os = new FileOutputStream(tmp)) {
+                is.transferTo(os);
+            } catch (final IOException e) {
+                tmp.delete();
+                throw e;
+            }
+            if (iop != null && !etag.equals(this.io.getETag(iop))) {
+                tmp.delete();
+                future.complete(null);
+                return null;
+            }
+            if (!tmp.renameTo(f)) throw new IOException("cannot store cache entry " + f.toString());
+            synchronized (this.lru) {
+                final long length = f.length();
+                final Long old = this.lru.put(name, length); // a concurrent download may have stored the entry already
+                this.size += length - (old == null ? 0 : old);
+                evict(name);
+            }
+            future.complete(f);
+            return f;
+        } catch (final IOException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.loading.remove(name);
+        }
+    }
+
+    /**
+     * open a part of a cached file
+     * @param f
+     * @param offset
+     * @param len the number of bytes or -1 to read until the end of the file
+     * @return the stream or null if the file is null or was evicted in the meantime
+     * @throws IOException
+     */
+    private static InputStream open(final File f, final long offset, final long len) throws IOException {
+        if (f == null) return null;
+        final FileInputStream fis;
+        try {
+            fis = new FileInputStream(f);
+        } catch (final FileNotFoundException e) {
+            return null;
+        }
+        if (offset > 0) fis.getChannel().position(offset);
+        return len < 0 ? fis : ByteStreams.limit(fis, len);
+    }
+
+    /**
+     * the name of a complete cached object or null if the object is not cached completely
+     */
+    private String cachedEntry(final IOPath iop, final String etag) {
+        final String name = entryName(iop, etag);
+        synchronized (this.lru) {
+            return this.lru.containsKey(name) ? name : null;
+        }
+    }
+
+    private InputStream readComplete(final IOPath iop, final long offset) throws IOException {
+        final String etag = this.io.getETag(iop);
+        String name = cachedEntry(iop, etag);
+        if (name == null) {
+            // large objects would replace the whole cache
+            if (this.io.size(iop) > this.maxSize / 4) return this.io.read(iop, offset);
+            name = entryName(iop, etag);
+        }
+        final InputStream is = open(cached(name, () -> this.io.read(iop), iop, etag), offset, -1);
+        return is == null ? this.io.read(iop, offset) : is;
+    }
+
+    @Override
+    public InputStream read(final IOPath iop) throws IOException {
+        return readComplete(iop, 0);
+    }
+
+    @Override
+    public InputStream read(final IOPath iop, final long offset) throws IOException {
+        return readComplete(iop, offset);
+    }
+
+    @Override
+    public InputStream read(final IOPath iop, final long offset, final long len) throws IOException {
+        final String etag = this.io.getETag(iop);
+        final String name = cachedEntry(iop, etag);
+        if (name != null) {
+            final InputStream is = open(new File(this.cacheDir, name), offset, len);
+            if (is != null) return is;
+        }
+
+        // read the range from cached blocks
+        if (len <= 0) return InputStream.nullInputStream();
+        final String base = entryName(iop, etag);
+        final long firstBlock = offset / this.blockSize;
+        final long lastBlock = (offset + len - 1) / this.blockSize;
+        final List<InputStream> streams = new ArrayList<>();
+        for (long block = firstBlock; block <= lastBlock; block++) {
+            final long blockStart = block * this.blockSize;
+            final File f = cached(base + ".b" + block, () -> this.io.read(iop, blockStart, this.blockSize), iop, etag);
+            final long start = Math.max(offset, blockStart) - blockStart;
+            final long end = Math.min(offset + len, blockStart + this.blockSize) - blockStart;
+            final InputStream is = open(f, start, end - start);
+            if (is == null) {
+                // the object changed or the block was evicted; a single read keeps the range within one version
+                for (final InputStream opened: streams) opened.close();
+                return this.io.read(iop, offset, len);
+            }
+            streams.add(is);
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    @Override
+    public Future<byte[]> readAll(final IOPath iop, final long offset, final long len) throws IOException {
+        // the range is served from the cached object or the cached blocks, not from a download of the whole object
+        return submit(iop.getBucket(), () -> {
+            try (final InputStream is = read(iop, offset, len)) {
+                return readAll(is, (int) len);
+            }
+        });
+    }
+
+    @Override
+    public IOObject readETagged(final IOPath iop) throws IOException {
+        final String etag = this.io.getETag(iop);
+        final String name = cachedEntry(iop, etag);
+        if (name != null) {
+            final InputStream is = open(new File(this.cacheDir, name), 0, -1);
+            if (is != null) try (is) {
+                return new IOObject(iop, readAll(is, -1), etag);
+            }
+        }
+
+        // the object is read together with its ETag in one request and cached under that ETag
+        final IOObject ioo = this.io.readETagged(iop);
+        if (ioo.getETag() != null && ioo.getObject().length <= this.maxSize / 4) {
+            cached(entryName(iop, ioo.getETag()), () -> new ByteArrayInputStream(ioo.getObject()), null, null);
+        }
+        return ioo;
+    }
+
+    // the following methods are passed through to the backend
+
+    @Override
+    public void makeBucket(final String bucketName) throws IOException {
+        this.io.makeBucket(bucketName);
+    }
+
+    @Override
+    public boolean bucketExists(final String bucketName) throws IOException {
+        return this.io.bucketExists(bucketName);
+    }
+
+    @Override
+    public List<String> listBuckets() throws IOException {
+        return this.io.listBuckets();
+    }
+
+    @Override
+    public long bucketCreation(final String bucketName) throws IOException {
+        return this.io.bucketCreation(bucketName);
+    }
+
+    @Override
+    public void removeBucket(final String bucketName) throws IOException {
+        this.io.removeBucket(bucketName);
+    }
+
+    @Override
+    public void write(final IOPath iop, final byte[] object) throws IOException {
+        this.io.write(iop, object);
+    }
+
+    @Override
+    public void write(final IOPath iop, final PipedOutputStream pos, final long len) throws IOException {
+        this.io.write(iop, pos, len);
+    }
+
+    @Override
+    public void write(final IOPath iop, final InputStream stream, final long len) throws IOException {
+        this.io.write(iop, stream, len);
+    }
+
+    @Override
+    public void write(final IOPath iop, final File fromFile) throws IOException {
+        this.io.write(iop, fromFile);
+    }
+
+    @Override
+    public void writeGZIP(final IOPath iop, final byte[] object) throws IOException {
+        this.io.writeGZIP(iop, object);
+    }
+
+    @Override
+    public void writeGZIP(final IOPath iop, final File fromFile) throws IOException {
+        this.io.writeGZIP(iop, fromFile);
+    }
+
+    @Override
+    public void writeZIP(final IOPath iop, final byte[] object, final String original_name) throws IOException {
+        this.io.writeZIP(iop, object, original_name);
+    }
+
+    @Override
+    public String writeETagged(final IOPath iop, final byte[] object) throws IOException {
+        return this.io.writeETagged(iop, object);
+    }
+
+    @Override
+    public String writeIfAbsent(final IOPath iop, final byte[] object) throws IOException {
+        return this.io.writeIfAbsent(iop, object);
+    }
+
+    @Override
+    public String writeIfMatch(final IOPath iop, final byte[] object, final String etag) throws IOException {
+        return this.io.writeIfMatch(iop, object, etag);
+    }
+
+    @Override
+    public void merge(final IOPath fromIOp0, final IOPath fromIOp1, final IOPath toIOp) throws IOException {
+        this.io.merge(fromIOp0, fromIOp1, toIOp);
+    }
+
+    @Override
+    public void mergeFrom(final IOPath iop, final IOPath... fromIOps) throws IOException {
+        this.io.mergeFrom(iop, fromIOps);
+    }
+
+    @Override
+    public void copy(final IOPath fromIOp, final IOPath toIOp) throws IOException {
+        this.io.copy(fromIOp, toIOp);
+    }
+
+    @Override
+    public void move(final IOPath fromIOp, final IOPath toIOp) throws IOException {
+        this.io.move(fromIOp, toIOp);
+    }
+
+    @Override
+    public void remove(final IOPath iop) throws IOException {
+        // cached entries of the object are not addressable without the ETag and are evicted eventually
+        this.io.remove(iop);
+    }
+
+    @Override
+    public List<IOPathMeta> list(final String bucketName, final String prefix) throws IOException {
+        return this.io.list(bucketName, prefix);
+    }
+
+    @Override
+    public List<IOPathMeta> list(final IOPath path) throws IOException {
+        return this.io.list(path);
+    }
+
+    @Override
+    public IODirList dirList(final IOPath path) throws IOException {
+        return this.io.dirList(path);
+    }
+
+    @Override
+    public long diskUsage(final String bucketName, final String prefix) throws IOException {
+        return this.io.diskUsage(bucketName, prefix);
+    }
+
+    @Override
+    public long lastModified(final IOPath iop) throws IOException {
+        return this.io.lastModified(iop);
+    }
+
+    @Override
+    public long size(final IOPath iop) throws IOException {
+        return this.io.size(iop);
+    }
+
+    @Override
+    public boolean exists(final IOPath iop) {
+        return this.io.exists(iop);
+    }
+
+    @Override
+    public String getETag(final IOPath iop) throws IOException {
+        return this.io.getETag(iop);
+    }
+
+}
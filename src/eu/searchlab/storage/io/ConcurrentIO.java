@@ -21,8 +21,11 @@ package eu.searchlab.storage.io;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.zip.GZIPOutputStream;
 
@@ -33,20 +36,105 @@ import eu.searchlab.tools.Domains;
 import eu.searchlab.tools.Logger;
 
 /**
- * Use lock files to get exclusive access to shared files.
+ * Use leases to get exclusive access to shared files.
+ * A lease is a lock file next to the object which is created with a conditional write
+ * (If-None-Match) so that only one process can acquire it. Each lease has an expiry time;
+ * an expired lease can be taken over with a compare-and-swap on the ETag of the lock file.
+ * Every lease carries a fencing token which is strictly increasing over the lifetime of
+ * the lock file so that a process which lost its lease can be detected.
+ * Reads do not take a lease: objects are written atomically by the storage and multi-object
+ * reads are verified against the ETags of the objects.
  */
 public final class ConcurrentIO {
 
+    public final static long DEFAULT_LEASE_TIME = 60000;
+
+    // a lease is considered lost this time before it expires to compensate clock differences between hosts
+    private final static long CLOCK_SKEW_MARGIN = 2000;
+    private final static long MAX_BACKOFF = 1000;
+
+    private static String localhostName = null, localhostIP = null;
+
     private final GenericIO io;
     private final long waitingtime;
+    private final long leasetime;
+
+    /**
+     * thrown if a lease could not be acquired because another process holds a valid lease
+     */
+    public final static class LeaseTimeoutException extends IOException {
+        private static final long serialVersionUID = 1L;
+        public LeaseTimeoutException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A Lease is the proof of exclusive access to an object.
+     */
+    public final static class Lease {
+
+        private final IOPath lockFile;
+        private final String etag;
+        private final long token;
+        private final long expires;
+
+        private Lease(final IOPath lockFile, final String etag, final long token, final long expires) {
+            this.lockFile = lockFile;
+            this.etag = etag;
+            this.token = token;
+            this.expires = expires;
+        }
+
+        public IOPath getLockFile() {
+            return this.lockFile;
+        }
+
+        /**
+         * the fencing token of this lease; a lease which is acquired later always has a greater token
+         * @return the fencing token
+         */
+        public long getToken() {
+            return this.token;
+        }
+
+        public long getExpires() {
+            return this.expires;
+        }
+
+        /**
+         * a lease is valid if it cannot have been taken over by another process
+         * @return true if the lease is still valid
+         */
+        public boolean isValid() {
+            return System.currentTimeMillis() < this.expires - CLOCK_SKEW_MARGIN;
+        }
+
+        @Override
+        public String toString() {
+            return this.lockFile.toString() + "#" + this.token;
+        }
+    }
 
     /**
      * ConcurrentIO
      * @param io
+     * @param waitingtime the maximum time to wait for a lease
      */
     public ConcurrentIO(final GenericIO io, final long waitingtime) {
+        this(io, waitingtime, DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * ConcurrentIO
+     * @param io
+     * @param waitingtime the maximum time to wait for a lease
+     * @param leasetime the time after which a lease expires and can be taken over by another process
+     */
+    public ConcurrentIO(final GenericIO io, final long waitingtime, final long leasetime) {
         this.io = io;
         this.waitingtime = waitingtime;
+        this.leasetime = leasetime;
     }
 
     public final GenericIO getIO() {
@@ -69,15 +157,10 @@ public final class ConcurrentIO {
         return lockFiles;
     }
 
-    private final static IOPath lockFile(final IOObject ioo) {
-        final IOPath iop = ioo.getPath();
-        return lockFile(iop);
-    }
-
-    private final static IOPath[] lockFiles(final IOObject... ioos) {
+    private final static IOPath[] paths(final IOObject... ioos) {
         final IOPath[] iops = new IOPath[ioos.length];
         for (int i = 0; i < ioos.length; i++) iops[i] = ioos[i].getPath();
-        return lockFiles(iops);
+        return iops;
     }
 
     private final IOObject readLockFile(final IOPath lockFile) throws IOException {
@@ -86,84 +169,226 @@ public final class ConcurrentIO {
             final byte[] a = this.io.readAll(lockFile).get();
             return new IOObject(lockFile, a);
         } catch (InterruptedException | ExecutionException e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
             throw new IOException(e.getMessage());
         }
     }
 
-    private final void writeLockFiles(final IOPath... lockFiles) throws IOException {
-        for (int i = 0; i < lockFiles.length; i++) {
-            final IOPath lockFile = lockFiles[i];
-            assert !this.io.exists(lockFile);
+    private final static byte[] leaseObject(final long token, final long time, final long expires) {
+        if (localhostName == null) {
+            // getCanonicalHostName may cause a reverse DNS lookup; we do this only once
             final InetAddress localhost = Domains.myLocalhostIP(); // InetAddress.getLocalHost();
-            final long time = System.currentTimeMillis();
-            final JSONObject json = new JSONObject(true)
-                    .put("host", localhost.getCanonicalHostName())
-                    .put("ip", localhost.getHostAddress())
-                    .put("time", time);
-            this.io.write(lockFile, json.toString(2).getBytes(StandardCharsets.UTF_8));
+            localhostName = localhost.getCanonicalHostName();
+            localhostIP = localhost.getHostAddress();
         }
+        final JSONObject json = new JSONObject(true)
+                .put("host", localhostName)
+                .put("ip", localhostIP)
+                .put("time", time)
+                .put("expires", expires)
+                .put("token", token);
+        return json.toString(2).getBytes(StandardCharsets.UTF_8);
     }
 
-    private final void releaseLockFiles(final IOPath... lockFiles) throws IOException {
-        for (int i = 0; i < lockFiles.length; i++) {
-            final IOPath lockFile = lockFiles[i];
-            assert this.io.exists(lockFile);
-            this.io.remove(lockFile);
+    /**
+     * Try to acquire a lease on the given object once without waiting.
+     * @param iop the object to lease
+     * @return the lease or null if another process holds a valid lease on the object
+     * @throws IOException
+     */
+    public final Lease tryAcquire(final IOPath iop) throws IOException {
+        final IOPath lockFile = lockFile(iop);
+        long now = System.currentTimeMillis();
+        final String etag = this.io.writeIfAbsent(lockFile, leaseObject(now, now, now + this.leasetime));
+        if (etag != null) return new Lease(lockFile, etag, now, now + this.leasetime);
+
+        // another lease exists, check if it is expired
+        final IOObject current;
+        final JSONObject json;
+        try {
+            current = this.io.readETagged(lockFile);
+            json = current.getJSONObject();
+        } catch (final IOException e) {
+            return null; // the lease was released in between, the caller may try again
         }
+        now = System.currentTimeMillis();
+        // lock files without expiry date were written by the old lock file protocol and expire after the lease time
+        final long expires = json.optLong("expires", json.optLong("time", 0) + this.leasetime);
+        if (expires > now) return null;
+
+        // take over the expired lease with a compare-and-swap on the lock file
+        final long token = Math.max(now, json.optLong("token", 0) + 1);
+        final String newEtag = this.io.writeIfMatch(lockFile, leaseObject(token, now, now + this.leasetime), current.getETag());
+        if (newEtag == null) return null; // another process was faster
+        Logger.info("took over expired lease " + lockFile.toString());
+        return new Lease(lockFile, newEtag, token, now + this.leasetime);
     }
 
-    private final boolean waitUntilUnlock(final IOPath lockFile) {
-        if (this.waitingtime <= 0) return true;
-        final long timeout = System.currentTimeMillis() + this.waitingtime;
-        waitloop: while (System.currentTimeMillis() < timeout) {
-            if (this.io.exists(lockFile)) {
-                try {Thread.sleep(1000);} catch (final InterruptedException e) {}
-                continue waitloop;
+    private final Lease acquire(final IOPath iop, final long timeout) throws IOException {
+        long backoff = 10;
+        while (true) {
+            final Lease lease = tryAcquire(iop);
+            if (lease != null) return lease;
+            final long remaining = timeout - System.currentTimeMillis();
+            if (remaining <= 0) return null;
+            try {
+                Thread.sleep(Math.min(backoff, remaining));
+            } catch (final InterruptedException e) {
+                // keep the interrupt for the caller; waiting any longer would ignore it
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for lease on " + iop.toString());
             }
-            // lock file does not exist, this is a success!
-            return true;
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
         }
-        return false;
     }
 
-    private final boolean waitUntilUnlocks(final IOPath... lockFiles) {
-        if (this.waitingtime <= 0) return true;
-        final long timeout = System.currentTimeMillis() + this.waitingtime;
-        waitloop: while (System.currentTimeMillis() < timeout) {
-            for (int i = 0; i < lockFiles.length; i++) {
-                if (this.io.exists(lockFiles[i])) {
-                    try {Thread.sleep(1000);} catch (final InterruptedException e) {}
-                    continue waitloop;
+    /**
+     * Acquire leases on all given objects. Leases are acquired in the order of the object paths
+     * to prevent deadlocks between processes which lease overlapping sets of objects.
+     * @param iops the objects to lease
+     * @return the leases in the same order as the given objects
+     * @throws IOException if the leases could not be acquired within the waiting time
+     */
+    public final Lease[] acquire(final IOPath... iops) throws IOException {
+        final long timeout = System.currentTimeMillis() + Math.max(0, this.waitingtime);
+        final Integer[] order = new Integer[iops.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> iops[a].compareTo(iops[b]));
+        final Lease[] leases = new Lease[iops.length];
+        for (final int i: order) {
+            try {
+                leases[i] = acquire(iops[i], timeout);
+            } catch (final IOException e) {
+                release(leases);
+                throw e;
+            }
+            if (leases[i] == null) {
+                release(leases);
+                throw new LeaseTimeoutException("timeout waiting for lease on " + iops[i].toString());
+            }
+        }
+        return leases;
+    }
+
+    /**
+     * Extend the expiry time of a lease. This must be done by long-running operations
+     * before the lease becomes invalid.
+     * @param lease
+     * @return a new lease object with extended expiry time and the same fencing token
+     * @throws IOException if the lease was lost
+     */
+    public final Lease renew(final Lease lease) throws IOException {
+        final long now = System.currentTimeMillis();
+        final String etag = this.io.writeIfMatch(lease.lockFile, leaseObject(lease.token, now, now + this.leasetime), lease.etag);
+        if (etag == null) throw new IOException("lease lost: " + lease.toString());
+        return new Lease(lease.lockFile, etag, lease.token, now + this.leasetime);
+    }
+
+    /**
+     * Release leases. A lease which is not valid any more is only removed if it was not taken over
+     * by another process.
+     * @param leases
+     */
+    public final void release(final Lease... leases) {
+        for (final Lease lease: leases) {
+            if (lease == null) continue;
+            try {
+                if (!lease.isValid()) {
+                    String etag;
+                    try {
+                        etag = this.io.getETag(lease.lockFile);
+                    } catch (final IOException e) {
+                        continue; // already removed
+                    }
+                    if (!lease.etag.equals(etag)) {
+                        Logger.warn("lease " + lease.toString() + " was taken over by another process");
+                        continue;
+                    }
                 }
+                this.io.remove(lease.lockFile);
+            } catch (final IOException e) {
+                Logger.warn(e);
             }
-            // none of the lock files exist, this is a success!
-            return true;
         }
-        return false;
+    }
+
+    /**
+     * check that the leases are still held: they must not be expired and the lock files at the storage
+     * must still be the ones which were written when the leases were acquired.
+     * @param leases
+     * @throws IOException if a lease was lost
+     */
+    private final void fence(final Lease[] leases) throws IOException {
+        for (final Lease lease: leases) {
+            if (!lease.isValid()) throw new IOException("lease expired: " + lease.toString());
+            String etag;
+            try {
+                etag = this.io.getETag(lease.lockFile);
+            } catch (final IOException e) {
+                throw new IOException("lease lost: " + lease.toString());
+            }
+            if (!lease.etag.equals(etag)) throw new IOException("lease lost: " + lease.toString());
+        }
+    }
+
+    /**
+     * get the ETags of objects
+     * @param iops
+     * @return the ETags, null for objects which do not exist
+     */
+    private final String[] etags(final IOPath... iops) {
+        final String[] etags = new String[iops.length];
+        for (int i = 0; i < iops.length; i++) try {
+            etags[i] = this.io.getETag(iops[i]);
+        } catch (final IOException e) {
+            etags[i] = null;
+        }
+        return etags;
     }
 
     public final boolean exists(final IOPath iop) {
         return this.io.exists(iop);
     }
 
+    /**
+     * write objects under a lease. After the write, the IOObjects carry the ETag of the written objects.
+     * The objects are written with conditional writes against the ETags which they had when the leases were
+     * acquired. This fences the write at the storage: a process which lost its lease cannot overwrite the
+     * changes of the process which took over the lease.
+     * @param ioos
+     * @throws IOException
+     */
     public final void write(final IOObject... ioos) throws IOException {
-        final IOPath[] lockFiles = lockFiles(ioos);
-        if (waitUntilUnlocks(lockFiles)) {
-            writeLockFiles(lockFiles);
+        final IOPath[] iops = paths(ioos);
+        final Lease[] leases = acquire(iops);
+        try {
+            final String[] etags = etags(iops);
+            fence(leases);
             for (int i = 0; i < ioos.length; i++) {
-                this.io.write(ioos[i].getPath(), ioos[i].getObject());
+                final String etag = etags[i] == null ?
+                        this.io.writeIfAbsent(iops[i], ioos[i].getObject()) :
+                        this.io.writeIfMatch(iops[i], ioos[i].getObject(), etags[i]);
+                if (etag == null) throw new IOException("concurrent modification of " + iops[i].toString() + " without lease");
+                ioos[i].setETag(etag);
             }
-            releaseLockFiles(lockFiles);
-        } else {
-            throw new IOException("timeout waiting for lock disappearance");
+        } finally {
+            release(leases);
         }
     }
 
+    /**
+     * write objects under a lease and try once more if the write failed with a lease that was lost.
+     * Expired leases of other processes are taken over when the lease is acquired, but a valid lease
+     * is never broken: if the lease cannot be acquired within the waiting time, the write fails.
+     * @param ioos
+     * @throws IOException
+     */
     public final void writeForced(final IOObject... ioos) throws IOException {
         try {
             write(ioos);
+        } catch (final LeaseTimeoutException | InterruptedIOException e) {
+            throw e;
         } catch (final IOException e) {
-            for (int i = 0; i < ioos.length; i++) deleteLock(ioos[i].getPath());
             write(ioos);
         }
     }
@@ -177,91 +402,97 @@ public final class ConcurrentIO {
         writeForced(new IOObject(iopgz, baos.toByteArray()));
     }
 
+    /**
+     * Read objects without taking a lease. Each object is read atomically together with its ETag.
+     * If several objects are read, their ETags are verified after reading to ensure that no object
+     * was changed while the other objects were read.
+     * @param iops
+     * @return the objects including their ETags
+     * @throws IOException
+     */
     public final IOObject[] read(final IOPath... iops) throws IOException {
-        final IOPath[] lockFiles = lockFiles(iops);
         final IOObject[] as = new IOObject[iops.length];
-        if (waitUntilUnlocks(lockFiles)) {
-            writeLockFiles(lockFiles);
-            for (int i = 0; i < iops.length; i++) {
-                try {
-                    final byte[] a = this.io.readAll(iops[i]).get();
-                    as[i] = new IOObject(iops[i], a);
-                } catch (InterruptedException | ExecutionException e) {
-                    throw new IOException(e.getMessage());
+        for (int i = 0; i < iops.length; i++) as[i] = this.io.readETagged(iops[i]);
+        if (iops.length <= 1) return as;
+        verifyloop: for (int attempt = 0; attempt < 3; attempt++) {
+            // the last object was read most recently and needs no verification
+            for (int i = 0; i < iops.length - 1; i++) {
+                final String etag = this.io.getETag(iops[i]);
+                if (as[i].getETag() != null && !as[i].getETag().equals(etag)) {
+                    for (int j = 0; j < iops.length; j++) as[j] = this.io.readETagged(iops[j]);
+                    continue verifyloop;
                 }
             }
-            releaseLockFiles(lockFiles);
             return as;
-        } else {
-            throw new IOException("timeout waiting for lock disappearance");
         }
+        throw new IOException("objects were changed concurrently while reading");
     }
 
     public final IOObject[] readForced(final IOPath... iops) throws IOException {
         try {
             return read(iops);
         } catch (final IOException e) {
-            deleteLock(iops);
-            try {
-                return read(iops);
-            } catch (final IOException e1) {
-                // if this fails again, we must remove the lock files
-                deleteLock(iops);
-                throw e1;
-            }
+            // reads do not wait for leases; we just try again once
+            return read(iops);
         }
     }
 
     public final void append(final IOPath iop, final byte[] b) throws IOException {
-        final IOPath lockFile = lockFile(iop);
-        if (waitUntilUnlock(lockFile)) {
-            writeLockFiles(lockFile);
-            if (this.io.exists(iop)) {
-                try {
-                    final byte[] a = this.io.readAll(iop).get();
-                    final byte[] ab = new byte[a.length + b.length];
-                    System.arraycopy(a, 0, ab, 0, a.length);
-                    System.arraycopy(b, 0, ab, a.length, b.length);
-                    this.io.write(iop, ab);
-                } catch (InterruptedException | ExecutionException e) {
-                    throw new IOException(e.getMessage());
-                }
+        final Lease[] leases = acquire(iop);
+        try {
+            IOObject current = null;
+            try {
+                current = this.io.readETagged(iop);
+            } catch (final IOException e) {
+                // the object does not exist, we create it
+            }
+            fence(leases);
+            if (current == null) {
+                if (this.io.writeIfAbsent(iop, b) == null) throw new IOException("concurrent creation of " + iop.toString() + " without lease");
             } else {
-                this.io.write(iop, b);
+                final byte[] a = current.getObject();
+                final byte[] ab = new byte[a.length + b.length];
+                System.arraycopy(a, 0, ab, 0, a.length);
+                System.arraycopy(b, 0, ab, a.length, b.length);
+                // the conditional write protects against writers which lost their lease
+                if (this.io.writeIfMatch(iop, ab, current.getETag()) == null) throw new IOException("concurrent modification of " + iop.toString() + " without lease");
             }
-            releaseLockFiles(lockFile);
-        } else {
-            throw new IOException("timeout waiting for lock disappearance");
+        } finally {
+            release(leases);
         }
     }
 
     public final void appendForced(final IOPath iop, final byte[] b) throws IOException {
         try {
             append(iop, b);
+        } catch (final LeaseTimeoutException | InterruptedIOException e) {
+            throw e;
         } catch (final IOException e) {
-            deleteLock(iop);
             append(iop, b);
         }
     }
 
     public final void remove(final IOPath... iops) throws IOException {
-        final IOPath[] lockFiles = lockFiles(iops);
-        if (waitUntilUnlocks(lockFiles)) {
-            writeLockFiles(lockFiles);
+        final Lease[] leases = acquire(iops);
+        try {
+            final String[] etags = etags(iops);
+            fence(leases);
             for (int i = 0; i < iops.length; i++) {
+                // there is no conditional remove; we check the ETag right before the removal
+                if (!Objects.equals(etags[i], etags(iops[i])[0])) throw new IOException("concurrent modification of " + iops[i].toString() + " without lease");
                 this.io.remove(iops[i]);
             }
-            releaseLockFiles(lockFiles);
-        } else {
-            throw new IOException("timeout waiting for lock disappearance");
+        } finally {
+            release(leases);
         }
     }
 
     public final void removeForced(final IOPath... iops) throws IOException {
         try {
             remove(iops);
+        } catch (final LeaseTimeoutException | InterruptedIOException e) {
+            throw e;
         } catch (final IOException e) {
-            deleteLock(iops);
             remove(iops);
         }
     }
@@ -274,17 +505,6 @@ public final class ConcurrentIO {
         return false;
     }
 
-    public final void deleteLock(final IOPath... iop) {
-        final IOPath[] lockFiles = lockFiles(iop);
-        try {
-            for (int i = 0; i < lockFiles.length; i++) {
-                this.io.remove(lockFiles[i]);
-            }
-        } catch (final IOException e) {
-            Logger.warn(e);
-        }
-    }
-
     public final String lockedByHost(final IOPath iop) throws IOException {
         final IOPath[] lockFiles = lockFiles(iop);
         for (int i = 0; i < lockFiles.length; i++) {
@@ -20,7 +20,6 @@
 package eu.searchlab.storage.io;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -28,13 +27,26 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.io.ByteStreams;
+
+import eu.searchlab.tools.Digest;
+
 public class FileIO extends AbstractIO implements GenericIO {
 
+    // conditional writes are atomic only within this process; the file system is not shared in a cluster
+    private final static Object conditionalWriteMutex = new Object();
+
     private final File basePath;
 
     public FileIO(final File basePath) throws IOException {
@@ -175,6 +187,22 @@ public class FileIO extends AbstractIO implements GenericIO {
         fos.close();
     }
 
+    /**
+     * merge files with zero-copy transfers between file channels
+     */
+    @Override
+    public void mergeFrom(final IOPath iop, final IOPath... fromIOps) throws IOException {
+        try (final FileChannel dest = new FileOutputStream(getObjectFile(iop)).getChannel()) {
+            for (final IOPath fromIOp: fromIOps) {
+                try (final FileChannel src = new FileInputStream(getObjectFile(fromIOp)).getChannel()) {
+                    long pos = 0;
+                    final long size = src.size();
+                    while (pos < size) pos += src.transferTo(pos, size - pos, dest);
+                }
+            }
+        }
+    }
+
     @Override
     public void move(final IOPath fromIOp, final IOPath toIOp) throws IOException {
         final File from = getObjectFile(fromIOp);
@@ -192,17 +220,55 @@ public class FileIO extends AbstractIO implements GenericIO {
 
     @Override
     public InputStream read(final IOPath iop, final long offset) throws IOException {
-        final File f = getObjectFile(iop);
-        final InputStream bis = new BufferedInputStream(new FileInputStream(f));
-        bis.skip(offset);
-        return bis;
+        final FileChannel channel = FileChannel.open(getObjectFile(iop).toPath(), StandardOpenOption.READ);
+        channel.position(offset);
+        return new BufferedInputStream(Channels.newInputStream(channel));
     }
 
     @Override
     public InputStream read(final IOPath iop, final long offset, final long len) throws IOException {
-        final InputStream is = read(iop, offset);
-        final byte[] b = readAll(is, (int) len);
-        return new ByteArrayInputStream(b);
+        return ByteStreams.limit(read(iop, offset), len);
+    }
+
+    /**
+     * Read a range of a file with positional reads directly into an array of the exact size.
+     * Like the other IO implementations, a range which reaches beyond the end of the file is truncated.
+     * @param iop
+     * @param offset
+     * @param len the number of bytes or -1 to read until the end of the file
+     * @return the content
+     * @throws IOException
+     */
+    private byte[] readRange(final IOPath iop, final long offset, final long len) throws IOException {
+        try (final FileChannel channel = FileChannel.open(getObjectFile(iop).toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long l = Math.max(0, len < 0 ? size - offset : Math.min(len, size - offset));
+            if (l > Integer.MAX_VALUE - 8) throw new IOException("object " + iop.toString() + " is too large to be read into memory");
+            final ByteBuffer buffer = ByteBuffer.allocate((int) l);
+            long pos = offset;
+            while (buffer.hasRemaining()) {
+                final int c = channel.read(buffer, pos);
+                if (c < 0) break;
+                pos += c;
+            }
+            // the file may have been shortened while it was read
+            return buffer.hasRemaining() ? Arrays.copyOf(buffer.array(), buffer.position()) : buffer.array();
+        }
+    }
+
+    @Override
+    public Future<byte[]> readAll(final IOPath iop) throws IOException {
+        return submit(iop.getBucket(), () -> readRange(iop, 0, -1));
+    }
+
+    @Override
+    public Future<byte[]> readAll(final IOPath iop, final long offset) throws IOException {
+        return submit(iop.getBucket(), () -> readRange(iop, offset, -1));
+    }
+
+    @Override
+    public Future<byte[]> readAll(final IOPath iop, final long offset, final long len) throws IOException {
+        return submit(iop.getBucket(), () -> readRange(iop, offset, len));
     }
 
     @Override
@@ -255,6 +321,47 @@ public class FileIO extends AbstractIO implements GenericIO {
         return f.exists();
     }
 
+    @Override
+    public String getETag(final IOPath iop) throws IOException {
+        final File f = getObjectFile(iop);
+        if (!f.exists()) throw new IOException("object does not exist: " + iop.toString());
+        return Digest.encodeMD5Hex(f);
+    }
+
+    @Override
+    public IOObject readETagged(final IOPath iop) throws IOException {
+        final File f = getObjectFile(iop);
+        if (!f.exists()) throw new IOException("object does not exist: " + iop.toString());
+        final byte[] a = Files.readAllBytes(f.toPath());
+        return new IOObject(iop, a, Digest.encodeMD5Hex(a));
+    }
+
+    @Override
+    public String writeETagged(final IOPath iop, final byte[] object) throws IOException {
+        write(iop, object);
+        return Digest.encodeMD5Hex(object);
+    }
+
+    @Override
+    public String writeIfAbsent(final IOPath iop, final byte[] object) throws IOException {
+        synchronized (conditionalWriteMutex) {
+            final File f = getObjectFile(iop);
+            if (f.exists()) return null;
+            write(iop, object);
+            return Digest.encodeMD5Hex(object);
+        }
+    }
+
+    @Override
+    public String writeIfMatch(final IOPath iop, final byte[] object, final String etag) throws IOException {
+        synchronized (conditionalWriteMutex) {
+            final File f = getObjectFile(iop);
+            if (!f.exists() || !Digest.encodeMD5Hex(f).equals(etag)) return null;
+            write(iop, object);
+            return Digest.encodeMD5Hex(object);
+        }
+    }
+
     @Override
     public String toString() {
         return this.basePath.toString();
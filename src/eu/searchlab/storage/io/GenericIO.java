@@ -23,7 +23,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PipedOutputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
 
 /**
@@ -198,6 +200,15 @@ public interface GenericIO {
      */
     public Future<byte[]> readAll(final IOPath iop, final long offset, final long len) throws IOException;
 
+    /**
+     * Read many objects concurrently. The reads run in the IO pool with the same
+     * per-bucket limits as readAll. If one read fails, the remaining reads are cancelled.
+     * @param iops
+     * @return a map from the paths to the objects, in the order of the given paths
+     * @throws IOException if any of the objects cannot be read
+     */
+    public Map<IOPath, byte[]> readAllBatch(final Collection<IOPath> iops) throws IOException;
+
     /**
      * reading of an object into a stream
      * @param iop
@@ -306,5 +317,50 @@ public interface GenericIO {
      */
     public boolean exists(final IOPath iop);
 
+    /**
+     * get the ETag of an object. The ETag changes with every write to the object
+     * and can be used for optimistic concurrency control with writeIfMatch.
+     * @param iop
+     * @return the ETag without surrounding quotes
+     * @throws IOException if the object does not exist
+     */
+    public String getETag(final IOPath iop) throws IOException;
+
+    /**
+     * reading of an object together with its ETag within a single request
+     * @param iop
+     * @return an IOObject which carries the ETag of the object that was read
+     * @throws IOException
+     */
+    public IOObject readETagged(final IOPath iop) throws IOException;
+
+    /**
+     * write an object from a byte array and return the ETag of the new object
+     * @param iop
+     * @param object
+     * @return the ETag of the new object
+     * @throws IOException
+     */
+    public String writeETagged(final IOPath iop, final byte[] object) throws IOException;
+
+    /**
+     * conditional write of an object which succeeds only if the object does not exist (If-None-Match: *)
+     * @param iop
+     * @param object
+     * @return the ETag of the new object or null if the object already existed
+     * @throws IOException
+     */
+    public String writeIfAbsent(final IOPath iop, final byte[] object) throws IOException;
+
+    /**
+     * conditional write of an object which succeeds only if the object still has the given ETag (If-Match).
+     * This is a compare-and-swap operation on the object.
+     * @param iop
+     * @param object
+     * @param etag the ETag which the object must have to be overwritten
+     * @return the ETag of the new object or null if the ETag did not match
+     * @throws IOException
+     */
+    public String writeIfMatch(final IOPath iop, final byte[] object, final String etag) throws IOException;
 
 }
\ No newline at end of file
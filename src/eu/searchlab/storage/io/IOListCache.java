@@ -0,0 +1,175 @@
+/**
+ *  IOListCache
+ *  Copyright 19.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.storage.io;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IOListCache holds object listings of prefixes. Listings are stored in a prefix tree where each node
+ * is one path element, starting with the bucket. A write or delete of an object invalidates the listings
+ * of all prefixes on the path of the object, which are the nodes from the root to the object.
+ * The number of listings is limited, the least recently used listings are evicted first, and each
+ * listing expires after a time-to-live to catch changes from other nodes.
+ */
+public final class IOListCache {
+
+    private final static class Node {
+        private final Node parent;
+        private final String name;
+        private final Map<String, Node> children;
+        private List<IOPathMeta> listing;
+        private long created;
+
+        private Node(final Node parent, final String name) {
+            this.parent = parent;
+            this.name = name;
+            this.children = new HashMap<>();
+            this.listing = null;
+            this.created = 0;
+        }
+    }
+
+    private final Node root;
+    private final LinkedHashMap<Node, Boolean> lru; // nodes with a listing, in access order
+    private final int maxListings;
+    private final long ttl;
+
+    /**
+     * IOListCache
+     * @param maxListings the maximum number of cached listings
+     * @param ttl the time-to-live of a listing in milliseconds
+     */
+    public IOListCache(final int maxListings, final long ttl) {
+        this.root = new Node(null, null);
+        this.lru = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxListings = maxListings;
+        this.ttl = ttl;
+    }
+
+    private static String[] elements(final String bucket, String prefix) {
+        if (prefix.startsWith("/")) prefix = prefix.substring(1);
+        if (prefix.endsWith("/")) prefix = prefix.substring(0, prefix.length() - 1);
+        if (prefix.length() == 0) return new String[] {bucket};
+        final String[] p = prefix.split("/");
+        final String[] e = new String[p.length + 1];
+        e[0] = bucket;
+        System.arraycopy(p, 0, e, 1, p.length);
+        return e;
+    }
+
+    private Node find(final String[] elements) {
+        Node node = this.root;
+        for (final String e: elements) {
+            node = node.children.get(e);
+            if (node == null) return null;
+        }
+        return node;
+    }
+
+    private static void prune(final Node node) {
+        // remove nodes which are not needed any more
+        Node n = node;
+        while (n.parent != null && n.listing == null && n.children.isEmpty()) {
+            n.parent.children.remove(n.name);
+            n = n.parent;
+        }
+    }
+
+    private void clear(final Node node) {
+        node.listing = null;
+        this.lru.remove(node);
+        prune(node);
+    }
+
+    private void clearTree(final Node node) {
+        for (final Node child: node.children.values().toArray(new Node[0])) clearTree(child);
+        if (node.listing != null || node.children.isEmpty()) clear(node);
+    }
+
+    /**
+     * get a cached listing
+     * @param bucket
+     * @param prefix
+     * @return the listing or null if no fresh listing exists
+     */
+    public synchronized List<IOPathMeta> get(final String bucket, final String prefix) {
+        final Node node = find(elements(bucket, prefix));
+        if (node == null || node.listing == null) return null;
+        if (System.currentTimeMillis() - node.created > this.ttl) {
+            clear(node);
+            return null;
+        }
+        this.lru.get(node); // touch
+        return node.listing;
+    }
+
+    public synchronized void put(final String bucket, final String prefix, final List<IOPathMeta> listing) {
+        Node node = this.root;
+        for (final String e: elements(bucket, prefix)) {
+            final Node parent = node;
+            node = node.children.computeIfAbsent(e, k -> new Node(parent, k));
+        }
+        node.listing = listing;
+        node.created = System.currentTimeMillis();
+        this.lru.put(node, Boolean.TRUE);
+        final Iterator<Node> i = this.lru.keySet().iterator();
+        while (this.lru.size() > this.maxListings && i.hasNext()) {
+            final Node eldest = i.next();
+            i.remove();
+            eldest.listing = null;
+            prune(eldest);
+        }
+    }
+
+    /**
+     * invalidate all listings which may contain the given object
+     * @param iop an object which was written or removed
+     */
+    public synchronized void invalidate(final IOPath iop) {
+        Node node = this.root;
+        for (final String e: elements(iop.getBucket(), iop.getObjectPath())) {
+            final Node child = node.children.get(e);
+            if (child == null) break;
+            node = child;
+            if (node.listing != null) {
+                node.listing = null;
+                this.lru.remove(node);
+            }
+        }
+        prune(node);
+    }
+
+    /**
+     * invalidate all listings of a bucket
+     * @param bucket
+     */
+    public synchronized void invalidate(final String bucket) {
+        final Node node = this.root.children.get(bucket);
+        if (node != null) clearTree(node);
+    }
+
+    public synchronized int size() {
+        return this.lru.size();
+    }
+}
@@ -61,6 +61,7 @@ public final class IOObject {
 
     private final IOPath path;
     private final byte[] object;
+    private String etag;
 
     /**
      * Construct a IOObject from a byte array.
@@ -72,6 +73,19 @@ public final class IOObject {
     public IOObject(final IOPath path, final byte[] object) {
         this.path = path;
         this.object = object;
+        this.etag = null;
+    }
+
+    /**
+     * Construct a IOObject from a byte array which was read from IO together with its ETag.
+     * @param path
+     * @param object
+     * @param etag the ETag of the stored object or null if unknown
+     */
+    public IOObject(final IOPath path, final byte[] object, final String etag) {
+        this.path = path;
+        this.object = object;
+        this.etag = etag;
     }
 
     /**
@@ -151,6 +165,19 @@ public final class IOObject {
         return this.object;
     }
 
+    /**
+     * the ETag of the object as stored in IO
+     * @return the ETag or null if the object was not read from IO or the ETag is unknown
+     */
+    public final String getETag() {
+        return this.etag;
+    }
+
+    public final IOObject setETag(final String etag) {
+        this.etag = etag;
+        return this;
+    }
+
     public final String getString() {
         return new String(this.object, StandardCharsets.UTF_8);
     }
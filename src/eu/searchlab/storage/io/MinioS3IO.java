@@ -28,8 +28,8 @@ import java.io.PipedOutputStream;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -38,11 +38,18 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
 import com.google.common.io.ByteStreams;
 
 import eu.searchlab.tools.Logger;
 import io.minio.BucketExistsArgs;
+import io.minio.ComposeObjectArgs;
+import io.minio.ComposeSource;
 import io.minio.CopyObjectArgs;
 import io.minio.CopySource;
 import io.minio.GetObjectArgs;
@@ -51,6 +58,7 @@ import io.minio.ListObjectsArgs;
 import io.minio.MakeBucketArgs;
 import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
+import io.minio.ObjectWriteResponse;
 import io.minio.PutObjectArgs;
 import io.minio.RemoveBucketArgs;
 import io.minio.RemoveObjectArgs;
@@ -69,24 +77,83 @@ import io.minio.messages.FileHeaderInfo;
 import io.minio.messages.InputSerialization;
 import io.minio.messages.Item;
 import io.minio.messages.OutputSerialization;
+import io.minio.messages.Part;
 import io.minio.messages.QuoteFields;
 
 public class MinioS3IO extends AbstractIO implements GenericIO {
 
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // limits of the part size of multipart uploads
+    private final static long MIN_PART_SIZE = 5L * 1024L * 1024L;
+    private final static long MAX_PART_SIZE = 5L * 1024L * 1024L * 1024L;
 
-    // one "proper" part size
-    private final long partSize = 10 * 1024 * 1024; // proper is a number between 5MB and 5GB
+    // one "proper" part size; proper is a number between 5MB and 5GB
+    private final long partSize = Math.max(5, Long.parseLong(System.getProperty("storage.s3.partsize", "16"))) * 1024 * 1024;
+    // the maximum number of parts of one upload which are in transfer at the same time
+    private final int uploadParallelism = Integer.parseInt(System.getProperty("storage.s3.parallelism", "4"));
+    // ranged downloads of parts of large objects; shared by all instances to bound the number of connections
+    private static ExecutorService transferPool = null;
 
     // caches
     private final Map<String, Bucket> bucketListCache = new ConcurrentHashMap<>();
-    private final Map<String, LinkedHashMap<String, Item>> objectListCache = new ConcurrentHashMap<>();
+    private final IOListCache listCache = new IOListCache(
+            Integer.parseInt(System.getProperty("storage.s3.listcache.size", "1000")),
+            Long.parseLong(System.getProperty("storage.s3.listcache.ttl", "10000")));
 
     // the connection
     private final MinioClient mc;
     private final MinioAsyncClient mac;
+    private final MultipartClient mpc;
     private final String endpointURL, accessKey, secretKey;
 
+    /**
+     * The multipart API of the minio client is protected; it is required to upload the parts of
+     * one object in parallel while the putObject method of the client uploads parts one after another.
+     */
+    private static class MultipartClient extends MinioAsyncClient {
+
+        private MultipartClient(final MinioAsyncClient client) {
+            super(client);
+        }
+
+        private String create(final String bucket, final String object) throws InvalidKeyException, InsufficientDataException, InternalException, NoSuchAlgorithmException, XmlParserException, IOException, InterruptedException, ExecutionException {
+            final Multimap<String, String> headers = HashMultimap.create();
+            headers.put("Content-Type", "application/octet-stream");
+            return this.createMultipartUploadAsync(bucket, null, object, headers, null).get().result().uploadId();
+        }
+
+        private CompletableFuture<Part> upload(final String bucket, final String object, final String uploadId, final int partNumber, final byte[] data) throws InvalidKeyException, InsufficientDataException, InternalException, NoSuchAlgorithmException, XmlParserException, IOException {
+            return this.uploadPartAsync(bucket, null, object, data, data.length, uploadId, partNumber, null, null)
+                    .thenApply(response -> new Part(partNumber, response.etag()));
+        }
+
+        private ObjectWriteResponse complete(final String bucket, final String object, final String uploadId, final Part[] parts) throws InvalidKeyException, InsufficientDataException, InternalException, NoSuchAlgorithmException, XmlParserException, IOException, InterruptedException, ExecutionException {
+            return this.completeMultipartUploadAsync(bucket, null, object, uploadId, parts, null, null).get();
+        }
+
+        private void abort(final String bucket, final String object, final String uploadId) {
+            try {
+                this.abortMultipartUploadAsync(bucket, null, object, uploadId, null, null).get();
+            } catch (InvalidKeyException | InsufficientDataException | InternalException
+                    | NoSuchAlgorithmException | XmlParserException | IOException
+                    | InterruptedException | ExecutionException e) {
+                Logger.warn("could not abort multipart upload to " + bucket + "/" + object, e);
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getTransferPool() {
+        if (transferPool == null) {
+            final int threads = Integer.parseInt(System.getProperty("storage.s3.transferthreads", "8"));
+            final AtomicInteger count = new AtomicInteger(0);
+            transferPool = Executors.newFixedThreadPool(threads, r -> {
+                final Thread t = new Thread(r, "S3IO transfer " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return transferPool;
+    }
+
     public MinioS3IO(final String endpointURL, final String accessKey, final String secretKey) {
         Logger.info("S3IO: opening connection to " + endpointURL + ":" + accessKey);
         this.mc =
@@ -99,6 +166,7 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
                 .endpoint(endpointURL)
                 .credentials(accessKey, secretKey)
                 .build();
+        this.mpc = new MultipartClient(this.mac);
         this.endpointURL = endpointURL;
         this.accessKey = accessKey;
         this.secretKey = secretKey;
@@ -179,6 +247,7 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
     public void removeBucket(final String bucketName) throws IOException {
         try {
             this.mc.removeBucket(RemoveBucketArgs.builder().bucket(bucketName).build());
+            this.listCache.invalidate(bucketName);
         } catch (InvalidKeyException | ErrorResponseException
                 | InsufficientDataException | InternalException
                 | InvalidResponseException | NoSuchAlgorithmException
@@ -208,7 +277,7 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
                 this.setName("S3IO writer for " + iop.toString());
                 try {
                     MinioS3IO.this.write(iop, is, len);
-                    MinioS3IO.super.dirListCache.remove(iop.getParent());
+                    MinioS3IO.this.invalidate(iop);
                 } catch (final IOException e) {
                     e.printStackTrace();
                     ea[0] = e;
@@ -221,33 +290,29 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
     }
 
     /**
-     * write a stream with known size (len >= 0) or unknown size (len < 0)
+     * write a stream with known size (len >= 0) or unknown size (len < 0).
+     * Objects which are larger than one part are written with a parallel multipart upload.
      * @param bucketName
      * @param objectName
      * @param stream
      * @param len
      * @throws IOException
      */
+    @Override
     public void write(final IOPath iop, final InputStream stream, final long len) throws IOException {
+        if (len < 0 || len > this.partSize) {
+            writeMultipart(iop, stream);
+            return;
+        }
         try {
-            if (len < 0) {
-                this.mc.putObject(
-                        PutObjectArgs.builder()
-                        .bucket(iop.getBucket())
-                        .object(iop.getObjectPath().substring(1))
-                        .stream(stream, -1, this.partSize)
-                        .contentType("application/octet-stream")
-                        .build());
-            } else {
-                this.mc.putObject(
-                        PutObjectArgs.builder()
-                        .bucket(iop.getBucket())
-                        .object(iop.getObjectPath().substring(1))
-                        .stream(stream, len, -1)
-                        .contentType("application/octet-stream")
-                        .build());
-            }
-            super.dirListCache.remove(iop.getParent());
+            this.mc.putObject(
+                    PutObjectArgs.builder()
+                    .bucket(iop.getBucket())
+                    .object(iop.getObjectPath().substring(1))
+                    .stream(stream, len, -1)
+                    .contentType("application/octet-stream")
+                    .build());
+            this.invalidate(iop);
         } catch (InvalidKeyException | ErrorResponseException
                 | InsufficientDataException | InternalException
                 | InvalidResponseException | NoSuchAlgorithmException
@@ -258,6 +323,63 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
         }
     }
 
+    private byte[] readPart(final InputStream stream) throws IOException {
+        final byte[] b = new byte[(int) this.partSize];
+        final int l = ByteStreams.read(stream, b, 0, b.length);
+        if (l == b.length) return b;
+        final byte[] a = new byte[l];
+        System.arraycopy(b, 0, a, 0, l);
+        return a;
+    }
+
+    /**
+     * Upload a stream in parts of partSize. The stream is read while previous parts are uploaded;
+     * at most uploadParallelism parts are in transfer, which also limits the memory for buffered parts.
+     * @param iop
+     * @param stream
+     * @throws IOException
+     */
+    private void writeMultipart(final IOPath iop, final InputStream stream) throws IOException {
+        byte[] part = readPart(stream);
+        if (part.length < this.partSize) {
+            // the object fits into a single part
+            this.write(iop, new ByteArrayInputStream(part), part.length);
+            return;
+        }
+        final String bucket = iop.getBucket();
+        final String object = iop.getObjectPath().substring(1);
+        String uploadId = null;
+        final List<CompletableFuture<Part>> uploads = new ArrayList<>();
+        try {
+            uploadId = this.mpc.create(bucket, object);
+            final Semaphore inTransfer = new Semaphore(this.uploadParallelism);
+            final AtomicBoolean failed = new AtomicBoolean(false);
+            int partNumber = 1;
+            while (part.length > 0) {
+                inTransfer.acquire();
+                if (failed.get()) break; // a previous part failed; the exception is thrown below and the stream is not read further
+                final CompletableFuture<Part> upload = this.mpc.upload(bucket, object, uploadId, partNumber++, part);
+                upload.whenComplete((p, e) -> {
+                    if (e != null) failed.set(true);
+                    inTransfer.release();
+                });
+                uploads.add(upload);
+                part = readPart(stream);
+            }
+            final Part[] parts = new Part[uploads.size()];
+            for (int i = 0; i < parts.length; i++) parts[i] = uploads.get(i).get();
+            this.mpc.complete(bucket, object, uploadId, parts);
+            this.invalidate(iop);
+        } catch (InvalidKeyException | InsufficientDataException | InternalException
+                | NoSuchAlgorithmException | XmlParserException | IOException
+                | InterruptedException | ExecutionException e) {
+            for (final CompletableFuture<Part> upload: uploads) upload.cancel(true);
+            if (uploadId != null) this.mpc.abort(bucket, object, uploadId);
+            Logger.error(e);
+            throw new IOException(e.getMessage());
+        }
+    }
+
     @Override
     public void write(final IOPath iop, final byte[] object) throws IOException {
         this.write(iop, new ByteArrayInputStream(object), object.length);
@@ -284,7 +406,42 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
                             .object(fromIOp.getObjectPath().substring(1))
                             .build())
                     .build());
-            super.dirListCache.remove(toIOp.getParent());
+            this.invalidate(toIOp);
+        } catch (InvalidKeyException | ErrorResponseException
+                | InsufficientDataException | InternalException
+                | InvalidResponseException | NoSuchAlgorithmException
+                | ServerException | XmlParserException
+                | IllegalArgumentException | IOException e) {
+            Logger.error(e);
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * server-side merge with compose, which copies the source objects as parts of a multipart upload
+     * (upload-part-copy), so that no data is transferred through this client. Compose splits sources into
+     * parts of at most 5GB and requires that all parts except the last have a size of at least 5MB;
+     * otherwise the objects are merged by streaming.
+     */
+    @Override
+    public void mergeFrom(final IOPath iop, final IOPath... fromIOps) throws IOException {
+        if (fromIOps.length == 0 || !composable(fromIOps)) {
+            super.mergeFrom(iop, fromIOps);
+            this.invalidate(iop);
+            return;
+        }
+        final List<ComposeSource> sources = new ArrayList<>(fromIOps.length);
+        for (final IOPath fromIOp: fromIOps) {
+            sources.add(ComposeSource.builder().bucket(fromIOp.getBucket()).object(fromIOp.getObjectPath().substring(1)).build());
+        }
+        try {
+            this.mc.composeObject(
+                    ComposeObjectArgs.builder()
+                    .bucket(iop.getBucket())
+                    .object(iop.getObjectPath().substring(1))
+                    .sources(sources)
+                    .build());
+            this.invalidate(iop);
         } catch (InvalidKeyException | ErrorResponseException
                 | InsufficientDataException | InternalException
                 | InvalidResponseException | NoSuchAlgorithmException
@@ -295,6 +452,24 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
         }
     }
 
+    /**
+     * check if the sources can be composed: every part except the last part of the last source must have at least
+     * the minimum part size. Compose splits a source which is larger than the maximum part size into parts of the
+     * maximum size and a remainder.
+     * @param fromIOps
+     * @return true if compose accepts the sources
+     * @throws IOException
+     */
+    private boolean composable(final IOPath... fromIOps) throws IOException {
+        for (int i = 0; i < fromIOps.length - 1; i++) {
+            final long size = this.size(fromIOps[i]);
+            if (size < MIN_PART_SIZE) return false;
+            final long remainder = size % MAX_PART_SIZE;
+            if (size > MAX_PART_SIZE && remainder > 0 && remainder < MIN_PART_SIZE) return false;
+        }
+        return true;
+    }
+
     /**
      * reading of an object into a stream
      * @param bucketName
@@ -381,75 +556,125 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
 
     @Override
     public Future<byte[]> readAll(final IOPath iop) throws IOException {
-        return this.executor.submit(() -> {
-            try {
-                final CompletableFuture<GetObjectResponse> objectFuture = this.mac.getObject(
-                        GetObjectArgs.builder()
-                        .bucket(iop.getBucket())
-                        .object(iop.getObjectPath().substring(1))
-                        .build());
-                final GetObjectResponse response = objectFuture.get();
-                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ByteStreams.copy(response, baos);
-                return baos.toByteArray();
-            } catch (InvalidKeyException
-                    | InsufficientDataException | InternalException
-                    | NoSuchAlgorithmException | XmlParserException
-                    | IllegalArgumentException | IOException
-                    | InterruptedException | ExecutionException e) {
-                Logger.error(e);
-                throw new IOException(e.getMessage());
-            }
-        });
+        return submit(iop.getBucket(), () -> readRanged(iop, 0, -1));
     }
 
     @Override
     public Future<byte[]> readAll(final IOPath iop, final long offset) throws IOException {
-        return this.executor.submit(() -> {
-            try {
-                final CompletableFuture<GetObjectResponse> objectFuture = this.mac.getObject(
-                        GetObjectArgs.builder()
-                        .bucket(iop.getBucket())
-                        .object(iop.getObjectPath().substring(1))
-                        .offset(offset)
-                        .build());
-                final GetObjectResponse response = objectFuture.get();
-                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ByteStreams.copy(response, baos);
-                return baos.toByteArray();
-            } catch (InvalidKeyException
-                    | InsufficientDataException | InternalException
-                    | NoSuchAlgorithmException | XmlParserException
-                    | IllegalArgumentException | IOException
-                    | InterruptedException | ExecutionException e) {
-                throw new IOException(e.getMessage());
-            }
-        });
+        return submit(iop.getBucket(), () -> readRanged(iop, offset, -1));
     }
 
     @Override
     public Future<byte[]> readAll(final IOPath iop, final long offset, final long len) throws IOException {
-        return this.executor.submit(() -> {
+        return submit(iop.getBucket(), () -> readRanged(iop, offset, len));
+    }
+
+    /**
+     * read a range of an object
+     * @param iop
+     * @param offset
+     * @param len
+     * @param etag if not null, the request fails with PreconditionFailed if the object does not have this ETag
+     * @return the response
+     */
+    private GetObjectResponse getRange(final IOPath iop, final long offset, final long len, final String etag) throws InvalidKeyException, InsufficientDataException, InternalException, NoSuchAlgorithmException, XmlParserException, IllegalArgumentException, IOException, InterruptedException, ExecutionException {
+        final GetObjectArgs.Builder args = GetObjectArgs.builder()
+                .bucket(iop.getBucket())
+                .object(iop.getObjectPath().substring(1))
+                .offset(offset)
+                .length(len);
+        if (etag != null) args.matchETag(etag);
+        return this.mac.getObject(args.build()).get();
+    }
+
+    /**
+     * find the error response of a request; it may be wrapped into the exceptions of several futures
+     * @param t
+     * @return the error response or null if the exception was not caused by an error response
+     */
+    private static ErrorResponseException errorResponse(final Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ErrorResponseException) return (ErrorResponseException) cause;
+        }
+        return null;
+    }
+
+    /**
+     * Read an object or a part of it. The first part is read with a single ranged GET, which also tells the
+     * size of the object. If the object is larger than one part, the remaining parts are read in parallel
+     * with ranged GETs and are written into their position of the result. All parts are pinned to the ETag of
+     * the first part; if the object is overwritten during the read, the read is started again.
+     * @param iop
+     * @param offset
+     * @param len the number of bytes to read or -1 to read until the end of the object
+     * @return the content
+     * @throws IOException
+     */
+    private byte[] readRanged(final IOPath iop, final long offset, final long len) throws IOException {
+        for (int attempt = 1;; attempt++) {
             try {
-                final CompletableFuture<GetObjectResponse> objectFuture = this.mac.getObject(
-                        GetObjectArgs.builder()
-                        .bucket(iop.getBucket())
-                        .object(iop.getObjectPath().substring(1))
-                        .offset(offset)
-                        .length(len)
-                        .build());
-                final GetObjectResponse response = objectFuture.get();
-                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ByteStreams.copy(response, baos);
-                return baos.toByteArray();
-            } catch (InvalidKeyException
-                    | InsufficientDataException | InternalException
-                    | NoSuchAlgorithmException | XmlParserException
-                    | IllegalArgumentException | IOException
-                    | InterruptedException | ExecutionException e) {
-                throw new IOException(e.getMessage());
+                return readRangedOnce(iop, offset, len);
+            } catch (final ExecutionException e) {
+                final ErrorResponseException ere = errorResponse(e);
+                if (attempt < 3 && ere != null && isPreconditionFailed(ere)) {
+                    Logger.info("object " + iop.toString() + " was changed while it was read, reading again");
+                    continue;
+                }
+                Logger.error(e);
+                throw new IOException(e.getMessage() + "; path = " + iop.toString());
             }
-        });
+        }
+    }
+
+    private byte[] readRangedOnce(final IOPath iop, final long offset, final long len) throws IOException, ExecutionException {
+        final List<Future<?>> parts = new ArrayList<>();
+        try {
+            final byte[] head;
+            final long total;
+            final String etag;
+            try (final GetObjectResponse response = getRange(iop, offset, len < 0 ? this.partSize : Math.min(len, this.partSize), null)) {
+                // the header has the form "bytes <first>-<last>/<total>"
+                final String range = response.headers().get("Content-Range");
+                final int p = range == null ? -1 : range.lastIndexOf('/');
+                etag = response.headers().get("ETag");
+                head = readAll(response, -1);
+                total = p < 0 || range.endsWith("*") ? offset + head.length : Long.parseLong(range.substring(p + 1).trim());
+            } catch (final ExecutionException e) {
+                // a range request on an empty object or beyond the end of the object is not satisfiable
+                final ErrorResponseException ere = errorResponse(e);
+                if (ere != null && ere.errorResponse() != null && "InvalidRange".equals(ere.errorResponse().code())) return new byte[0];
+                throw e;
+            }
+            final long end = len < 0 ? total : Math.min(total, offset + len);
+            if (offset + head.length >= end) return head;
+            if (end - offset > Integer.MAX_VALUE - 8) throw new IOException("object " + iop.toString() + " is too large to be read into memory");
+
+            final byte[] b = new byte[(int) (end - offset)];
+            System.arraycopy(head, 0, b, 0, head.length);
+            for (long pos = offset + head.length; pos < end; pos += this.partSize) {
+                final long start = pos;
+                final int length = (int) Math.min(this.partSize, end - pos);
+                parts.add(getTransferPool().submit(() -> {
+                    try (final GetObjectResponse response = getRange(iop, start, length, etag)) {
+                        ByteStreams.readFully(response, b, (int) (start - offset), length);
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> part: parts) part.get();
+            return b;
+        } catch (final ExecutionException e) {
+            for (final Future<?> part: parts) part.cancel(true);
+            throw e;
+        } catch (InvalidKeyException
+                | InsufficientDataException | InternalException
+                | NoSuchAlgorithmException | XmlParserException
+                | IllegalArgumentException | IOException
+                | InterruptedException e) {
+            for (final Future<?> part: parts) part.cancel(true);
+            Logger.error(e);
+            throw new IOException(e.getMessage() + "; path = " + iop.toString());
+        }
     }
 
     public InputStream select(final IOPath iop, final String sqlExpression) throws IOException {
@@ -491,7 +716,7 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
                     .object(iop.getObjectPath().substring(1))
                     .build());
             super.dirListCache.remove(iop);
-            super.dirListCache.remove(iop.getParent());
+            this.invalidate(iop);
         } catch (InvalidKeyException | ErrorResponseException
                 | InsufficientDataException | InternalException
                 | InvalidResponseException | NoSuchAlgorithmException
@@ -502,6 +727,38 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
         }
     }
 
+    /**
+     * invalidate cached listings which may contain the object after a write or delete from this node
+     * @param iop
+     */
+    private void invalidate(final IOPath iop) {
+        super.dirListCache.remove(iop.getParent());
+        this.listCache.invalidate(iop);
+    }
+
+    /**
+     * a lazy listing: the results are fetched page by page from S3 while the caller iterates
+     * @param bucketName
+     * @param prefix
+     * @param recursive if false, only the objects and sub-directories directly within the prefix are listed
+     * @return
+     */
+    private Iterable<Result<Item>> iterate(final String bucketName, String prefix, final boolean recursive) {
+        if (prefix.startsWith("/")) prefix = prefix.substring(1);
+        return this.mc.listObjects(
+                ListObjectsArgs.builder()
+                .bucket(bucketName)
+                .recursive(recursive)
+                .prefix(prefix)
+                .startAfter(prefix)         // can have leading "/" or not; only methd to limit output to a folder
+                .build());
+    }
+
+    private static IOPathMeta meta(final String bucketName, final Item item) {
+        final IOPathMeta meta = new IOPathMeta(new IOPath(bucketName, item.objectName()));
+        return meta.setSize(item.size()).setLastModified(item.lastModified().toEpochSecond() * 1000L);
+    }
+
     /**
      * listing of object names in a given prefix path
      * @param bucketName
@@ -510,36 +767,18 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
      * @throws IOException
      */
     @Override
-    public List<IOPathMeta> list(final String bucketName, String prefix) throws IOException {
-        if (prefix.startsWith("/")) prefix = prefix.substring(1);
+    public List<IOPathMeta> list(final String bucketName, final String prefix) throws IOException {
+        final List<IOPathMeta> cached = this.listCache.get(bucketName, prefix);
+        if (cached != null) return cached;
         try {
-            final Iterable<Result<Item>> results = this.mc.listObjects(
-                    ListObjectsArgs.builder()
-                    .bucket(bucketName)
-                    .recursive(true)            // if recursive(false) the output is flat and does not list subpaths
-                    .prefix(prefix)
-                    .startAfter(prefix)         // can have leading "/" or not; only methd to limit output to a folder
-                    .build());
-
-            final ArrayList<IOPathMeta> objectMetas = new ArrayList<>();
-            final String cacheKey = bucketName + "/" + prefix;
-            LinkedHashMap<String, Item> cache = this.objectListCache.get(cacheKey);
-            if (cache == null) {
-                cache = new LinkedHashMap<>();
-                this.objectListCache.put(cacheKey, cache);
-            }
-
-            for (final Result<Item> result: results) {
+            final List<IOPathMeta> objectMetas = new ArrayList<>();
+            for (final Result<Item> result: iterate(bucketName, prefix, true)) {
                 final Item item = result.get();
-                if (!item.isDir()) {
-                    cache.put("/" + item.objectName(), item);
-                    final IOPathMeta meta = new IOPathMeta(new IOPath(bucketName, item.objectName()));
-                    meta.setSize(item.size()).setLastModified(item.lastModified().toEpochSecond() * 1000L);
-                    objectMetas.add(meta);
-                }
+                if (!item.isDir()) objectMetas.add(meta(bucketName, item));
             }
-
-            return objectMetas;
+            final List<IOPathMeta> list = Collections.unmodifiableList(objectMetas);
+            this.listCache.put(bucketName, prefix, list);
+            return list;
         } catch (InvalidKeyException | ErrorResponseException
                 | InsufficientDataException | InternalException
                 | InvalidResponseException | NoSuchAlgorithmException
@@ -550,30 +789,43 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
         }
     }
 
-    private LinkedHashMap<String, Item> getItems(final String bucketName, String prefix) throws IOException {
-        if (!prefix.startsWith("/")) prefix = "/" + prefix;
-        final String cacheKey = bucketName + prefix;
-        LinkedHashMap<String, Item> cache = this.objectListCache.get(cacheKey);
-        if (cache == null) {
-            this.list(bucketName, prefix); // writes into cache
-            cache = this.objectListCache.get(cacheKey); // this must not be null
-            assert cache != null;
+    /**
+     * directory listing with a non-recursive listing, which transfers only the entries of the directory
+     * and not the objects within sub-directories
+     */
+    @Override
+    public IODirList dirList(final IOPath dirpath) throws IOException {
+        IODirList list = super.dirListCache.get(dirpath);
+        if (list != null && !list.isStale()) return list;
+        list = new IODirList();
+        String prefix = dirpath.getObjectPath().substring(1);
+        if (prefix.length() > 0 && !prefix.endsWith("/")) prefix = prefix + "/";
+        try {
+            for (final Result<Item> result: iterate(dirpath.getBucket(), prefix, false)) {
+                final Item item = result.get();
+                String name = item.objectName().substring(prefix.length());
+                if (name.endsWith("/")) name = name.substring(0, name.length() - 1);
+                if (name.length() == 0) continue;
+                if (item.isDir()) {
+                    list.add(new IODirList.Entry(name, true, 0, 0));
+                } else {
+                    list.add(new IODirList.Entry(name, false, item.size(), item.lastModified().toEpochSecond() * 1000L));
+                }
+            }
+        } catch (InvalidKeyException | ErrorResponseException
+                | InsufficientDataException | InternalException
+                | InvalidResponseException | NoSuchAlgorithmException
+                | ServerException | XmlParserException
+                | IllegalArgumentException | IOException e) {
+            Logger.warn("attempt to list " + dirpath.toString(), e);
         }
-        if (cache == null) throw new IOException("prefix " + prefix + " in bucket " + bucketName + " does not exist");
-        return cache;
-    }
-
-    private Item getItem(final IOPath iop) throws IOException {
-        final int p = iop.getObjectPath().lastIndexOf("/");
-        final String prefix = p < 0 ? "" : iop.getObjectPath().substring(0, p);
-        final LinkedHashMap<String, Item> cache = this.getItems(iop.getBucket(), prefix);
-        final Item item = cache.get(iop.getObjectPath());
-        if (item == null) throw new IOException("object " + iop.toString() + " does not exist (2)");
-        return item;
+        super.dirListCache.put(dirpath, list);
+        return list;
     }
 
     /**
-     * calculate the disk usage in a given path
+     * calculate the disk usage in a given path. The sizes are summed while the listing is streamed,
+     * unless a cached listing exists.
      * @param bucketName
      * @param prefix
      * @return
@@ -581,10 +833,26 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
      */
     @Override
     public long diskUsage(final String bucketName, final String prefix) throws IOException {
-        final Collection<Item> items = this.getItems(bucketName, prefix).values();
         long du = 0;
-        for (final Item item: items) du += item.size();
-        return du;
+        final List<IOPathMeta> cached = this.listCache.get(bucketName, prefix);
+        if (cached != null) {
+            for (final IOPathMeta meta: cached) du += meta.getSize();
+            return du;
+        }
+        try {
+            for (final Result<Item> result: iterate(bucketName, prefix, true)) {
+                final Item item = result.get();
+                if (!item.isDir()) du += item.size();
+            }
+            return du;
+        } catch (InvalidKeyException | ErrorResponseException
+                | InsufficientDataException | InternalException
+                | InvalidResponseException | NoSuchAlgorithmException
+                | ServerException | XmlParserException
+                | IllegalArgumentException | IOException e) {
+            Logger.error(e);
+            throw new IOException(e.getMessage());
+        }
     }
 
     /**
@@ -621,8 +889,20 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
      */
     @Override
     public long size(final IOPath iop) throws IOException {
-        final Item item = this.getItem(iop);
-        return item.size();
+        try {
+            final StatObjectResponse sor = this.mc.statObject(
+                    StatObjectArgs.builder()
+                    .bucket(iop.getBucket())
+                    .object(iop.getObjectPath().substring(1))
+                    .build());
+            return sor.size();
+        } catch (InvalidKeyException | ErrorResponseException
+                | InsufficientDataException | InternalException
+                | InvalidResponseException | NoSuchAlgorithmException
+                | ServerException | XmlParserException
+                | IllegalArgumentException | IOException e) {
+            throw new IOException("object " + iop.toString() + " does not exist: " + e.getMessage());
+        }
     }
 
     @Override
@@ -643,8 +923,146 @@ public class MinioS3IO extends AbstractIO implements GenericIO {
         }
     }
 
+    /**
+     * ETags are delivered by S3 with surrounding quotes, we remove them here
+     * @param etag
+     * @return the etag without quotes
+     */
+    private static String unquote(final String etag) {
+        if (etag == null) return null;
+        if (etag.length() >= 2 && etag.charAt(0) == '"' && etag.charAt(etag.length() - 1) == '"') return etag.substring(1, etag.length() - 1);
+        return etag;
+    }
+
+    private static boolean isPreconditionFailed(final ErrorResponseException e) {
+        final String code = e.errorResponse() == null ? null : e.errorResponse().code();
+        // 412 if the condition was not met, 409 if a concurrent conditional write was in progress
+        return "PreconditionFailed".equals(code) || "ConditionalRequestConflict".equals(code) ||
+               (e.response() != null && (e.response().code() == 412 || e.response().code() == 409));
+    }
+
+    @Override
+    public String getETag(final IOPath iop) throws IOException {
+        try {
+            final StatObjectResponse sor = this.mc.statObject(
+                    StatObjectArgs.builder()
+                    .bucket(iop.getBucket())
+                    .object(iop.getObjectPath().substring(1))
+                    .build());
+            return unquote(sor.etag());
+        } catch (InvalidKeyException | ErrorResponseException
+                | InsufficientDataException | InternalException
+                | InvalidResponseException | NoSuchAlgorithmException
+                | ServerException | XmlParserException
+                | IllegalArgumentException | IOException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public IOObject readETagged(final IOPath iop) throws IOException {
+        try {
+            final GetObjectResponse response = this.mc.getObject(
+                    GetObjectArgs.builder()
+                    .bucket(iop.getBucket())
+                    .object(iop.getObjectPath().substring(1))
+                    .build());
+            final String etag = unquote(response.headers().get("ETag"));
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ByteStreams.copy(response, baos);
+            response.close();
+            return new IOObject(iop, baos.toByteArray(), etag);
+        } catch (InvalidKeyException | ErrorResponseException
+                | InsufficientDataException | InternalException
+                | InvalidResponseException | NoSuchAlgorithmException
+                | ServerException | XmlParserException
+                | IllegalArgumentException | IOException e) {
+            throw new IOException(e.getMessage() + "; path = " + iop.toString());
+        }
+    }
+
+    private String writeConditional(final IOPath iop, final byte[] object, final String header, final String value) throws IOException {
+        final Map<String, String> headers = new HashMap<>();
+        if (header != null) headers.put(header, value);
+        try {
+            final ObjectWriteResponse owr = this.mc.putObject(
+                    PutObjectArgs.builder()
+                    .bucket(iop.getBucket())
+                    .object(iop.getObjectPath().substring(1))
+                    .stream(new ByteArrayInputStream(object), object.length, -1)
+                    .contentType("application/octet-stream")
+                    .headers(headers)
+                    .build());
+            this.invalidate(iop);
+            return unquote(owr.etag());
+        } catch (final ErrorResponseException e) {
+            if (isPreconditionFailed(e)) return null;
+            Logger.error(e);
+            throw new IOException(e.getMessage());
+        } catch (InvalidKeyException
+                | InsufficientDataException | InternalException
+                | InvalidResponseException | NoSuchAlgorithmException
+                | ServerException | XmlParserException
+                | IllegalArgumentException | IOException e) {
+            Logger.error(e);
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public String writeETagged(final IOPath iop, final byte[] object) throws IOException {
+        return writeConditional(iop, object, null, null);
+    }
+
+    @Override
+    public String writeIfAbsent(final IOPath iop, final byte[] object) throws IOException {
+        return writeConditional(iop, object, "If-None-Match", "*");
+    }
+
+    @Override
+    public String writeIfMatch(final IOPath iop, final byte[] object, final String etag) throws IOException {
+        return writeConditional(iop, object, "If-Match", "\"" + etag + "\"");
+    }
+
     @Override
     public String toString() {
         return this.accessKey + "@" + this.endpointURL;
     }
+
+    /**
+     * compare single-stream transfers with parallel multipart uploads and ranged downloads
+     * against a local S3 server
+     */
+    public static void main(final String[] args) {
+        final MinioS3IO io = new MinioS3IO("http://localhost:9000", "admin", "12345678");
+        final IOPath iop = new IOPath("test", "bench/large.bin");
+        final byte[] b = new byte[256 * 1024 * 1024];
+        new java.util.Random(0).nextBytes(b);
+        try {
+            if (!io.bucketExists("test")) io.makeBucket("test");
+
+            long t = System.currentTimeMillis();
+            io.mc.putObject(PutObjectArgs.builder().bucket("test").object("bench/large.bin").stream(new ByteArrayInputStream(b), b.length, -1).build());
+            System.out.println("single put      : " + (b.length / 1024 / 1024 * 1000 / Math.max(1, System.currentTimeMillis() - t)) + " MB/s");
+
+            t = System.currentTimeMillis();
+            io.write(iop, b);
+            System.out.println("multipart put   : " + (b.length / 1024 / 1024 * 1000 / Math.max(1, System.currentTimeMillis() - t)) + " MB/s");
+
+            t = System.currentTimeMillis();
+            try (final InputStream is = io.read(iop)) {
+                readAll(is, -1);
+            }
+            System.out.println("single get      : " + (b.length / 1024 / 1024 * 1000 / Math.max(1, System.currentTimeMillis() - t)) + " MB/s");
+
+            t = System.currentTimeMillis();
+            final byte[] a = io.readAll(iop).get();
+            System.out.println("ranged get      : " + (b.length / 1024 / 1024 * 1000 / Math.max(1, System.currentTimeMillis() - t)) + " MB/s");
+            System.out.println("content equal   : " + java.util.Arrays.equals(a, b));
+            io.remove(iop);
+        } catch (final Exception e) {
+            e.printStackTrace();
+        }
+        System.exit(0);
+    }
 }
\ No newline at end of file
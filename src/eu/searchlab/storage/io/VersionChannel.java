@@ -0,0 +1,145 @@
+/**
+ *  VersionChannel
+ *  Copyright 19.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.storage.io;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONObject;
+
+import eu.searchlab.tools.Logger;
+
+/**
+ * A VersionChannel is a lightweight change-notification channel between nodes which share objects in IO.
+ * A single version object holds the ETags of the latest writes to a set of objects. Writers publish the
+ * new ETag after each write; readers check only the ETag of the version object, at most once within the
+ * staleness window, and reload only those objects where the published ETag is not the one they know.
+ * All writers of an object must publish their writes to the same channel, otherwise the change is
+ * detected only by the fallback check against the ETag of the object itself.
+ */
+public final class VersionChannel {
+
+    private final GenericIO io;
+    private final IOPath versionFile;
+    private final long staleness;
+    private Map<String, String> versions;
+    private String versionETag;
+    private long lastCheck;
+
+    /**
+     * VersionChannel
+     * @param io
+     * @param versionFile the object which holds the ETags of all objects in the channel
+     * @param staleness the time in milliseconds in which known versions are considered as fresh
+     */
+    public VersionChannel(final GenericIO io, final IOPath versionFile, final long staleness) {
+        this.io = io;
+        this.versionFile = versionFile;
+        this.staleness = staleness;
+        this.versions = new ConcurrentHashMap<>();
+        this.versionETag = null;
+        this.lastCheck = 0;
+    }
+
+    public long getStaleness() {
+        return this.staleness;
+    }
+
+    private static Map<String, String> toMap(final JSONObject json) {
+        final Map<String, String> map = new ConcurrentHashMap<>();
+        for (final String key: json.keySet()) {
+            final String etag = json.optString(key, null);
+            if (etag != null) map.put(key, etag);
+        }
+        return map;
+    }
+
+    private void refresh() {
+        final long now = System.currentTimeMillis();
+        if (now - this.lastCheck < this.staleness) return;
+        this.lastCheck = now;
+        final String etag;
+        try {
+            etag = this.io.getETag(this.versionFile);
+        } catch (final IOException e) {
+            // no version object exists yet; nothing was published
+            this.versions = new ConcurrentHashMap<>();
+            this.versionETag = null;
+            return;
+        }
+        if (etag.equals(this.versionETag)) return;
+        try {
+            final IOObject ioo = this.io.readETagged(this.versionFile);
+            this.versions = toMap(ioo.getJSONObject());
+            this.versionETag = ioo.getETag();
+        } catch (final IOException e) {
+            Logger.warn("cannot read version channel " + this.versionFile.toString(), e);
+        }
+    }
+
+    /**
+     * get the ETag of the latest published write to an object
+     * @param iop
+     * @return the ETag or null if no version of the object was published
+     */
+    public synchronized String getETag(final IOPath iop) {
+        refresh();
+        return this.versions.get(iop.toString());
+    }
+
+    /**
+     * publish a new version of an object. The version object is updated with a compare-and-swap
+     * so that concurrent publications from other nodes are not lost.
+     * @param iop the object which was written
+     * @param etag the ETag of the written object
+     * @throws IOException
+     */
+    public void publish(final IOPath iop, final String etag) throws IOException {
+        if (etag == null) return;
+        for (int attempt = 0; attempt < 10; attempt++) {
+            IOObject current = null;
+            try {
+                current = this.io.readETagged(this.versionFile);
+            } catch (final IOException e) {
+                // the version object does not exist yet
+            }
+            final JSONObject json = current == null ? new JSONObject(true) : current.getJSONObject();
+            json.put(iop.toString(), etag);
+            final byte[] b = new IOObject(this.versionFile, json).getObject();
+            final String newETag = current == null ? this.io.writeIfAbsent(this.versionFile, b) : this.io.writeIfMatch(this.versionFile, b, current.getETag());
+            if (newETag != null) {
+                synchronized (this) {
+                    this.versions = toMap(json);
+                    this.versionETag = newETag;
+                    this.lastCheck = System.currentTimeMillis();
+                }
+                return;
+            }
+            // another node published concurrently; try again
+        }
+        throw new IOException("could not publish version of " + iop.toString());
+    }
+
+    @Override
+    public String toString() {
+        return this.versionFile.toString();
+    }
+}
@@ -31,13 +31,17 @@ import org.json.JSONObject;
 import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.IOObject;
 import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.storage.io.VersionChannel;
+import eu.searchlab.tools.Logger;
 
 public abstract class AbstractCord implements Cord {
 
     protected final Object mutex; // Object on which to synchronize
     protected final ConcurrentIO io;
     protected final IOPath iop;
+    protected final VersionChannel channel;
     protected JSONArray array;
+    protected String etag; // the ETag of the object in IO from which the cord was loaded
 
     /**
      * AbstractCord
@@ -45,37 +49,102 @@ public abstract class AbstractCord implements Cord {
      * @param iop
      */
     protected AbstractCord(final ConcurrentIO io, final IOPath iop) {
+        this(io, iop, null);
+    }
+
+    /**
+     * AbstractCord
+     * @param io
+     * @param iop
+     * @param channel a version channel to detect changes from other nodes or null to check the ETag of the object on each access
+     */
+    protected AbstractCord(final ConcurrentIO io, final IOPath iop, final VersionChannel channel) {
         this.io = io;
         this.iop = iop;
+        this.channel = channel;
         this.array = null;
+        this.etag = null;
         this.mutex = this;
     }
 
+    private AbstractTray.Mutation mutation = null; // the change which is currently written
+
+    /**
+     * apply a change to the loaded array and write the array
+     * @param mutation
+     * @throws IOException
+     */
+    protected void mutate(final AbstractTray.Mutation mutation) throws IOException {
+        mutation.apply();
+        commitInternal(mutation);
+    }
+
+    /**
+     * write the array after a change was applied to it
+     * @param mutation the applied change which is applied again if the array was changed by another node
+     * @throws IOException
+     */
+    protected void commitInternal(final AbstractTray.Mutation mutation) throws IOException {
+        this.mutation = mutation;
+        try {
+            commitInternal();
+        } finally {
+            this.mutation = null;
+        }
+    }
+
     protected Cord commitInternal() throws IOException {
         // now write our data back
-        this.io.writeForced(new IOObject(this.iop, this.array));
-        this.lastLoadTime = System.currentTimeMillis();
-        return this;
+        for (int attempt = 0; attempt < AbstractTray.COMMIT_ATTEMPTS; attempt++) {
+            // the write succeeds only if nobody changed the object since we loaded it
+            final byte[] b = new IOObject(this.iop, this.array).getObject();
+            final String etag = this.etag == null ?
+                    this.io.getIO().writeIfAbsent(this.iop, b) :
+                    this.io.getIO().writeIfMatch(this.iop, b, this.etag);
+            if (etag != null) {
+                this.etag = etag;
+                this.lastCheckTime = System.currentTimeMillis();
+                if (this.channel != null) {
+                    try {
+                        this.channel.publish(this.iop, this.etag);
+                    } catch (final IOException e) {
+                        Logger.warn("could not publish version of " + this.iop.toString(), e);
+                    }
+                }
+                return this;
+            }
+            // another node changed the object: load its version and apply our change again
+            load();
+            if (this.mutation == null) throw new IOException("concurrent modification of " + this.iop.toString() + ", changes were discarded");
+            this.mutation.apply();
+        }
+        throw new IOException("could not write " + this.iop.toString() + " because of concurrent modifications");
     }
 
-    private long lastLoadTime = 0;
+    private long lastCheckTime = 0;
 
     protected void ensureLoaded() throws IOException {
         if (this.array == null) {
-            this.array = load();
-        } else {
-            final long lastModified = this.io.getIO().lastModified(this.iop);
-            if (lastModified > this.lastLoadTime) {
-                this.array = load();
-                this.lastLoadTime = System.currentTimeMillis();
-            }
+            load();
+            return;
         }
+
+        // within the staleness window we trust the loaded data without asking IO
+        final long now = System.currentTimeMillis();
+        if (this.channel != null && now - this.lastCheckTime < this.channel.getStaleness()) return;
+
+        // compare the ETag of the stored object with the one we loaded
+        String currentETag = this.channel == null ? null : this.channel.getETag(this.iop);
+        if (currentETag == null) currentETag = this.io.getIO().getETag(this.iop);
+        this.lastCheckTime = now;
+        if (!currentETag.equals(this.etag)) load();
     }
 
-    private JSONArray load() throws IOException {
+    private void load() throws IOException {
         final IOObject[] o = this.io.readForced(this.iop);
-        final JSONArray json = o[0].getJSONArray();
-        return json;
+        this.array = o[0].getJSONArray();
+        this.etag = o[0].getETag();
+        this.lastCheckTime = System.currentTimeMillis();
     }
 
     @Override
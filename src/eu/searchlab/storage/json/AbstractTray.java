@@ -23,7 +23,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.json.JSONArray;
@@ -33,15 +40,21 @@ import org.json.JSONObject;
 import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.IOObject;
 import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.storage.io.VersionChannel;
 import eu.searchlab.tools.Logger;
 
 public abstract class AbstractTray implements Tray {
 
+    protected final static int COMMIT_ATTEMPTS = 10; // conditional writes before a commit fails
+
     protected final Object mutex; // Object on which to synchronize
     protected final ConcurrentIO io;
     protected final IOPath iop;
+    protected final VersionChannel channel;
     protected ConcurrentHashMap<String, Object> object;
-
+    protected String etag; // the ETag of the object in IO from which the tray was loaded
+    private final Map<String, Map<String, Set<String>>> indexes; // field -> field value -> keys
+    private Map<String, Object> indexedObject; // the object for which the indexes were built
 
     protected final static JSONObject clone(final JSONObject json) {
         return json == null ? null : new JSONObject(json, json.keySet().toArray(new String[json.length()]));
@@ -58,10 +71,24 @@ public abstract class AbstractTray implements Tray {
      * @param lineByLineStorage if true, each property in the object is written to a single line. If false, the file is pretty-printed
      */
     protected AbstractTray(final ConcurrentIO io, final IOPath iop) {
+        this(io, iop, null);
+    }
+
+    /**
+     * AbstractTray
+     * @param io
+     * @param iop
+     * @param channel a version channel to detect changes from other nodes or null to check the ETag of the object on each access
+     */
+    protected AbstractTray(final ConcurrentIO io, final IOPath iop, final VersionChannel channel) {
         this.io = io;
         this.iop = iop;
+        this.channel = channel;
         this.object = null;
+        this.etag = null;
         this.mutex = this;
+        this.indexes = new HashMap<>();
+        this.indexedObject = null;
 
         // check if file exists and create it if not
         try {
@@ -89,33 +116,202 @@ public abstract class AbstractTray implements Tray {
         return j;
     }
 
+    /**
+     * A change of the loaded object. If another node changed the object before the change could be
+     * written, the object is loaded again and the change is applied to the new version.
+     */
+    @FunctionalInterface
+    protected interface Mutation {
+        public void apply() throws IOException;
+    }
+
+    private Mutation mutation = null; // the change which is currently written
+
+    /**
+     * apply a change to the loaded object and write the object
+     * @param mutation
+     * @throws IOException
+     */
+    protected void mutate(final Mutation mutation) throws IOException {
+        mutation.apply();
+        this.mutation = mutation;
+        try {
+            commitInternal();
+        } finally {
+            this.mutation = null;
+        }
+    }
+
+    /**
+     * apply the changes which are not yet written again after the object was loaded from IO
+     * @return false if the changes are not known and cannot be applied again
+     * @throws IOException
+     */
+    protected boolean reapply() throws IOException {
+        if (this.mutation == null) return false;
+        this.mutation.apply();
+        return true;
+    }
+
     protected Tray commitInternal() throws IOException {
         // now write our data back
         //Logger.info("*** DEBUG commitInternal write object: " + this.object.toString());
-        this.io.writeForced(new IOObject(this.iop, this.object));
-        //Logger.info("*** DEBUG commitInternal read object: " + this.io.read(this.iop)[0].getJSONObject().toString());
-        this.lastLoadTime = System.currentTimeMillis();
-        return this;
+        for (int attempt = 0; attempt < COMMIT_ATTEMPTS; attempt++) {
+            // the write succeeds only if nobody changed the object since we loaded it
+            final byte[] b = new IOObject(this.iop, this.object).getObject();
+            final String etag = this.etag == null ?
+                    this.io.getIO().writeIfAbsent(this.iop, b) :
+                    this.io.getIO().writeIfMatch(this.iop, b, this.etag);
+            if (etag != null) {
+                this.etag = etag;
+                this.lastCheckTime = System.currentTimeMillis();
+                if (this.channel != null) {
+                    try {
+                        this.channel.publish(this.iop, this.etag);
+                    } catch (final IOException e) {
+                        Logger.warn("could not publish version of " + this.iop.toString(), e);
+                    }
+                }
+                return this;
+            }
+            // another node changed the object: load its version and apply our changes again
+            load();
+            if (!reapply()) throw new IOException("concurrent modification of " + this.iop.toString() + ", changes were discarded");
+        }
+        throw new IOException("could not write " + this.iop.toString() + " because of concurrent modifications");
     }
 
-    private long lastLoadTime = 0;
+    private long lastCheckTime = 0;
 
     protected void ensureLoaded() throws IOException {
         if (this.object == null) {
-            this.object = load();
-        } else {
-            final long lastModified = this.io.getIO().lastModified(this.iop);
-            if (lastModified > this.lastLoadTime) {
-                this.object = load();
-                this.lastLoadTime = System.currentTimeMillis();
-            }
+            load();
+            return;
         }
+
+        // within the staleness window we trust the loaded data without asking IO
+        final long now = System.currentTimeMillis();
+        if (this.channel != null && now - this.lastCheckTime < this.channel.getStaleness()) return;
+
+        // compare the ETag of the stored object with the one we loaded
+        String currentETag = this.channel == null ? null : this.channel.getETag(this.iop);
+        if (currentETag == null) currentETag = this.io.getIO().getETag(this.iop);
+        this.lastCheckTime = now;
+        if (!currentETag.equals(this.etag)) load();
     }
 
-    private ConcurrentHashMap<String, Object> load() throws IOException {
+    private void load() throws IOException {
         final IOObject[] o = this.io.readForced(this.iop);
-        final ConcurrentHashMap<String, Object> map = o[0].getMap();
-        return map;
+        this.object = o[0].getMap();
+        this.etag = o[0].getETag();
+        this.lastCheckTime = System.currentTimeMillis();
+    }
+
+    private static String indexValue(final Object value, final String field) {
+        if (!(value instanceof JSONObject)) return null;
+        final Object v = ((JSONObject) value).opt(field);
+        if (v == null || v == JSONObject.NULL) return null;
+        final String s = v.toString();
+        return s.length() == 0 ? null : s;
+    }
+
+    private void indexAdd(final String key, final Object value) {
+        for (final Map.Entry<String, Map<String, Set<String>>> index: this.indexes.entrySet()) {
+            final String v = indexValue(value, index.getKey());
+            if (v != null) index.getValue().computeIfAbsent(v, k -> new HashSet<>()).add(key);
+        }
+    }
+
+    private void indexDelete(final String key, final Object value) {
+        for (final Map.Entry<String, Map<String, Set<String>>> index: this.indexes.entrySet()) {
+            final String v = indexValue(value, index.getKey());
+            if (v == null) continue;
+            final Set<String> keys = index.getValue().get(v);
+            if (keys == null) continue;
+            keys.remove(key);
+            if (keys.isEmpty()) index.getValue().remove(v);
+        }
+    }
+
+    /**
+     * Put a value into the object and maintain the indexes.
+     * All mutations of the loaded object must be done with objectPut and objectRemove.
+     * @param key
+     * @param value
+     */
+    protected void objectPut(final String key, final Object value) {
+        final Object old = this.object.put(key, value);
+        if (this.indexedObject != this.object) return; // the indexes are rebuilt with the next lookup
+        if (old != null) indexDelete(key, old);
+        indexAdd(key, value);
+    }
+
+    protected void objectRemove(final String key) {
+        final Object old = this.object.remove(key);
+        if (old != null && this.indexedObject == this.object) indexDelete(key, old);
+    }
+
+    /**
+     * the indexes are bound to the loaded object; after a (re-)load they are rebuilt
+     */
+    private void ensureIndexed() {
+        if (this.indexedObject == this.object) return;
+        for (final Map<String, Set<String>> index: this.indexes.values()) index.clear();
+        for (final Map.Entry<String, Object> entry: this.object.entrySet()) indexAdd(entry.getKey(), entry.getValue());
+        this.indexedObject = this.object;
+    }
+
+    @Override
+    public Tray addIndex(final String field) {
+        synchronized (this.mutex) {
+            if (this.indexes.containsKey(field)) return this;
+            this.indexes.put(field, new HashMap<>());
+            this.indexedObject = null; // forces a rebuild including the new index
+            return this;
+        }
+    }
+
+    @Override
+    public Set<String> keysWhere(final String field, final String value) throws IOException {
+        synchronized (this.mutex) {
+            ensureLoaded();
+            final Map<String, Set<String>> index = this.indexes.get(field);
+            if (index != null) {
+                ensureIndexed();
+                final Set<String> keys = index.get(value);
+                return keys == null ? Collections.emptySet() : new HashSet<>(keys);
+            }
+            // no index for this field: scan all objects
+            final Set<String> keys = new HashSet<>();
+            for (final Map.Entry<String, Object> entry: this.object.entrySet()) {
+                if (value.equals(indexValue(entry.getValue(), field))) keys.add(entry.getKey());
+            }
+            return keys;
+        }
+    }
+
+    @Override
+    public JSONObject getOneWhere(final String field, final String value) throws IOException {
+        synchronized (this.mutex) {
+            // if several objects match, the one with the smallest key is returned to make the result deterministic
+            String first = null;
+            for (final String key: keysWhere(field, value)) {
+                if (this.object.get(key) != null && (first == null || key.compareTo(first) < 0)) first = key;
+            }
+            return first == null ? null : clone((JSONObject) this.object.get(first));
+        }
+    }
+
+    @Override
+    public List<JSONObject> getAllWhere(final String field, final String value) throws IOException {
+        synchronized (this.mutex) {
+            final List<JSONObject> list = new ArrayList<>();
+            for (final String key: new TreeSet<>(keysWhere(field, value))) {
+                final JSONObject json = (JSONObject) this.object.get(key);
+                if (json != null) list.add(clone(json));
+            }
+            return list;
+        }
     }
 
     @Override
@@ -27,6 +27,7 @@ import org.json.JSONObject;
 
 import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.storage.io.VersionChannel;
 
 /**
  * An ImmutableTray is like a PersistentTray and stores all write operations
@@ -42,7 +43,11 @@ public class ImmutableTray extends AbstractTray implements Tray {
     ConcurrentHashMap<String, Object> deleted;
 
     public ImmutableTray(final ConcurrentIO io, final IOPath iop) {
-        super(io, iop);
+        this(io, iop, null);
+    }
+
+    public ImmutableTray(final ConcurrentIO io, final IOPath iop, final VersionChannel channel) {
+        super(io, iop, channel);
         this.deleted = new ConcurrentHashMap<>();
     }
 
@@ -75,8 +80,7 @@ public class ImmutableTray extends AbstractTray implements Tray {
         assert key != null;
         synchronized (this.mutex) {
             ensureLoaded();
-            this.object.put(key, value);
-            this.commitInternal();
+            this.mutate(() -> this.objectPut(key, value));
             return this;
         }
     }
@@ -86,8 +90,7 @@ public class ImmutableTray extends AbstractTray implements Tray {
         assert key != null;
         synchronized (this.mutex) {
             ensureLoaded();
-            this.object.put(key, value);
-            this.commitInternal();
+            this.mutate(() -> this.objectPut(key, value));
             return this;
         }
     }
@@ -100,8 +103,7 @@ public class ImmutableTray extends AbstractTray implements Tray {
             this.deleted.put(key, new Object());
             ensureLoaded();
             if (!this.object.containsKey(key)) return this;
-            this.object.remove(key);
-            this.commitInternal();
+            this.mutate(() -> this.objectRemove(key));
             return this;
         }
     }
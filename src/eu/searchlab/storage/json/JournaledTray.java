@@ -0,0 +1,281 @@
+/**
+ *  JournaledTray
+ *  Copyright 19.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.storage.json;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import eu.searchlab.storage.io.ConcurrentIO;
+import eu.searchlab.storage.io.GenericIO;
+import eu.searchlab.storage.io.IOObject;
+import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.storage.io.MinioS3IO;
+import eu.searchlab.storage.io.VersionChannel;
+import eu.searchlab.tools.Logger;
+
+/**
+ * A JournaledTray stores the tray as a base snapshot and an append-only sequence of delta objects.
+ * A mutation writes only a small delta object instead of the whole tray, so the write cost does not
+ * grow with the size of the tray. Deltas are replayed on load; when the number of deltas after the
+ * snapshot reaches a threshold, the tray is compacted into a new snapshot.
+ * - the snapshot is the tray object itself with the additional properties JOURNAL_SEQ_KEY, the sequence
+ *   number of the latest delta within the snapshot, and JOURNAL_PREV_KEY, the same number of the previous snapshot.
+ * - deltas are stored in a folder next to the snapshot and are named by their sequence number.
+ *   A delta is created with a conditional write (If-None-Match), so each sequence number can only be written once.
+ * - a compaction replaces the snapshot with a compare-and-swap on its ETag and removes the deltas of the
+ *   previous snapshot generation only, so that readers which are one generation behind still find their deltas.
+ * Readers detect a compaction by the ETag of the snapshot and new deltas by probing the next sequence number.
+ * A load is repeated if the snapshot changed while the deltas were replayed, so readers always see a consistent state.
+ */
+public class JournaledTray extends PersistentTray implements Tray {
+
+    public final static String JOURNAL_SEQ_KEY = "_journal.seq";
+    public final static String JOURNAL_PREV_KEY = "_journal.prev";
+    public final static int DEFAULT_COMPACTION_THRESHOLD = 100;
+
+    private final IOPath journal;
+    private final int threshold;
+    private boolean initialized; // false while the super constructors run
+    private long prevSeq; // sequence number of the latest delta within the previous snapshot
+    private long baseSeq; // sequence number of the latest delta within the loaded snapshot
+    private long seq; // sequence number of the latest delta which was applied to the object
+    private long lastCheck;
+
+    public JournaledTray(final ConcurrentIO io, final IOPath iop) {
+        this(io, iop, null, 0, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * JournaledTray
+     * @param io
+     * @param iop the path of the snapshot
+     * @param channel a version channel to detect changes from other nodes or null
+     * @param writeBehind if greater than zero, mutations are collected for this time in milliseconds and written as one delta
+     * @param threshold the number of deltas after which the journal is compacted into a new snapshot
+     */
+    public JournaledTray(final ConcurrentIO io, final IOPath iop, final VersionChannel channel, final long writeBehind, final int threshold) {
+        super(io, iop, channel, writeBehind);
+        final String name = iop.getObjectName();
+        final int p = name.lastIndexOf('.');
+        this.journal = iop.getParent().append((p < 0 ? name : name.substring(0, p)) + "_journal");
+        this.threshold = threshold;
+        this.initialized = true;
+        this.lastCheck = 0;
+        if (!this.io.exists(this.iop)) {
+            try {
+                this.io.getIO().writeIfAbsent(this.iop, new IOObject(this.iop, new JSONObject()).getObject());
+            } catch (final IOException e) {
+                Logger.error(e);
+            }
+        }
+    }
+
+    private IOPath deltaPath(final long s) {
+        return this.journal.append(String.format("%016d.json", s));
+    }
+
+    private static long getLong(final Object o) {
+        return o instanceof Number ? ((Number) o).longValue() : 0;
+    }
+
+    @Override
+    protected void ensureLoaded() throws IOException {
+        if (!this.initialized) return;
+        if (this.object == null) {
+            load();
+            return;
+        }
+        check(false);
+    }
+
+    /**
+     * check for changes from other nodes
+     * @param force if true, the check is done even within the staleness time of the version channel
+     * @throws IOException
+     */
+    private void check(final boolean force) throws IOException {
+        final long now = System.currentTimeMillis();
+        if (!force && this.channel != null && now - this.lastCheck < this.channel.getStaleness()) return;
+        this.lastCheck = now;
+
+        // the channel holds "<snapshot ETag>/<sequence number>" of the latest publication
+        final String version = force || this.channel == null ? null : this.channel.getETag(this.iop);
+        final int p = version == null ? -1 : version.lastIndexOf('/');
+        if (p > 0) {
+            if (!version.substring(0, p).equals(this.etag)) {
+                load();
+            } else if (Long.parseLong(version.substring(p + 1)) > this.seq) {
+                replay();
+                applyPending();
+            }
+            return;
+        }
+
+        // a changed snapshot means that the tray was compacted by another node
+        if (!this.io.getIO().getETag(this.iop).equals(this.etag)) {
+            load();
+            return;
+        }
+        if (replay() > 0) applyPending();
+    }
+
+    private void load() throws IOException {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            final IOObject snapshot = this.io.read(this.iop)[0];
+            final ConcurrentHashMap<String, Object> map = snapshot.getMap();
+            this.baseSeq = getLong(map.remove(JOURNAL_SEQ_KEY));
+            this.prevSeq = getLong(map.remove(JOURNAL_PREV_KEY));
+            this.seq = this.baseSeq;
+            this.object = map;
+            this.etag = snapshot.getETag();
+            replay();
+            // a compaction while we replayed may have removed deltas; then we must start again with the new snapshot
+            if (this.etag.equals(this.io.getIO().getETag(this.iop))) {
+                this.lastCheck = System.currentTimeMillis();
+                applyPending();
+                return;
+            }
+        }
+        throw new IOException("journal of " + this.iop.toString() + " was compacted permanently during load");
+    }
+
+    /**
+     * apply all deltas after the current sequence number to the object
+     * @return the number of applied deltas
+     * @throws IOException
+     */
+    private int replay() throws IOException {
+        int count = 0;
+        while (true) {
+            final IOObject delta;
+            try {
+                delta = this.io.getIO().readETagged(deltaPath(this.seq + 1));
+            } catch (final IOException e) {
+                return count; // no more deltas
+            }
+            apply(delta.getJSONObject());
+            this.seq++;
+            count++;
+        }
+    }
+
+    private void apply(final JSONObject delta) throws IOException {
+        try {
+            final JSONObject put = delta.optJSONObject("put");
+            if (put != null) for (final String key: put.keySet()) this.objectPut(key, put.get(key));
+            final JSONArray remove = delta.optJSONArray("remove");
+            if (remove != null) for (int i = 0; i < remove.length(); i++) this.objectRemove(remove.getString(i));
+        } catch (final JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * write the pending mutations as a new delta
+     */
+    @Override
+    protected Tray commitInternal() throws IOException {
+        if (this.pending.isEmpty()) return this;
+        final JSONObject put = new JSONObject(true);
+        final JSONArray remove = new JSONArray();
+        try {
+            for (final Map.Entry<String, Object> entry: this.pending.entrySet()) {
+                if (entry.getValue() == REMOVED) remove.put(entry.getKey()); else put.put(entry.getKey(), entry.getValue());
+            }
+        } catch (final JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+        final JSONObject delta = new JSONObject(true).put("put", put).put("remove", remove);
+
+        // within the staleness time our sequence number may be outdated
+        if (this.channel != null) check(true);
+        final byte[] b = new IOObject(this.iop, delta).getObject();
+        for (int attempt = 0; attempt < 100; attempt++) {
+            if (this.io.getIO().writeIfAbsent(deltaPath(this.seq + 1), b) != null) {
+                this.seq++;
+                if (this.channel != null) {
+                    try {
+                        this.channel.publish(this.iop, this.etag + "/" + this.seq);
+                    } catch (final IOException e) {
+                        Logger.warn("could not publish version of " + this.iop.toString(), e);
+                    }
+                }
+                if (this.seq - this.baseSeq >= this.threshold) compact();
+                return this;
+            }
+            // another node appended a delta with this sequence number; apply it and try the next one
+            replay();
+            applyPending();
+        }
+        throw new IOException("could not append to journal of " + this.iop.toString());
+    }
+
+    /**
+     * write the current state as a new snapshot and remove the deltas of the previous generation
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        final Map<String, Object> snapshot = new LinkedHashMap<>(this.object);
+        snapshot.put(JOURNAL_SEQ_KEY, this.seq);
+        snapshot.put(JOURNAL_PREV_KEY, this.baseSeq);
+        final String newETag = this.io.getIO().writeIfMatch(this.iop, new IOObject(this.iop, snapshot).getObject(), this.etag);
+        if (newETag == null) return; // another node has compacted the journal; we will see that with the next check
+        final long removeFrom = this.prevSeq + 1, removeTo = this.baseSeq;
+        this.prevSeq = this.baseSeq;
+        this.baseSeq = this.seq;
+        this.etag = newETag;
+        for (long s = removeFrom; s <= removeTo; s++) {
+            try {
+                this.io.getIO().remove(deltaPath(s));
+            } catch (final IOException e) {
+                Logger.warn("could not remove journal delta " + s + " of " + this.iop.toString(), e);
+            }
+        }
+    }
+
+    public static void main(final String[] args) {
+        final GenericIO io = new MinioS3IO("http://localhost:9000", "admin", "12345678");
+        try {io.makeBucket("test"); } catch (final IOException e) {}
+        final ConcurrentIO cio = new ConcurrentIO(io, 10000);
+        final IOPath iop = new IOPath("test", "test/db.json");
+        final Tray tray = new JournaledTray(cio, iop, null, 0, 3);
+        final JSONObject json = new JSONObject();
+        try {
+            tray.put("a", json);
+            tray.put("b", json);
+            tray.put("c", json);
+            tray.remove("b");
+            tray.close();
+            System.out.println(new String(io.readAll(iop).get(), "UTF-8"));
+            System.out.println(new JournaledTray(cio, iop).toJSON().toString());
+        } catch (final IOException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        System.exit(0);
+    }
+
+}
@@ -23,53 +23,52 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Predicate;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.storage.io.VersionChannel;
 
 public class PersistentCord extends AbstractCord implements Cord {
 
     protected PersistentCord(final ConcurrentIO io, final IOPath iop) {
-        super(io, iop);
+        this(io, iop, null);
+    }
+
+    protected PersistentCord(final ConcurrentIO io, final IOPath iop, final VersionChannel channel) {
+        super(io, iop, channel);
     }
 
     @Override
     public Cord append(final JSONObject value) throws IOException {
         synchronized (this.mutex) {
             this.ensureLoaded();
-            this.array.put(AbstractTray.clone(value));
-            this.commitInternal();
+            final JSONObject json = AbstractTray.clone(value);
+            this.mutate(() -> this.array.put(json));
             return this;
         }
     }
 
     @Override
     public Cord prepend(final JSONObject value) throws IOException {
-        synchronized (this.mutex) {
-            this.ensureLoaded();
-            try {
-                this.array.put(0, AbstractTray.clone(value));
-            } catch (final JSONException e) {
-                throw new IOException(e.getMessage());
-            }
-            this.commitInternal();
-            return this;
-        }
+        return this.insert(value, 0);
     }
 
     @Override
     public Cord insert(final JSONObject value, final int p) throws IOException {
         synchronized (this.mutex) {
             this.ensureLoaded();
-            try {
-                this.array.put(p, AbstractTray.clone(value));
-            } catch (final JSONException e) {
-                throw new IOException(e.getMessage());
-            }
-            this.commitInternal();
+            final JSONObject json = AbstractTray.clone(value);
+            this.mutate(() -> {
+                try {
+                    this.array.put(p, json);
+                } catch (final JSONException e) {
+                    throw new IOException(e.getMessage());
+                }
+            });
             return this;
         }
     }
@@ -78,10 +77,10 @@ public class PersistentCord extends AbstractCord implements Cord {
     public JSONObject remove(final int p) throws IOException {
         synchronized (this.mutex) {
             this.ensureLoaded();
-            final Object o = this.array.remove(p);
-            assert o instanceof JSONObject;
-            this.commitInternal();
-            return AbstractTray.clone((JSONObject) o);
+            final Object[] removed = new Object[1];
+            this.mutate(() -> removed[0] = this.array.remove(p));
+            assert removed[0] instanceof JSONObject;
+            return AbstractTray.clone((JSONObject) removed[0]);
         }
     }
 
@@ -94,96 +93,61 @@ public class PersistentCord extends AbstractCord implements Cord {
     public JSONObject removeLast() throws IOException {
         synchronized (this.mutex) {
             this.ensureLoaded();
-            final Object o = this.array.remove(this.array.length() - 1);
-            this.commitInternal();
-            assert o instanceof JSONObject;
-            return AbstractTray.clone((JSONObject) o);
+            final Object[] removed = new Object[1];
+            this.mutate(() -> removed[0] = this.array.remove(this.array.length() - 1));
+            assert removed[0] instanceof JSONObject;
+            return AbstractTray.clone((JSONObject) removed[0]);
         }
     }
 
     @Override
     public List<JSONObject> removeAllWhere(final String key, final String value) throws IOException{
-        final List<JSONObject> list = new ArrayList<>();
-        synchronized (this.mutex) {
-            this.ensureLoaded();
-            final Iterator<Object> i = this.array.iterator();
-            boolean changed = false;
-            while (i.hasNext()) {
-                final Object o = i.next();
-                if (!(o instanceof JSONObject)) continue;
-                final Object v = ((JSONObject) o).opt(key);
-                if (!(v instanceof String)) continue;
-                if (((String) v).equals(value)) {
-                    list.add(AbstractTray.clone((JSONObject) o));
-                    i.remove();
-                    changed = true;
-                }
-            }
-            if (changed) this.commitInternal();
-            return list;
-        }
+        return this.removeWhere(key, v -> v instanceof String && ((String) v).equals(value), false);
     }
 
     @Override
     public List<JSONObject> removeAllWhere(final String key, final long value) throws IOException {
-        final List<JSONObject> list = new ArrayList<>();
-        synchronized (this.mutex) {
-            this.ensureLoaded();
-            final Iterator<Object> i = this.array.iterator();
-            boolean changed = false;
-            while (i.hasNext()) {
-                final Object o = i.next();
-                if (!(o instanceof JSONObject)) continue;
-                final Object v = ((JSONObject) o).opt(key);
-                if (!(v instanceof Long) && !(v instanceof Integer)) continue;
-                if (((Long) v).longValue() == value) {
-                    list.add(AbstractTray.clone((JSONObject) o));
-                    i.remove();
-                    changed = true;
-                }
-            }
-            if (changed) this.commitInternal();
-            return list;
-        }
+        return this.removeWhere(key, v -> (v instanceof Long || v instanceof Integer) && ((Number) v).longValue() == value, false);
     }
 
     @Override
     public JSONObject removeOneWhere(final String key, final String value) throws IOException {
-        synchronized (this.mutex) {
-            this.ensureLoaded();
-            final Iterator<Object> i = this.array.iterator();
-            while (i.hasNext()) {
-                final Object o = i.next();
-                if (!(o instanceof JSONObject)) continue;
-                final Object v = ((JSONObject) o).opt(key);
-                if (!(v instanceof String)) continue;
-                if (((String) v).equals(value)) {
-                    i.remove();
-                    this.commitInternal();
-                    return AbstractTray.clone((JSONObject) o);
-                }
-            }
-            return null;
-        }
+        final List<JSONObject> list = this.removeWhere(key, v -> v instanceof String && ((String) v).equals(value), true);
+        return list.isEmpty() ? null : list.get(0);
     }
 
     @Override
     public JSONObject removeOneWhere(final String key, final long value) throws IOException {
+        final List<JSONObject> list = this.removeWhere(key, v -> (v instanceof Long || v instanceof Integer) && ((Number) v).longValue() == value, true);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * remove the objects where the value of a key matches
+     * @param key
+     * @param match the test for the value of the key
+     * @param one if true, only the first matching object is removed
+     * @return the removed objects
+     * @throws IOException
+     */
+    private List<JSONObject> removeWhere(final String key, final Predicate<Object> match, final boolean one) throws IOException {
+        final List<JSONObject> list = new ArrayList<>();
         synchronized (this.mutex) {
             this.ensureLoaded();
-            final Iterator<Object> i = this.array.iterator();
-            while (i.hasNext()) {
-                final Object o = i.next();
-                if (!(o instanceof JSONObject)) continue;
-                final Object v = ((JSONObject) o).opt(key);
-                if (!(v instanceof Long) && !(v instanceof Integer)) continue;
-                if (((Long) v).longValue() == value) {
+            final AbstractTray.Mutation removal = () -> {
+                list.clear();
+                final Iterator<Object> i = this.array.iterator();
+                while (i.hasNext()) {
+                    final Object o = i.next();
+                    if (!(o instanceof JSONObject) || !match.test(((JSONObject) o).opt(key))) continue;
+                    list.add(AbstractTray.clone((JSONObject) o));
                     i.remove();
-                    this.commitInternal();
-                    return AbstractTray.clone((JSONObject) o);
+                    if (one) return;
                 }
-            }
-            return null;
+            };
+            removal.apply();
+            if (!list.isEmpty()) this.commitInternal(removal);
+            return list;
         }
     }
 
@@ -20,7 +20,15 @@
 package eu.searchlab.storage.json;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -29,11 +37,131 @@ import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.GenericIO;
 import eu.searchlab.storage.io.IOPath;
 import eu.searchlab.storage.io.MinioS3IO;
+import eu.searchlab.storage.io.VersionChannel;
+import eu.searchlab.tools.Logger;
 
+/**
+ * A PersistentTray writes all changes to IO. By default each mutation is written immediately.
+ * In write-behind mode, mutations are collected for a given time and written together with a single
+ * write of the tray. Pending mutations are written with flush() or commit(), when the tray is closed
+ * and at shutdown of the JVM.
+ */
 public class PersistentTray extends AbstractTray implements Tray {
 
+    protected final static Object REMOVED = new Object(); // marker for removed keys in the pending mutations
+    private final static Set<PersistentTray> writeBehindTrays = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService flusher = null;
+
+    private final long writeBehind;
+    protected final Map<String, Object> pending; // mutations which are not yet written
+    private ScheduledFuture<?> scheduledFlush;
+
     public PersistentTray(final ConcurrentIO io, final IOPath iop) {
-        super(io, iop);
+        this(io, iop, null, 0);
+    }
+
+    public PersistentTray(final ConcurrentIO io, final IOPath iop, final VersionChannel channel) {
+        this(io, iop, channel, 0);
+    }
+
+    /**
+     * PersistentTray
+     * @param io
+     * @param iop
+     * @param channel a version channel to detect changes from other nodes or null
+     * @param writeBehind if greater than zero, mutations are collected for this time in milliseconds and then written at once
+     */
+    public PersistentTray(final ConcurrentIO io, final IOPath iop, final VersionChannel channel, final long writeBehind) {
+        super(io, iop, channel);
+        this.writeBehind = writeBehind;
+        this.pending = new LinkedHashMap<>();
+        this.scheduledFlush = null;
+        if (writeBehind > 0) writeBehindTrays.add(this);
+    }
+
+    private static synchronized ScheduledExecutorService getFlusher() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "PersistentTray write-behind");
+                t.setDaemon(true);
+                return t;
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread("PersistentTray shutdown flush") {
+                @Override
+                public void run() {
+                    flushAll();
+                }
+            });
+        }
+        return flusher;
+    }
+
+    /**
+     * write the pending mutations of all trays in write-behind mode
+     */
+    public static void flushAll() {
+        for (final PersistentTray tray: writeBehindTrays) {
+            try {
+                tray.flush();
+            } catch (final IOException e) {
+                Logger.error("write-behind flush failed for " + tray.iop.toString(), e);
+            }
+        }
+    }
+
+    @Override
+    protected void ensureLoaded() throws IOException {
+        final Map<String, Object> loaded = this.object;
+        super.ensureLoaded();
+        // after a reload the mutations which are not yet written must be applied again
+        if (this.object != loaded) applyPending();
+    }
+
+    /**
+     * apply the mutations which are not yet written to the object
+     */
+    protected void applyPending() {
+        if (this.pending == null) return; // this happens while the super constructor loads the tray for the first time
+        for (final Map.Entry<String, Object> entry: this.pending.entrySet()) {
+            if (entry.getValue() == REMOVED) this.objectRemove(entry.getKey()); else this.objectPut(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * a conditional write failed because another node changed the tray; the mutations are applied to the loaded version
+     */
+    @Override
+    protected boolean reapply() throws IOException {
+        if (super.reapply()) return true;
+        applyPending();
+        return true;
+    }
+
+    private void scheduleFlush() {
+        if (this.scheduledFlush != null) return;
+        this.scheduledFlush = getFlusher().schedule(() -> {
+            try {
+                flush();
+            } catch (final IOException e) {
+                Logger.warn("write-behind flush failed for " + this.iop.toString() + ", trying again", e);
+                synchronized (this.mutex) {
+                    scheduleFlush();
+                }
+            }
+        }, this.writeBehind, TimeUnit.MILLISECONDS);
+    }
+
+    private void mutated(final String key, final Object value) throws IOException {
+        this.pending.put(key, value);
+        if (this.writeBehind <= 0) {
+            try {
+                this.commitInternal();
+            } finally {
+                this.pending.clear();
+            }
+            return;
+        }
+        scheduleFlush();
     }
 
     @Override
@@ -58,8 +186,9 @@ public class PersistentTray extends AbstractTray implements Tray {
     public Tray put(final String key, final JSONObject value) throws IOException  {
         synchronized (this.mutex) {
             ensureLoaded();
-            this.object.put(key, AbstractTray.clone(value));
-            this.commitInternal();
+            final JSONObject json = AbstractTray.clone(value);
+            this.objectPut(key, json);
+            this.mutated(key, json);
             return this;
         }
     }
@@ -68,8 +197,9 @@ public class PersistentTray extends AbstractTray implements Tray {
     public Tray put(final String key, final JSONArray value) throws IOException {
         synchronized (this.mutex) {
             ensureLoaded();
-            this.object.put(key, AbstractTray.clone(value));
-            this.commitInternal();
+            final JSONArray array = AbstractTray.clone(value);
+            this.objectPut(key, array);
+            this.mutated(key, array);
             return this;
         }
     }
@@ -79,23 +209,45 @@ public class PersistentTray extends AbstractTray implements Tray {
         synchronized (this.mutex) {
             ensureLoaded();
             if (!this.object.containsKey(key)) return this;
-            this.object.remove(key);
+            this.objectRemove(key);
+            this.mutated(key, REMOVED);
+            return this;
+        }
+    }
+
+    /**
+     * Write all pending mutations. This must be called by all callers which need synchronous
+     * persistence if the tray is in write-behind mode.
+     * @return this
+     * @throws IOException
+     */
+    public Tray flush() throws IOException {
+        synchronized (this.mutex) {
+            if (this.scheduledFlush != null) {
+                this.scheduledFlush.cancel(false);
+                this.scheduledFlush = null;
+            }
+            if (this.pending.isEmpty()) return this;
+            // the write is conditional: if another node changed the tray, the pending mutations are applied to its version
             this.commitInternal();
+            this.pending.clear();
             return this;
         }
     }
 
     @Override
     public Tray commit() throws IOException {
-        // do nothing because all changes have already been written
-        return this;
+        // without write-behind this does nothing because all changes have already been written
+        return this.flush();
     }
 
     @Override
     public void close() throws IOException {
         synchronized (this.mutex) {
+            this.flush();
             this.object = null;
         }
+        writeBehindTrays.remove(this); // a tray which could not be flushed stays registered for the flush at shutdown
     }
 
     public static void main(final String[] args) {
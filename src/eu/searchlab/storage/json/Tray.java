@@ -20,6 +20,7 @@
 package eu.searchlab.storage.json;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Set;
 
 import org.json.JSONArray;
@@ -105,6 +106,43 @@ public interface Tray {
      */
     public JSONArray getArray(String key) throws JSONException, IOException;
 
+    /**
+     * Declare a secondary index on a field of the objects in the tray.
+     * Indexes are maintained on each mutation and rebuilt when the tray is loaded,
+     * so lookups on indexed fields do not scan the tray.
+     * @param field the name of a property within the objects of the tray
+     * @return
+     */
+    public Tray addIndex(String field);
+
+    /**
+     * get the keys of all objects where the given field has the given value.
+     * Without an index on the field, all objects are scanned.
+     * @param field
+     * @param value
+     * @return a set of keys, possibly empty
+     * @throws IOException
+     */
+    public Set<String> keysWhere(String field, String value) throws IOException;
+
+    /**
+     * get one object where the given field has the given value
+     * @param field
+     * @param value
+     * @return the object with the smallest key or null if no such object exists
+     * @throws IOException
+     */
+    public JSONObject getOneWhere(String field, String value) throws IOException;
+
+    /**
+     * get all objects where the given field has the given value
+     * @param field
+     * @param value
+     * @return a list of objects in the order of their keys, possibly empty
+     * @throws IOException
+     */
+    public List<JSONObject> getAllWhere(String field, String value) throws IOException;
+
     /**
      * Translate the whole tray into JSONObject.
      * For most trays this is equivalent to return the buffered storage object.
@@ -29,6 +29,7 @@ import org.json.JSONObject;
 
 import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.storage.io.VersionChannel;
 import tech.tablesaw.api.Table;
 import tech.tablesaw.columns.Column;
 
@@ -37,7 +38,11 @@ public class VolatileCord extends AbstractCord implements Cord {
     private boolean unwrittenChanges;
 
     protected VolatileCord(final ConcurrentIO io, final IOPath iop) {
-        super(io, iop);
+        this(io, iop, null);
+    }
+
+    protected VolatileCord(final ConcurrentIO io, final IOPath iop, final VersionChannel channel) {
+        super(io, iop, channel);
         this.unwrittenChanges = false;
     }
 
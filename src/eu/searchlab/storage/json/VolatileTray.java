@@ -29,13 +29,18 @@ import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.GenericIO;
 import eu.searchlab.storage.io.IOPath;
 import eu.searchlab.storage.io.MinioS3IO;
+import eu.searchlab.storage.io.VersionChannel;
 
 public class VolatileTray extends AbstractTray implements Tray {
 
     private boolean unwrittenChanges;
 
     public VolatileTray(final ConcurrentIO io, final IOPath iop) {
-        super(io, iop);
+        this(io, iop, null);
+    }
+
+    public VolatileTray(final ConcurrentIO io, final IOPath iop, final VersionChannel channel) {
+        super(io, iop, channel);
         this.unwrittenChanges = false;
     }
 
@@ -61,7 +66,7 @@ public class VolatileTray extends AbstractTray implements Tray {
     public Tray put(final String key, final JSONObject value) throws IOException  {
         synchronized (this.mutex) {
             ensureLoaded();
-            this.object.put(key, AbstractTray.clone(value));
+            this.objectPut(key, AbstractTray.clone(value));
             this.unwrittenChanges = true;
             return this;
         }
@@ -71,7 +76,7 @@ public class VolatileTray extends AbstractTray implements Tray {
     public Tray put(final String key, final JSONArray value) throws IOException {
         synchronized (this.mutex) {
             ensureLoaded();
-            this.object.put(key, AbstractTray.clone(value));
+            this.objectPut(key, AbstractTray.clone(value));
             this.unwrittenChanges = true;
             return this;
         }
@@ -82,7 +87,7 @@ public class VolatileTray extends AbstractTray implements Tray {
         synchronized (this.mutex) {
             ensureLoaded();
             if (!this.object.containsKey(key)) return this;
-            this.object.remove(key);
+            this.objectRemove(key);
             this.unwrittenChanges = true;
             return this;
         }
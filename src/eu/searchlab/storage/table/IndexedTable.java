@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -31,7 +32,6 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -40,6 +40,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
@@ -98,12 +99,12 @@ public class IndexedTable implements Iterable<JSONObject> {
      */
     public IndexedTable(final Table table) {
         this.table = table;
-        this.namedStringIndex = new HashMap<>();
-        this.intrfStringIndex = new HashMap<>();
-        this.namedLongIndex = new HashMap<>();
-        this.intrfLongIndex = new HashMap<>();
-        this.namedDoubleIndex = new HashMap<>();
-        this.intrfDoubleIndex = new HashMap<>();
+        this.namedStringIndex = new ConcurrentHashMap<>();
+        this.intrfStringIndex = new ConcurrentHashMap<>();
+        this.namedLongIndex = new ConcurrentHashMap<>();
+        this.intrfLongIndex = new ConcurrentHashMap<>();
+        this.namedDoubleIndex = new ConcurrentHashMap<>();
+        this.intrfDoubleIndex = new ConcurrentHashMap<>();
     }
 
     /**
@@ -149,12 +150,12 @@ public class IndexedTable implements Iterable<JSONObject> {
             ris.close();
         }
 
-        this.namedStringIndex = new HashMap<>();
-        this.intrfStringIndex = new HashMap<>();
-        this.namedLongIndex = new HashMap<>();
-        this.intrfLongIndex = new HashMap<>();
-        this.namedDoubleIndex = new HashMap<>();
-        this.intrfDoubleIndex = new HashMap<>();
+        this.namedStringIndex = new ConcurrentHashMap<>();
+        this.intrfStringIndex = new ConcurrentHashMap<>();
+        this.namedLongIndex = new ConcurrentHashMap<>();
+        this.intrfLongIndex = new ConcurrentHashMap<>();
+        this.namedDoubleIndex = new ConcurrentHashMap<>();
+        this.intrfDoubleIndex = new ConcurrentHashMap<>();
     }
 
     /**
@@ -166,12 +167,12 @@ public class IndexedTable implements Iterable<JSONObject> {
     public IndexedTable(final JSONArray array) throws IOException {
         if (array == null || array.length() == 0) throw new IOException("Initializing an inexed table with an array works only if at least one data record is present. This is required for a schema generation");
         this.table = Table.create();
-        this.namedStringIndex = new HashMap<>();
-        this.intrfStringIndex = new HashMap<>();
-        this.namedLongIndex = new HashMap<>();
-        this.intrfLongIndex = new HashMap<>();
-        this.namedDoubleIndex = new HashMap<>();
-        this.intrfDoubleIndex = new HashMap<>();
+        this.namedStringIndex = new ConcurrentHashMap<>();
+        this.intrfStringIndex = new ConcurrentHashMap<>();
+        this.namedLongIndex = new ConcurrentHashMap<>();
+        this.intrfLongIndex = new ConcurrentHashMap<>();
+        this.namedDoubleIndex = new ConcurrentHashMap<>();
+        this.intrfDoubleIndex = new ConcurrentHashMap<>();
 
 
         try {
@@ -361,6 +362,36 @@ public class IndexedTable implements Iterable<JSONObject> {
         return array;
     }
 
+    /**
+     * Write the table as JSON array to a writer with one row in each line.
+     * The array has the same content as toJSON(asObjects) but only one row is held in memory at a time.
+     * @param writer
+     * @param asObjects
+     * @throws IOException
+     */
+    public void writeJSON(final Writer writer, final boolean asObjects) throws IOException {
+        writer.write('[');
+        if (!asObjects) {
+            final JSONArray a = new JSONArray();
+            for (final String name: this.table.columnNames()) a.put(name);
+            writer.write('\n');
+            writer.write(a.toString());
+        }
+        for (int row = 0; row < this.table.rowCount(); row++) {
+            if (row > 0 || !asObjects) writer.write(',');
+            writer.write('\n');
+            if (asObjects) {
+                writer.write(row2JSON(row).toString());
+            } else {
+                final JSONArray a = new JSONArray();
+                for (int column = 0; column < this.table.columnCount(); column++) a.put(this.table.column(column).get(row));
+                writer.write(a.toString());
+            }
+        }
+        writer.write('\n');
+        writer.write(']');
+    }
+
     public JSONObject row2JSON(final int row) {
         final JSONObject json = new JSONObject(true);
         for (int column = 0; column < this.table.columnCount(); column++) {
@@ -825,13 +856,15 @@ public class IndexedTable implements Iterable<JSONObject> {
         }
     }
 
-    private static Selection not(final Selection s) {
-        return s.flip(0, s.size());
+    private Selection not(final Selection s) {
+        // the complement must be taken over all rows of the table, not only over the size of the selection
+        return s.flip(0, this.table.rowCount());
     }
 
     private Index getIndex(final String column) {
         Index i = this.namedStringIndex.get(column);
         if (i == null) i = this.namedLongIndex.get(column);
+        if (i == null) i = this.namedDoubleIndex.get(column);
         if (i != null) return i;
         // create the index, but find out which kind
         final Column<?> c = this.table.column(column);
@@ -846,7 +879,7 @@ public class IndexedTable implements Iterable<JSONObject> {
         return null;
     }
 
-    private Selection whereSelection(final String columnName, String value) {
+    Selection whereSelection(final String columnName, String value) {
         // convert into one single selection
         final String[] values = value.split(";"); // this is considering a disjunction of values
 
@@ -921,32 +954,16 @@ public class IndexedTable implements Iterable<JSONObject> {
         return ((DoubleIndex) getIndex(columnName)).lessThan(value);
     }
 
-    private Selection whereSelection(final String... selects) {
-        if (selects.length == 0) return null;
-
-        final SplitSelect[] ss = new SplitSelect[selects.length];
-        for (int i = 0; i < selects.length; i++) ss[i] = new SplitSelect(selects[i]);
-
-        // convert into one single selection
-        Selection con = null;
-        for (final SplitSelect s: ss) {
-            final Selection selection = whereSelection(s.col, s.val);
-            if (con == null) con = selection; else con.and(selection);
-        }
-        return con;
-    }
-
     /**
      * Create a new table which is selected by a conjunctive set of select statements.
      * Each select statement is a string with syntax "<key>:<value>" that must match with all values <value>
-     * within the column <key> of the table.
+     * within the column <key> of the table. Values may also be ranges or prefixes, see TableQuery.
      * @param selects
      * @return new table with rows selected
      */
     public IndexedTable whereSelects(final String... selects) {
         if (selects.length == 0) return this;
-        final Table select = this.table.where(whereSelection(selects));
-        return new IndexedTable(select);
+        return new TableQuery(this).where(selects).execute();
     }
 
     public IndexedTable whereSelects(final List<String> selects) {
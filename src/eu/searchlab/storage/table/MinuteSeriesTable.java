@@ -23,11 +23,10 @@ package eu.searchlab.storage.table;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.time.DateTimeException;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedHashSet;
-import java.util.Locale;
 import java.util.Set;
 
 import eu.searchlab.storage.io.ConcurrentIO;
@@ -38,7 +37,6 @@ import tech.tablesaw.api.ColumnType;
 import tech.tablesaw.api.DoubleColumn;
 import tech.tablesaw.api.InstantColumn;
 import tech.tablesaw.api.LongColumn;
-import tech.tablesaw.api.Row;
 import tech.tablesaw.api.StringColumn;
 import tech.tablesaw.api.Table;
 import tech.tablesaw.columns.Column;
@@ -52,6 +50,14 @@ public class MinuteSeriesTable extends AbstractTimeSeriesTable implements TimeSe
     public InstantColumn  tsTimeCol;
     public StringColumn   tsDateCol;
 
+    // the epoch milliseconds of the ts.time column; this is built lazily and extended by addValues
+    private long[] timeIndex = null;
+    private int timeIndexSize = 0;
+    private boolean timeIndexSorted = true;
+
+    // hour and day aggregations for graphs over long time ranges; built lazily and extended by addValues
+    private RollupTiers rollup = null;
+
     public final static String TS_TIME   = "ts.time";
     public final static String TS_DATE   = "ts.date"; // ISO8601 format yyyy-MM-dd HH:mm:ss
 
@@ -209,17 +215,32 @@ public class MinuteSeriesTable extends AbstractTimeSeriesTable implements TimeSe
     }
 
     /**
-     * read a TimeSeriesTable from csv
+     * wrap a table which has the column layout of a MinuteSeriesTable: time, date, view, meta and data columns
+     * @param table
+     * @param viewCount
+     * @param metaCount
+     * @param dataCount
+     */
+    private MinuteSeriesTable(final IndexedTable table, final int viewCount, final int metaCount, final int dataCount) {
+        this.table = table;
+        this.viewCols = new StringColumn[viewCount];
+        this.metaCols = new StringColumn[metaCount];
+        this.dataCols = new Column<?>[dataCount];
+        reassignColumns();
+    }
+
+    /**
+     * read a TimeSeriesTable from csv or, if the path has the TableCodec extension, from the binary format
      * @param io
      * @param iop
      * @param dataIsDouble
      * @throws IOException
      */
     public MinuteSeriesTable(final ConcurrentIO io, final IOPath iop, final int viewCount, final int metaCount, final int dataCount, final boolean dataIsDouble) throws IOException {
-        this(TableParser.readCSV(io, iop, true, Locale.ENGLISH, columnTypes4Table(viewCount, metaCount, dataCount, dataIsDouble)), dataIsDouble);
+        this(TableParser.readTable(io, iop, columnTypes4Table(viewCount, metaCount, dataCount, dataIsDouble)), dataIsDouble);
     }
 
-    private static final ColumnType[] columnTypes4Table(final int viewCount, final int metaCount, final int dataCount, final boolean dataIsDouble) {
+    static final ColumnType[] columnTypes4Table(final int viewCount, final int metaCount, final int dataCount, final boolean dataIsDouble) {
         final ColumnType[] columnTypes = new ColumnType[2 + viewCount + metaCount + dataCount];
         columnTypes[0] = ColumnType.INSTANT;
         columnTypes[1] = ColumnType.LOCAL_DATE;
@@ -291,6 +312,8 @@ public class MinuteSeriesTable extends AbstractTimeSeriesTable implements TimeSe
     }
 
     private void reassignColumns() {
+        this.timeIndex = null;
+        this.rollup = null;
         this.tsTimeCol = (InstantColumn) this.table.column(0);
         this.tsDateCol = (StringColumn) this.table.column(1);
         for (int i = 0; i < this.viewCols.length; i++) this.viewCols[i] = (StringColumn) this.table.column(i + 2);
@@ -320,88 +343,222 @@ public class MinuteSeriesTable extends AbstractTimeSeriesTable implements TimeSe
         return true;
     }
 
+    // --------------------------------------------------------------------------------------------------------------
+
+    private void ensureTimeIndex() {
+        if (this.timeIndex != null) return;
+        final int size = this.tsTimeCol.size();
+        this.timeIndex = new long[Math.max(16, size + size / 4)];
+        this.timeIndexSorted = true;
+        for (int i = 0; i < size; i++) {
+            final Instant instant = this.tsTimeCol.get(i);
+            this.timeIndex[i] = instant == null ? Long.MIN_VALUE : instant.toEpochMilli();
+            if (i > 0 && this.timeIndex[i] < this.timeIndex[i - 1]) this.timeIndexSorted = false;
+        }
+        this.timeIndexSize = size;
+    }
+
+    private void indexTime(final long time) {
+        if (this.timeIndex == null) return; // the index is built with the next query
+        if (this.timeIndexSize == this.timeIndex.length) this.timeIndex = Arrays.copyOf(this.timeIndex, this.timeIndexSize * 2);
+        if (this.timeIndexSize > 0 && time < this.timeIndex[this.timeIndexSize - 1]) this.timeIndexSorted = false;
+        this.timeIndex[this.timeIndexSize++] = time;
+    }
+
+    /**
+     * Time range queries require that the rows are ordered by time.
+     * Rows are appended in time order nearly always; if not, the table is sorted here.
+     */
+    private void ensureSorted() {
+        ensureTimeIndex();
+        if (this.timeIndexSorted) return;
+        this.table = this.table.sort(TS_TIME);
+        reassignColumns();
+        ensureTimeIndex();
+    }
+
+    /**
+     * @param time
+     * @return the first row with a time equal or after the given time, or size() if there is none
+     */
+    private int lowerBound(final long time) {
+        int low = 0, high = this.timeIndexSize;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (this.timeIndex[mid] < time) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * A view on a range of rows of this table: the rows are not copied.
+     * The view is valid until the table is sorted, truncated or another table is appended.
+     */
+    public class RowRange {
+
+        private final int first, end;
+
+        private RowRange(final int first, final int end) {
+            this.first = first;
+            this.end = end;
+        }
+
+        public int size() {
+            return this.end - this.first;
+        }
+
+        /**
+         * @return the row number of the first row of the range within the table
+         */
+        public int first() {
+            return this.first;
+        }
+
+        public long getTime(final int i) {
+            return MinuteSeriesTable.this.timeIndex[this.first + i];
+        }
+
+        public String[] getView(final int i) {
+            return MinuteSeriesTable.this.getView(this.first + i);
+        }
+
+        public String[] getMeta(final int i) {
+            return MinuteSeriesTable.this.getMeta(this.first + i);
+        }
+
+        public long getLong(final int i, final int dataCol) {
+            return ((LongColumn) MinuteSeriesTable.this.dataCols[dataCol]).getLong(this.first + i);
+        }
+
+        public double getDouble(final int i, final int dataCol) {
+            return ((DoubleColumn) MinuteSeriesTable.this.dataCols[dataCol]).getDouble(this.first + i);
+        }
+    }
+
+    /**
+     * get all rows in a time range without copying them
+     * @param from the first time, included
+     * @param until the end time, excluded
+     * @return a view on the rows
+     */
+    public RowRange rows(final long from, final long until) {
+        ensureSorted();
+        final int first = lowerBound(from);
+        return new RowRange(first, Math.max(first, lowerBound(until)));
+    }
+
+    private MinuteSeriesTable copyRows(final int first, final int end) {
+        return new MinuteSeriesTable(new IndexedTable(this.table.table().inRange(first, end)), this.viewCols.length, this.metaCols.length, this.dataCols.length);
+    }
+
+    private RollupTiers ensureRollup() {
+        if (this.rollup != null) return this.rollup;
+        ensureSorted();
+        final String[] dataColNames = new String[this.dataCols.length];
+        for (int i = 0; i < dataColNames.length; i++) dataColNames[i] = this.dataCols[i].name();
+        final RollupTiers rollup = new RollupTiers(dataColNames);
+        final boolean dataIsDouble = this.dataCols.length > 0 && this.dataCols[0] instanceof DoubleColumn;
+        final double[] d = new double[this.dataCols.length];
+        for (int row = lowerBound(0); row < this.timeIndexSize; row++) {
+            for (int i = 0; i < d.length; i++) {
+                d[i] = dataIsDouble ? ((DoubleColumn) this.dataCols[i]).getDouble(row) : ((LongColumn) this.dataCols[i]).getLong(row);
+            }
+            rollup.add(this.timeIndex[row], d);
+        }
+        this.rollup = rollup;
+        return rollup;
+    }
+
     /**
-     * make a copy of this TimeSeriesTable where all values are aggregated over time
+     * Get the rows of a time range with a resolution that produces not more than the given number of points.
+     * The finest of the minute rows, the hour tier and the day tier which fits is chosen.
+     * Minute rows are returned with the columns of this table, the tiers as described in RollupTiers.table.
+     * @param from the first time, included
+     * @param until the end time, excluded
+     * @param maxPoints the maximum number of rows that should be returned
+     * @return a table with the columns ts.time, ts.date and all data columns
+     */
+    public Table downsample(final long from, final long until, final int maxPoints) {
+        final RowRange rows = rows(from, until);
+        if (rows.size() <= maxPoints) {
+            if (rows.size() == this.timeIndexSize) return this.table.table();
+            return this.table.table().inRange(rows.first(), rows.first() + rows.size());
+        }
+        // the span of the range which is covered with rows
+        final long span = Math.min(until, rows.getTime(rows.size() - 1) + 1) - Math.max(from, rows.getTime(0));
+        final RollupTiers.Resolution resolution = span / RollupTiers.Resolution.HOUR.span < maxPoints ? RollupTiers.Resolution.HOUR : RollupTiers.Resolution.DAY;
+        return ensureRollup().table(resolution, from, until);
+    }
+
+    /**
+     * paint a graph; long time ranges are painted from the hour or day tier with the average values
+     */
+    @Override
+    public TableViewer getGraph(final String filename, final String title, final String xscalename, final String timecolname, final String[] yscalecols, final String[] y2scalecols) {
+        if (this.size() == 0 || this.dataCols.length == 0) return super.getGraph(filename, title, xscalename, timecolname, yscalecols, y2scalecols);
+        final int maxPoints = Integer.parseInt(System.getProperty("graph.maxpoints", "1500"));
+        final Table table = downsample(0, Long.MAX_VALUE, maxPoints);
+        return getGraph(table, filename, title, xscalename, timecolname, yscalecols, y2scalecols);
+    }
+
+    /**
+     * make a copy of this TimeSeriesTable where all values are aggregated over time.
+     * Rows with a negative time contribute to the aggregation but are not part of the result.
      * @return
      */
     public MinuteSeriesTable aggregation() {
-        final MinuteSeriesTable aggregation = emptyClone();
-        final boolean dataIsDouble = this.dataCols[0] instanceof DoubleColumn;
-        if (dataIsDouble) {
-            final double[] a = new double[this.dataCols.length];
-            for (int i = 0; i < a.length; i++) a[i] = 0.0d;
-            for (int row = 0; row < this.size(); row++) {
-                final long time = getTime(row);
-                final String[] view = getView(row);
-                final String[] meta = getMeta(row);
-                final double[] data = getDouble(row);
-                for (int i = 0; i < a.length; i++) a[i] += data[i];
-                aggregation.addValues(time, view, meta, a);
-            }
-        } else {
-            final long[] a = new long[this.dataCols.length];
-            for (int i = 0; i < a.length; i++) a[i] = 0L;
-            for (int row = 0; row < this.size(); row++) {
-                final long time = getTime(row);
-                final String[] view = getView(row);
-                final String[] meta = getMeta(row);
-                final long[] data = getLong(row);
-                for (int i = 0; i < a.length; i++) a[i] += data[i];
-                if (time < 0) continue;
-                aggregation.addValues(time, view, meta, a);
+        ensureSorted();
+        final int size = this.timeIndexSize;
+        final int first = lowerBound(0);
+        final Table t = Table.create().addColumns(this.tsTimeCol.inRange(first, size), this.tsDateCol.inRange(first, size));
+        for (final StringColumn c: this.viewCols) t.addColumns(c.inRange(first, size));
+        for (final StringColumn c: this.metaCols) t.addColumns(c.inRange(first, size));
+        for (final Column<?> c: this.dataCols) {
+            if (c instanceof DoubleColumn) {
+                final DoubleColumn dc = (DoubleColumn) c;
+                final double[] sum = new double[size - first];
+                double a = 0.0d;
+                for (int row = 0; row < size; row++) {
+                    final double d = dc.getDouble(row);
+                    if (Double.isFinite(d)) a += d; // as in getDouble, missing values count as zero
+                    if (row >= first) sum[row - first] = a;
+                }
+                t.addColumns(DoubleColumn.create(c.name(), sum));
+            } else {
+                final LongColumn lc = (LongColumn) c;
+                final long[] sum = new long[size - first];
+                long a = 0L;
+                for (int row = 0; row < size; row++) {
+                    a += lc.getLong(row);
+                    if (row >= first) sum[row - first] = a;
+                }
+                t.addColumns(LongColumn.create(c.name(), sum));
             }
         }
-        return aggregation;
+        return new MinuteSeriesTable(new IndexedTable(t), this.viewCols.length, this.metaCols.length, this.dataCols.length);
     }
 
     public MinuteSeriesTable whereBeforeTime(final long l) {
-        final MinuteSeriesTable where = emptyClone();
-        final boolean dataIsDouble = this.dataCols[0] instanceof DoubleColumn;
-        if (dataIsDouble) {
-            for (int row = 0; row < this.size(); row++) {
-                final long time = getTime(row);
-                if (time < 0 || time >= l) continue;
-                final String[] view = getView(row);
-                final String[] meta = getMeta(row);
-                final double[] data = getDouble(row);
-                where.addValues(time, view, meta, data);
-            }
-        } else {
-            for (int row = 0; row < this.size(); row++) {
-                final long time = getTime(row);
-                if (time < 0 || time >= l) continue;
-                final String[] view = getView(row);
-                final String[] meta = getMeta(row);
-                final long[] data = getLong(row);
-                where.addValues(time, view, meta, data);
-            }
-        }
-        return where;
+        ensureSorted();
+        final int first = lowerBound(0);
+        return copyRows(first, Math.max(first, lowerBound(l)));
     }
 
     public MinuteSeriesTable whereFromTime(final long l) {
-        final MinuteSeriesTable where = emptyClone();
-        final boolean dataIsDouble = this.dataCols[0] instanceof DoubleColumn;
-        if (dataIsDouble) {
-            for (int row = 0; row < this.size(); row++) {
-                final long time = getTime(row);
-                if (time < 0 || time < l) continue;
-                final String[] view = getView(row);
-                final String[] meta = getMeta(row);
-                final double[] data = getDouble(row);
-                where.addValues(time, view, meta, data);
-            }
-        } else {
-            for (int row = 0; row < this.size(); row++) {
-                final long time = getTime(row);
-                if (time < 0 || time < l) continue;
-                final String[] view = getView(row);
-                final String[] meta = getMeta(row);
-                final long[] data = getLong(row);
-                where.addValues(time, view, meta, data);
-            }
-        }
-        return where;
+        ensureSorted();
+        return copyRows(lowerBound(Math.max(0, l)), this.timeIndexSize);
+    }
+
+    /**
+     * get a copy of all rows in a time range
+     * @param from the first time, included
+     * @param until the end time, excluded
+     * @return a new table with the rows of the range
+     */
+    public MinuteSeriesTable whereTime(final long from, final long until) {
+        ensureSorted();
+        final int first = lowerBound(Math.max(0, from));
+        return copyRows(first, Math.max(first, lowerBound(until)));
     }
 
     /**
@@ -413,26 +570,21 @@ public class MinuteSeriesTable extends AbstractTimeSeriesTable implements TimeSe
         TableParser.storeCSV(io, iop, this.table.table);
     }
 
+    /**
+     * write a table in the format given by the path extension
+     * @param io
+     * @param iop
+     */
+    public void store(final ConcurrentIO io, final IOPath iop) {
+        TableParser.storeTable(io, iop, this.table.table);
+    }
+
     public void deleteBefore(final long time) {
-        loop: for (int i = 0; i < this.tsTimeCol.size(); i++) try {
-            final long t = this.tsTimeCol.get(i).toEpochMilli();
-            if (t >= time) {
-                final Table ntable = this.table.table().emptyCopy();
-                for (int k = i; k < this.table.rowCount(); k++) {
-                    final Row row = this.table.row(k);
-                    ntable.append(row);
-                }
-                this.tsTimeCol = ntable.instantColumn(TS_TIME);
-                this.tsDateCol = ntable.stringColumn(TS_DATE);
-                for (int k = 0; k < this.viewCols.length; k++) this.viewCols[k] = ntable.stringColumn(this.viewCols[k].name());
-                for (int k = 0; k < this.metaCols.length; k++) this.metaCols[k] = ntable.stringColumn(this.metaCols[k].name());
-                for (int k = 0; k < this.dataCols.length; k++) this.dataCols[k] = ntable.column(this.dataCols[k].name());
-                this.table = new IndexedTable(ntable);
-                return;
-            }
-        } catch (final DateTimeException e) {
-            continue loop;
-        }
+        ensureSorted();
+        final int first = lowerBound(time);
+        if (first == 0) return;
+        this.table = new IndexedTable(this.table.table().inRange(first, this.timeIndexSize));
+        reassignColumns();
     }
 
     public boolean checkShape(final String[] view, final String[] meta, final long[] data) {
@@ -453,6 +605,7 @@ public class MinuteSeriesTable extends AbstractTimeSeriesTable implements TimeSe
         if (!checkShape(view, meta, data)) throw new RuntimeException("wrong shape");
         addValues(time, view, meta);
         for (int i = 0; i < data.length; i++) ((DoubleColumn) this.dataCols[i]).append(data[i]);
+        if (this.rollup != null && !this.rollup.add(time, data)) this.rollup = null;
     }
 
     public void addValues(final long time, final String[] view, final String[] meta, final long[] data) {
@@ -460,11 +613,17 @@ public class MinuteSeriesTable extends AbstractTimeSeriesTable implements TimeSe
         if (!checkShape(view, meta, data)) throw new RuntimeException("wrong shape");
         addValues(time, view, meta);
         for (int i = 0; i < data.length; i++) ((LongColumn) this.dataCols[i]).append(data[i]);
+        if (this.rollup != null) {
+            final double[] d = new double[data.length];
+            for (int i = 0; i < data.length; i++) d[i] = data[i];
+            if (!this.rollup.add(time, d)) this.rollup = null;
+        }
     }
 
     private void addValues(final long time, final String[] view, final String[] meta) {
         assert time > 0 : "time = " + time;
         this.tsTimeCol.append(Instant.ofEpochMilli(time));
+        indexTime(time);
         try {
             this.tsDateCol.append(DateParser.minuteDateFormatParser().format(new Date(time)));
         } catch (final Exception e) {
@@ -477,74 +636,61 @@ public class MinuteSeriesTable extends AbstractTimeSeriesTable implements TimeSe
 
     public void append(final MinuteSeriesTable t) {
         this.table.append(t.table);
+        this.timeIndex = null;
+        this.rollup = null;
+    }
+
+    /**
+     * find the row with the given time and view
+     * @param time
+     * @param view the view values or null to match any view
+     * @return the row number or -1 if there is no such row
+     */
+    private int findRow(final long time, final String[] view) {
+        ensureSorted();
+        search: for (int r = lowerBound(time); r < this.timeIndexSize && this.timeIndex[r] == time; r++) {
+            if (view != null) for (int j = 0; j < view.length; j++) {
+                if (!view[j].equals(this.viewCols[j].getString(r))) continue search;
+            }
+            return r;
+        }
+        return -1;
     }
 
     public void setValuesWhere(final long time, final String[] view, final String[] meta, final double[] data) {
         assert time > 0 : "time = " + time;
         if (!checkShape(view, meta, data)) throw new RuntimeException("wrong shape");
-        rowloop: for (int r = 0; r < this.table.rowCount(); r++) {
-            // try to match with time constraints
-            if (this.tsTimeCol.getLongInternal(r) != time) continue;
+        final int r = findRow(time, view);
+        if (r < 0) return;
 
-            // try to match with view constraints
-            for (int t = 0; t < view.length; t++) {
-                if (!this.viewCols[t].get(r).equals(view[t])) continue rowloop;
-            }
-
-            // overwrite values and finish. We consider that this hit is unique
-            for (int i = 0; i < meta.length; i++) this.metaCols[i].set(r, meta[i]);
-            for (int i = 0; i < data.length; i++) ((DoubleColumn) this.dataCols[i]).set(r, data[i]);
-            return;
-        }
+        // overwrite values. We consider that this hit is unique
+        for (int i = 0; i < meta.length; i++) this.metaCols[i].set(r, meta[i]);
+        for (int i = 0; i < data.length; i++) ((DoubleColumn) this.dataCols[i]).set(r, data[i]);
+        this.rollup = null; // the aggregates of the changed row are not known
     }
 
     public void setValuesWhere(final long time, final String[] view, final String[] meta, final long[] data) {
         assert time > 0 : "time = " + time;
         if (!checkShape(view, meta, data)) throw new RuntimeException("wrong shape");
-        rowloop: for (int r = 0; r < this.table.rowCount(); r++) {
-            // try to match with time constraints
-            if (this.tsTimeCol.getLongInternal(r) != time) continue;
+        final int r = findRow(time, view);
+        if (r < 0) return;
 
-            // try to match with view constraints
-            for (int t = 0; t < view.length; t++) {
-                if (!this.viewCols[t].get(r).equals(view[t])) continue rowloop;
-            }
-
-            // overwrite values and finish. We consider that this hit is unique
-            for (int i = 0; i < meta.length; i++) this.metaCols[i].set(r, meta[i]);
-            for (int i = 0; i < data.length; i++) ((LongColumn) this.dataCols[i]).set(r, data[i]);
-            return;
-        }
+        // overwrite values. We consider that this hit is unique
+        for (int i = 0; i < meta.length; i++) this.metaCols[i].set(r, meta[i]);
+        for (int i = 0; i < data.length; i++) ((LongColumn) this.dataCols[i]).set(r, data[i]);
+        this.rollup = null; // the aggregates of the changed row are not known
     }
 
     public double[] getDoubleWhere(final long time, final String[] view) {
         assert view == null || view.length == this.viewCols.length : "neue view.length = " + view.length + ", bestehende view.length = " + this.viewCols.length;
-
-        // execute select
-        search: for (int i = 0; i < this.table.size(); i++) {
-            if (this.tsTimeCol.getLongInternal(i) == time) {
-                if (view != null) for (int j = 0; j < view.length; j++) {
-                    if (!view[j].equals(this.viewCols[j].getString(i))) continue search;
-                }
-                return getDouble(i);
-            }
-        }
-        return null;
+        final int r = findRow(time, view);
+        return r < 0 ? null : getDouble(r);
     }
 
     public long[] getLongWhere(final long time, final String[] view) {
         assert view == null || view.length == this.viewCols.length : "neue view.length = " + view.length + ", bestehende view.length = " + this.viewCols.length;
-
-        // execute select
-        search: for (int i = 0; i < this.table.size(); i++) {
-            if (this.tsTimeCol.getLongInternal(i) == time) {
-                if (view != null) for (int j = 0; j < view.length; j++) {
-                    if (!view[j].equals(this.viewCols[j].getString(i))) continue search;
-                }
-                return getLong(i);
-            }
-        }
-        return null;
+        final int r = findRow(time, view);
+        return r < 0 ? null : getLong(r);
     }
 
     public long getFirstTime() {
@@ -24,8 +24,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
-import org.json.JSONArray;
-
 import eu.searchlab.storage.io.ConcurrentIO;
 import eu.searchlab.storage.io.IOObject;
 import eu.searchlab.storage.io.IOPath;
@@ -46,6 +44,7 @@ public class PersistentTables {
     private String urlstub;
     private ConcurrentIO io;
     private IOPath iop;
+    private TableCache cache; // tables which are loaded from io
 
     /**
      * create an empty TableServer
@@ -53,10 +52,12 @@ public class PersistentTables {
     public PersistentTables() {
         this.indexes = new ConcurrentHashMap<>();
         this.urlstub = null;
+        this.cache = null;
     }
 
     public void clear() {
         this.indexes.clear();
+        if (this.cache != null) this.cache.clear();
     }
 
     /**
@@ -78,6 +79,9 @@ public class PersistentTables {
     public PersistentTables connect(final ConcurrentIO io, final IOPath iop) {
         this.io = io;
         this.iop = iop;
+        final long cacheSize = Long.parseLong(System.getProperty("storage.tablecache.size", "256")) * 1024L * 1024L;
+        final long staleness = Long.parseLong(System.getProperty("storage.tablecache.staleness", "2000"));
+        this.cache = new TableCache(io.getIO(), cacheSize, staleness);
         return this;
     }
 
@@ -89,6 +93,7 @@ public class PersistentTables {
     public PersistentTables removeTable(final String tablename) {
         final IOPath key = this.iop.append(tablename + ".json");
         try {this.io.removeForced(key);} catch (final IOException e) {}
+        this.cache.invalidate(key);
         this.indexes.remove(tablename);
         return this;
     }
@@ -129,12 +134,14 @@ public class PersistentTables {
         if (this.iop == null) throw new IOException("no io path defined");
         final IOPath key = this.iop.append(tablename + ".json");
         this.io.writeForced(new IOObject(key, t.toJSON(true).toString(2).getBytes(StandardCharsets.UTF_8)));
+        this.cache.invalidate(key);
     }
 
     /**
      * Retrieve named table from index
      * In case the index is hosted, the resulting table may be altered but it would not alter the hosted table.
      * If the table is not hosted, altering the table will alter the table for all other requests as well.
+     * Tables which are loaded from io are cached and shared by all requests; they must not be altered.
      * @param tablename
      * @return
      * @throws IOException
@@ -185,19 +192,14 @@ public class PersistentTables {
 
         // try: load from local copy
         IndexedTable table = this.indexes.get(tablename);
-        if (table == null) try {
-            // in case the table is not inside the index, load it now
-            final IOPath key = this.iop.append(tablename + ".json");
-            if (this.io.getIO().exists(key)) {
-                final IOObject[] o = this.io.readForced(key);
-                final JSONArray a = o[0].getJSONArray();
-                table = new IndexedTable(a);
-            }
+        if (table == null && this.cache != null) try {
+            // in case the table is not inside the index, get it from the cache which loads it if necessary
+            table = this.cache.get(this.iop.append(tablename + ".json"));
         } catch (final IOException e) {
             Logger.error("could not load table " + tablename + " from " + this.iop.toString() + tablename + ".json");
         }
         // process where statements
-        if (selects.length == 0) return table;
+        if (selects.length == 0 || table == null) return table;
         return table.whereSelects(selects);
     }
 
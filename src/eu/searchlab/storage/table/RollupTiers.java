@@ -0,0 +1,185 @@
+/**
+ *  RollupTiers
+ *  Copyright 19.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.storage.table;
+
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+
+import eu.searchlab.tools.DateParser;
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.api.InstantColumn;
+import tech.tablesaw.api.LongColumn;
+import tech.tablesaw.api.StringColumn;
+import tech.tablesaw.api.Table;
+
+/**
+ * Downsampled aggregations of a minute time series in tiers of hours and days.
+ * Each tier holds one bucket per hour or day (UTC) with the number of rows and the minimum, maximum and sum
+ * of every data column. The tiers are extended when rows are added in time order; a row which is
+ * added before the last bucket cannot be merged and the tiers must be built again.
+ */
+public class RollupTiers {
+
+    public final static long MINUTE_MILLIS = 60 * 1000;
+
+    public enum Resolution {
+        HOUR(DateParser.HOUR_MILLIS), DAY(DateParser.DAY_MILLIS);
+
+        public final long span;
+
+        private Resolution(final long span) {
+            this.span = span;
+        }
+    }
+
+    private final static class Tier {
+
+        private final long span;
+        private final int cols;
+        private long[] start;
+        private int[] count;
+        private double[] min, max, sum; // cols values for each bucket
+        private int size;
+
+        private Tier(final long span, final int cols) {
+            this.span = span;
+            this.cols = cols;
+            this.start = new long[64];
+            this.count = new int[64];
+            this.min = new double[64 * cols];
+            this.max = new double[64 * cols];
+            this.sum = new double[64 * cols];
+            this.size = 0;
+        }
+
+        private boolean add(final long time, final double[] values) {
+            final long bucket = Math.floorDiv(time, this.span) * this.span;
+            if (this.size > 0 && bucket < this.start[this.size - 1]) return false;
+            if (this.size == 0 || bucket > this.start[this.size - 1]) {
+                if (this.size == this.start.length) {
+                    final int capacity = this.size * 2;
+                    this.start = Arrays.copyOf(this.start, capacity);
+                    this.count = Arrays.copyOf(this.count, capacity);
+                    this.min = Arrays.copyOf(this.min, capacity * this.cols);
+                    this.max = Arrays.copyOf(this.max, capacity * this.cols);
+                    this.sum = Arrays.copyOf(this.sum, capacity * this.cols);
+                }
+                this.start[this.size] = bucket;
+                this.count[this.size] = 0;
+                final int o = this.size * this.cols;
+                Arrays.fill(this.min, o, o + this.cols, Double.POSITIVE_INFINITY);
+                Arrays.fill(this.max, o, o + this.cols, Double.NEGATIVE_INFINITY);
+                Arrays.fill(this.sum, o, o + this.cols, 0.0d);
+                this.size++;
+            }
+            final int b = this.size - 1;
+            final int o = b * this.cols;
+            this.count[b]++;
+            for (int c = 0; c < this.cols; c++) {
+                final double v = values[c];
+                if (v < this.min[o + c]) this.min[o + c] = v;
+                if (v > this.max[o + c]) this.max[o + c] = v;
+                this.sum[o + c] += v;
+            }
+            return true;
+        }
+
+        private int lowerBound(final long time) {
+            int low = 0, high = this.size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (this.start[mid] < time) low = mid + 1; else high = mid;
+            }
+            return low;
+        }
+    }
+
+    private final String[] dataColNames;
+    private final Tier hours, days;
+
+    public RollupTiers(final String[] dataColNames) {
+        this.dataColNames = dataColNames;
+        this.hours = new Tier(Resolution.HOUR.span, dataColNames.length);
+        this.days = new Tier(Resolution.DAY.span, dataColNames.length);
+    }
+
+    /**
+     * add the values of one row
+     * @param time
+     * @param values the data values of the row
+     * @return false if the row is before the last bucket; then the tiers are not valid any more
+     */
+    public boolean add(final long time, final double[] values) {
+        return this.hours.add(time, values) & this.days.add(time, values);
+    }
+
+    /**
+     * @param resolution
+     * @return the number of buckets within the resolution
+     */
+    public int size(final Resolution resolution) {
+        return (resolution == Resolution.HOUR ? this.hours : this.days).size;
+    }
+
+    /**
+     * get the buckets of a time range as a table. The table has the columns of a time series table:
+     * ts.time and ts.date hold the start of the bucket. For each data column there is a column with the
+     * same name holding the average value, and columns with the suffixes .min, .max, .sum and a column ts.count.
+     * @param resolution
+     * @param from the first time, included
+     * @param until the end time, excluded
+     * @return the table of buckets
+     */
+    public Table table(final Resolution resolution, final long from, final long until) {
+        final Tier tier = resolution == Resolution.HOUR ? this.hours : this.days;
+        final int first = tier.lowerBound(Math.floorDiv(from, tier.span) * tier.span);
+        final int end = Math.max(first, tier.lowerBound(until));
+        final int n = end - first;
+        final InstantColumn time = InstantColumn.create(MinuteSeriesTable.TS_TIME);
+        final StringColumn date = StringColumn.create(MinuteSeriesTable.TS_DATE);
+        final long[] count = new long[n];
+        final SimpleDateFormat format = DateParser.minuteDateFormatParser();
+        for (int i = 0; i < n; i++) {
+            time.append(Instant.ofEpochMilli(tier.start[first + i]));
+            date.append(format.format(new Date(tier.start[first + i])));
+            count[i] = tier.count[first + i];
+        }
+        final Table table = Table.create().addColumns(time, date, LongColumn.create("ts.count", count));
+        for (int c = 0; c < this.dataColNames.length; c++) {
+            final double[] avg = new double[n], min = new double[n], max = new double[n], sum = new double[n];
+            for (int i = 0; i < n; i++) {
+                final int o = (first + i) * tier.cols + c;
+                sum[i] = tier.sum[o];
+                min[i] = tier.min[o];
+                max[i] = tier.max[o];
+                avg[i] = sum[i] / tier.count[first + i];
+            }
+            final String name = this.dataColNames[c];
+            table.addColumns(
+                    DoubleColumn.create(name, avg),
+                    DoubleColumn.create(name + ".min", min),
+                    DoubleColumn.create(name + ".max", max),
+                    DoubleColumn.create(name + ".sum", sum));
+        }
+        return table;
+    }
+}
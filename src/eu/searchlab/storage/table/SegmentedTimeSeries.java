@@ -0,0 +1,728 @@
+/**
+ *  SegmentedTimeSeries
+ *  Copyright 19.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.storage.table;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import eu.searchlab.storage.io.ConcurrentIO;
+import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.storage.io.IOPathMeta;
+import eu.searchlab.tools.DateParser;
+import eu.searchlab.tools.Logger;
+import tech.tablesaw.api.DoubleColumn;
+
+/**
+ * A time series which is partitioned into segments of one day or one month.
+ * Every segment is a MinuteSeriesTable stored as a separate binary object in a folder;
+ * the object name is the start date of the segment, i.e. "2026-10.tsb" or "2026-10-19.tsb".
+ * - appends touch only the segment of the given time; new rows are written as small delta objects
+ *   "<date>_e<epoch>_<n>.tsb" next to the base object of the segment, and a segment is compacted into the
+ *   base object "<date>_e<epoch>.tsb" of the next epoch when it has ended. Objects of epoch 0 have no epoch in
+ *   their name. Compactions are safe with several processes writing to the same folder, see compact()
+ * - retention removes whole segments
+ * - range queries load only the segments which overlap with the range
+ * Loaded segments are kept in memory. A single table which was stored at a legacy path, by default the path
+ * of the folder with the extension ".tsb" or ".csv", is split into segments when the folder is empty; the legacy
+ * table is removed after the segments are written.
+ */
+public class SegmentedTimeSeries {
+
+    private final static int MAX_DELTAS = 1000; // number of deltas after which an open segment is compacted
+    private final static long GRACE_MILLIS = 10 * 60 * 1000; // time after a compaction in which the deltas of the sealed epoch are kept
+
+    public enum Partition {
+        DAY(DateParser.PATTERN_MONTHDAY), MONTH("yyyy-MM");
+
+        private final String pattern;
+
+        private Partition(final String pattern) {
+            this.pattern = pattern;
+        }
+
+        private SimpleDateFormat format() {
+            final SimpleDateFormat format = new SimpleDateFormat(this.pattern);
+            format.setTimeZone(DateParser.UTCtimeZone);
+            return format;
+        }
+
+        /**
+         * @param time
+         * @return the start time of the segment which contains the given time
+         */
+        public long start(final long time) {
+            final Calendar cal = Calendar.getInstance(DateParser.UTCtimeZone);
+            cal.setTimeInMillis(time);
+            if (this == MONTH) cal.set(Calendar.DAY_OF_MONTH, 1);
+            cal.set(Calendar.HOUR_OF_DAY, 0);
+            cal.set(Calendar.MINUTE, 0);
+            cal.set(Calendar.SECOND, 0);
+            cal.set(Calendar.MILLISECOND, 0);
+            return cal.getTimeInMillis();
+        }
+
+        /**
+         * @param start the start time of a segment
+         * @return the start time of the following segment
+         */
+        public long next(final long start) {
+            final Calendar cal = Calendar.getInstance(DateParser.UTCtimeZone);
+            cal.setTimeInMillis(start);
+            cal.add(this == MONTH ? Calendar.MONTH : Calendar.DAY_OF_MONTH, 1);
+            return cal.getTimeInMillis();
+        }
+
+        /**
+         * @param start the start time of a segment
+         * @return the date of the segment, i.e. "yyyy-MM-dd" or "yyyy-MM"
+         */
+        public String label(final long start) {
+            return format().format(start);
+        }
+
+        public String name(final long start) {
+            return label(start) + TableCodec.EXTENSION;
+        }
+
+        /**
+         * @param name an object name
+         * @return the start time of the segment or -1 if the name is not a segment name
+         */
+        public long parse(final String name) {
+            if (!name.endsWith(TableCodec.EXTENSION)) return -1;
+            final String date = name.substring(0, name.length() - TableCodec.EXTENSION.length());
+            if (date.length() != this.pattern.length()) return -1;
+            try {
+                return format().parse(date).getTime();
+            } catch (final ParseException e) {
+                return -1;
+            }
+        }
+    }
+
+    private final ConcurrentIO io;
+    private final IOPath folder, legacy;
+    private final String[] viewColNames, metaColNames, dataColNames;
+    private final boolean dataIsDouble;
+    private final Partition partition;
+    private final TreeMap<Long, MinuteSeriesTable> segments; // loaded segments by start time
+    private final Map<Long, Integer> loadedEpochs; // the epoch of the base object of a loaded segment
+    private final Map<Long, Long> loadedDeltas; // the position of the last delta within a loaded segment, see position()
+    private final Map<Long, MinuteSeriesTable> pending; // rows which are not written yet
+    private TreeMap<Long, Integer> bases; // the epoch of the newest base object of each segment
+    private TreeMap<Long, TreeMap<Integer, Integer>> deltas; // the highest delta sequence number of each epoch of each segment
+    private TreeMap<Long, Map<IOPath, Integer>> objects; // all listed objects of each segment with their epoch
+    private TreeMap<Long, Long> modified; // the modification time of the newest base object of each segment
+    private TreeMap<Long, Map<Integer, IOPath>> seals; // the listed seals of each segment by their epoch
+
+    /**
+     * SegmentedTimeSeries
+     * @param io
+     * @param folder the folder of the segments
+     * @param viewColNames
+     * @param metaColNames
+     * @param dataColNames
+     * @param dataIsDouble
+     * @param partition the time span of one segment
+     * @throws IOException
+     */
+    public SegmentedTimeSeries(
+            final ConcurrentIO io, final IOPath folder,
+            final String[] viewColNames, final String[] metaColNames, final String[] dataColNames, final boolean dataIsDouble,
+            final Partition partition) throws IOException {
+        this(io, folder, folder.getParent().append(folder.getObjectName() + TableCodec.EXTENSION),
+             viewColNames, metaColNames, dataColNames, dataIsDouble, partition);
+    }
+
+    /**
+     * SegmentedTimeSeries
+     * @param io
+     * @param folder the folder of the segments
+     * @param legacy the path of a single table which is split into segments if the folder is empty, or null
+     * @param viewColNames
+     * @param metaColNames
+     * @param dataColNames
+     * @param dataIsDouble
+     * @param partition the time span of one segment
+     * @throws IOException
+     */
+    public SegmentedTimeSeries(
+            final ConcurrentIO io, final IOPath folder, final IOPath legacy,
+            final String[] viewColNames, final String[] metaColNames, final String[] dataColNames, final boolean dataIsDouble,
+            final Partition partition) throws IOException {
+        this.io = io;
+        this.folder = folder;
+        this.legacy = legacy;
+        this.viewColNames = viewColNames;
+        this.metaColNames = metaColNames;
+        this.dataColNames = dataColNames;
+        this.dataIsDouble = dataIsDouble;
+        this.partition = partition;
+        this.segments = new TreeMap<>();
+        this.loadedEpochs = new HashMap<>();
+        this.loadedDeltas = new HashMap<>();
+        this.pending = new HashMap<>();
+        this.bases = new TreeMap<>();
+        this.deltas = new TreeMap<>();
+        this.objects = new TreeMap<>();
+        this.modified = new TreeMap<>();
+        this.seals = new TreeMap<>();
+        listSegments();
+        if (this.bases.isEmpty() && this.deltas.isEmpty()) migrate();
+    }
+
+    /**
+     * the position of a delta: deltas are ordered by their epoch and their sequence number within the epoch
+     */
+    private static long position(final int epoch, final int seq) {
+        return (((long) epoch) << 32) | seq;
+    }
+
+    private static int epoch(final long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int seq(final long position) {
+        return (int) position;
+    }
+
+    /**
+     * list the base and delta objects of all segments
+     */
+    private void listSegments() {
+        final TreeMap<Long, Integer> bases = new TreeMap<>();
+        final TreeMap<Long, TreeMap<Integer, Integer>> deltas = new TreeMap<>();
+        final TreeMap<Long, Map<IOPath, Integer>> objects = new TreeMap<>();
+        final TreeMap<Long, Long> modified = new TreeMap<>();
+        final TreeMap<Long, Map<Integer, IOPath>> seals = new TreeMap<>();
+        try {
+            for (final IOPathMeta meta: this.io.getIO().list(this.folder)) {
+                final String name = meta.getIOPath().getObjectName();
+                if (!name.endsWith(TableCodec.EXTENSION)) continue;
+                // names are <date>[_e<epoch>][_<sequence number>].tsb; objects without sequence number are base objects
+                final String[] parts = name.substring(0, name.length() - TableCodec.EXTENSION.length()).split("_");
+                final long start = this.partition.parse(parts[0] + TableCodec.EXTENSION);
+                if (start < 0) continue;
+                int epoch = 0, seq = 0, p = 1;
+                try {
+                    if (p < parts.length && parts[p].startsWith("e")) epoch = Integer.parseInt(parts[p++].substring(1));
+                    if (p < parts.length) seq = Integer.parseInt(parts[p++]);
+                } catch (final NumberFormatException e) {
+                    continue;
+                }
+                if (p < parts.length) continue;
+                objects.computeIfAbsent(start, k -> new HashMap<>()).put(meta.getIOPath(), epoch);
+                if (seq == 0) {
+                    if (epoch >= bases.getOrDefault(start, -1)) modified.put(start, meta.getLastModified());
+                    bases.merge(start, epoch, Math::max);
+                } else {
+                    deltas.computeIfAbsent(start, k -> new TreeMap<>()).merge(epoch, seq, Math::max);
+                    if (meta.getSize() == 0) seals.computeIfAbsent(start, k -> new HashMap<>()).put(epoch, meta.getIOPath());
+                }
+            }
+        } catch (final IOException e) {
+            // the folder does not exist yet
+        }
+        // deltas of epochs before the newest base object are contained in the base object
+        for (final Map.Entry<Long, Integer> base: bases.entrySet()) {
+            final TreeMap<Integer, Integer> d = deltas.get(base.getKey());
+            if (d == null) continue;
+            d.headMap(base.getValue()).clear();
+            if (d.isEmpty()) deltas.remove(base.getKey());
+        }
+        this.bases = bases;
+        this.deltas = deltas;
+        this.objects = objects;
+        this.modified = modified;
+        this.seals = seals;
+    }
+
+    private void migrate() throws IOException {
+        if (this.legacy == null || !TableParser.exists(this.io, this.legacy)) return;
+        final MinuteSeriesTable table;
+        try {
+            table = new MinuteSeriesTable(this.io, this.legacy, this.viewColNames.length, this.metaColNames.length, this.dataColNames.length, this.dataIsDouble);
+        } catch (final IOException e) {
+            Logger.warn("could not read " + this.legacy.toString() + ", starting with empty segments", e);
+            return;
+        }
+        append(table);
+        for (final Long start: new ArrayList<>(this.pending.keySet())) {
+            writeDelta(start, this.pending.get(start));
+            this.pending.remove(start);
+            compact(start);
+        }
+        Logger.info("split " + this.legacy.toString() + " into " + this.bases.size() + " segments");
+
+        // the segments are written; the legacy table would be migrated again if the segments are removed
+        final IOPath csv = TableCodec.isBinary(this.legacy) ? TableCodec.csvPath(this.legacy) : null;
+        for (final IOPath iop: new IOPath[] {this.legacy, csv}) {
+            if (iop != null && this.io.exists(iop)) try {
+                this.io.getIO().remove(iop);
+            } catch (final IOException e) {
+                Logger.warn("could not remove " + iop.toString(), e);
+            }
+        }
+    }
+
+    private IOPath segmentPath(final long start) {
+        return this.folder.append(this.partition.name(start));
+    }
+
+    private String date(final long start) {
+        final String name = this.partition.name(start);
+        return name.substring(0, name.length() - TableCodec.EXTENSION.length());
+    }
+
+    private IOPath basePath(final long start, final int epoch) {
+        // the base object of epoch 0 has the name of segments which were written before epochs were introduced
+        return epoch == 0 ? segmentPath(start) : this.folder.append(date(start) + "_e" + epoch + TableCodec.EXTENSION);
+    }
+
+    private IOPath deltaPath(final long start, final int epoch, final int seq) {
+        return this.folder.append(date(start) + (epoch == 0 ? "" : "_e" + epoch) + String.format("_%04d", seq) + TableCodec.EXTENSION);
+    }
+
+    private MinuteSeriesTable emptySegment() {
+        return new MinuteSeriesTable(this.viewColNames, this.metaColNames, this.dataColNames, this.dataIsDouble);
+    }
+
+    private MinuteSeriesTable segment(final long start) throws IOException {
+        final MinuteSeriesTable segment = this.segments.get(start);
+        if (segment != null) return segment;
+        try {
+            return load(start);
+        } catch (final IOException e) {
+            // the segment was compacted by another process since it was listed
+            listSegments();
+            return load(start);
+        }
+    }
+
+    private MinuteSeriesTable load(final long start) throws IOException {
+        final Integer epoch = this.bases.get(start);
+        final MinuteSeriesTable segment = epoch == null ? emptySegment() :
+                new MinuteSeriesTable(this.io, basePath(start, epoch), this.viewColNames.length, this.metaColNames.length, this.dataColNames.length, this.dataIsDouble);
+        final int e = epoch == null ? 0 : epoch;
+        this.segments.put(start, segment);
+        this.loadedEpochs.put(start, e);
+        this.loadedDeltas.put(start, position(e, 0));
+        try {
+            loadDeltas(start, null);
+        } catch (final IOException ee) {
+            unload(start);
+            throw ee;
+        }
+        return segment;
+    }
+
+    private void unload(final long start) {
+        this.segments.remove(start);
+        this.loadedEpochs.remove(start);
+        this.loadedDeltas.remove(start);
+    }
+
+    /**
+     * Load a segment again from the stored objects after it was compacted by another process.
+     * Rows which are not written yet are kept.
+     * @param start
+     * @throws IOException
+     */
+    private void reload(final long start) throws IOException {
+        unload(start);
+        listSegments();
+        final MinuteSeriesTable segment = segment(start);
+        final MinuteSeriesTable rows = this.pending.get(start);
+        if (rows != null) segment.append(rows);
+    }
+
+    /**
+     * Append all listed deltas of a loaded segment which are not loaded yet.
+     * An empty delta is the seal of a compaction: it closes its epoch and the following deltas are written in the next epoch.
+     * @param start
+     * @param appended a table to which the rows of the deltas are also appended, or null
+     * @return true if deltas were appended
+     * @throws IOException if a delta cannot be read; then it was removed by a compaction and the segment must be loaded again
+     */
+    private boolean loadDeltas(final long start, final MinuteSeriesTable appended) throws IOException {
+        final long loaded = this.loadedDeltas.get(start);
+        final TreeMap<Integer, Integer> stored = this.deltas.get(start);
+        if (stored == null) return false;
+        final List<IOPath> paths = new ArrayList<>();
+        final List<Long> positions = new ArrayList<>();
+        for (final Map.Entry<Integer, Integer> e: stored.tailMap(epoch(loaded), true).entrySet()) {
+            for (int seq = e.getKey() == epoch(loaded) ? seq(loaded) + 1 : 1; seq <= e.getValue(); seq++) {
+                paths.add(deltaPath(start, e.getKey(), seq));
+                positions.add(position(e.getKey(), seq));
+            }
+        }
+        if (paths.isEmpty()) return false;
+        final MinuteSeriesTable segment = this.segments.get(start);
+        long position = loaded;
+        int i = 0;
+        for (final byte[] b: this.io.getIO().readAllBatch(paths).values()) {
+            position = positions.get(i++);
+            if (b.length == 0) {
+                position = position(epoch(position) + 1, 0);
+                continue;
+            }
+            final MinuteSeriesTable delta = new MinuteSeriesTable(TableCodec.decode(b), this.dataIsDouble);
+            segment.append(delta);
+            if (appended != null) appended.append(delta);
+        }
+        this.loadedDeltas.put(start, position);
+        return true;
+    }
+
+    public synchronized void addValues(final long time, final String[] view, final String[] meta, final long[] data) throws IOException {
+        final long start = this.partition.start(time);
+        segment(start).addValues(time, view, meta, data);
+        this.pending.computeIfAbsent(start, k -> emptySegment()).addValues(time, view, meta, data);
+    }
+
+    public synchronized void addValues(final long time, final String[] view, final String[] meta, final double[] data) throws IOException {
+        final long start = this.partition.start(time);
+        segment(start).addValues(time, view, meta, data);
+        this.pending.computeIfAbsent(start, k -> emptySegment()).addValues(time, view, meta, data);
+    }
+
+    /**
+     * add all rows of a table to the segments of their time
+     * @param table
+     * @throws IOException
+     */
+    public synchronized void append(final MinuteSeriesTable table) throws IOException {
+        final boolean isDouble = table.dataCols.length > 0 && table.dataCols[0] instanceof DoubleColumn;
+        for (int row = 0; row < table.size(); row++) {
+            final long time = table.getTime(row);
+            if (time <= 0) continue;
+            if (isDouble) {
+                addValues(time, table.getView(row), table.getMeta(row), table.getDouble(row));
+            } else {
+                addValues(time, table.getView(row), table.getMeta(row), table.getLong(row));
+            }
+        }
+    }
+
+    /**
+     * Write the rows which were added since the last store.
+     * New rows of a segment are written as a delta object, so the cost of a store is proportional to the new rows.
+     * A segment which has ended or which has too many deltas is compacted into a new base object.
+     */
+    public synchronized void store() {
+        final long current = this.partition.start(System.currentTimeMillis());
+        for (final Long start: new ArrayList<>(this.pending.keySet())) {
+            final MinuteSeriesTable rows = this.pending.get(start);
+            if (rows.size() == 0) {
+                this.pending.remove(start);
+                continue;
+            }
+            try {
+                writeDelta(start, rows);
+                this.pending.remove(start);
+            } catch (final IOException e) {
+                Logger.warn("could not write delta of segment " + segmentPath(start).toString(), e);
+                try {
+                    reload(start);
+                } catch (final IOException ee) {
+                    Logger.warn("could not load segment " + segmentPath(start).toString(), ee);
+                }
+            }
+        }
+
+        // compact segments which are finished or have many deltas; rows must be written as delta before
+        for (final Long start: new ArrayList<>(this.segments.keySet())) {
+            if (this.pending.containsKey(start)) continue;
+            final TreeMap<Integer, Integer> d = this.deltas.get(start);
+            final int count = d == null ? 0 : d.values().stream().mapToInt(Integer::intValue).sum();
+            if ((start < current && count > 0) || count >= MAX_DELTAS) {
+                try {
+                    compact(start);
+                } catch (final IOException e) {
+                    Logger.warn("could not compact segment " + segmentPath(start).toString(), e);
+                    unload(start); // a delta may have been removed by the compaction of another process
+                }
+            }
+        }
+        removeSealed();
+    }
+
+    /**
+     * Remove the objects of epochs which were compacted into a base object more than GRACE_MILLIS ago.
+     * The deltas of a sealed epoch are kept for that time, so a process which writes a delta with an outdated
+     * position finds the positions occupied and the seal instead of a free position. The seal is removed first:
+     * a delta position can only be free again when the seal of its epoch is gone, see writeDelta.
+     */
+    private void removeSealed() {
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<Long, Map<IOPath, Integer>> segment: this.objects.entrySet()) {
+            final long start = segment.getKey();
+            final Integer epoch = this.bases.get(start);
+            final long m = this.modified.getOrDefault(start, 0L);
+            if (epoch == null || m <= 0 || now - m < GRACE_MILLIS) continue;
+            final Set<IOPath> remove = new LinkedHashSet<>();
+            final Map<Integer, IOPath> s = this.seals.getOrDefault(start, new HashMap<>());
+            for (final Map.Entry<Integer, IOPath> seal: s.entrySet()) if (seal.getKey() < epoch) remove.add(seal.getValue());
+            for (final Map.Entry<IOPath, Integer> object: segment.getValue().entrySet()) if (object.getValue() < epoch) remove.add(object.getKey());
+            for (final IOPath iop: remove) {
+                try {
+                    this.io.getIO().remove(iop);
+                } catch (final IOException e) {
+                    Logger.warn("could not remove " + iop.toString(), e);
+                    break; // the seal must not be missing while deltas of its epoch exist
+                }
+                segment.getValue().remove(iop);
+                s.values().remove(iop);
+            }
+        }
+    }
+
+    /**
+     * write rows as delta at the next free position of a loaded segment
+     * @param start
+     * @param rows
+     * @throws IOException
+     */
+    private void writeDelta(final long start, final MinuteSeriesTable rows) throws IOException {
+        final byte[] b = TableCodec.encode(rows.table.table(), true);
+        segment(start);
+        if (this.bases.getOrDefault(start, 0) > this.loadedEpochs.get(start)) reload(start); // compacted by another process
+        loadDeltas(start, null);
+        for (int attempt = 0; attempt < 100; attempt++) {
+            final long loaded = this.loadedDeltas.get(start);
+            final int epoch = epoch(loaded), seq = seq(loaded) + 1;
+            final IOPath iop = deltaPath(start, epoch, seq);
+            final boolean written = this.io.getIO().writeIfAbsent(iop, b) != null;
+            this.deltas.computeIfAbsent(start, k -> new TreeMap<>()).merge(epoch, seq, Math::max);
+            if (written) {
+                // If the epoch was compacted meanwhile, the delta is contained in the new base object only if it was
+                // written before the seal. The seal is kept until the deltas of its epoch are removed; without the seal,
+                // the position was free because the epoch was removed and the delta must be written again.
+                if (this.io.exists(basePath(start, epoch + 1))) {
+                    listSegments();
+                    if (!this.seals.getOrDefault(start, new HashMap<>()).containsKey(epoch)) {
+                        this.io.getIO().remove(iop);
+                        reload(start);
+                        loadDeltas(start, null);
+                        continue;
+                    }
+                }
+                this.loadedDeltas.put(start, position(epoch, seq));
+                return;
+            }
+            // another process has written a delta or a seal at this position; load it and try the next one
+            loadDeltas(start, null);
+        }
+        throw new IOException("could not append delta to segment " + segmentPath(start).toString());
+    }
+
+    /**
+     * Compact a loaded segment into the base object of the next epoch.
+     * First the epoch is sealed with an empty delta at the next free position. Deltas are written with writeIfAbsent,
+     * so no delta can be written at or after the seal within the epoch and the content of the new base object is fixed:
+     * the base object of the epoch and the deltas before the seal. The new base object is written with writeIfAbsent;
+     * if another process completes the same compaction first, the content is the same and only that process removes
+     * the old base object. The deltas and the seal of the epoch are kept for GRACE_MILLIS, see removeSealed.
+     * @param start
+     * @return true if this process has written the new base object
+     * @throws IOException
+     */
+    private boolean compact(final long start) throws IOException {
+        final MinuteSeriesTable segment = segment(start);
+        if (this.bases.getOrDefault(start, 0) > this.loadedEpochs.get(start)) {
+            reload(start); // compacted by another process
+            return false;
+        }
+        loadDeltas(start, null);
+        final int epoch = this.loadedEpochs.get(start);
+        int seal = -1;
+        for (int attempt = 0; attempt < 100 && epoch(this.loadedDeltas.get(start)) == epoch; attempt++) {
+            final int seq = seq(this.loadedDeltas.get(start)) + 1;
+            final boolean written = this.io.getIO().writeIfAbsent(deltaPath(start, epoch, seq), new byte[0]) != null;
+            this.deltas.computeIfAbsent(start, k -> new TreeMap<>()).merge(epoch, seq, Math::max);
+            if (written) {
+                seal = seq;
+                this.loadedDeltas.put(start, position(epoch + 1, 0));
+                break;
+            }
+            loadDeltas(start, null);
+        }
+        final MinuteSeriesTable base;
+        if (seal > 0) {
+            // the loaded segment is exactly the base object and the deltas before the seal
+            base = segment;
+        } else {
+            if (epoch(this.loadedDeltas.get(start)) == epoch) throw new IOException("could not seal segment " + segmentPath(start).toString());
+            // the epoch was sealed by another process; the loaded segment may contain deltas of the next epoch
+            final TreeMap<Integer, Integer> d = this.deltas.get(start);
+            if (d == null || !d.containsKey(epoch)) return false; // the compaction is completed
+            seal = d.get(epoch);
+            base = this.bases.containsKey(start) && this.bases.get(start) == epoch ?
+                    new MinuteSeriesTable(this.io, basePath(start, epoch), this.viewColNames.length, this.metaColNames.length, this.dataColNames.length, this.dataIsDouble) :
+                    emptySegment();
+            final List<IOPath> paths = new ArrayList<>();
+            for (int seq = 1; seq < seal; seq++) paths.add(deltaPath(start, epoch, seq));
+            try {
+                for (final byte[] b: this.io.getIO().readAllBatch(paths).values()) base.append(new MinuteSeriesTable(TableCodec.decode(b), this.dataIsDouble));
+            } catch (final IOException e) {
+                return false; // the other process has completed the compaction
+            }
+        }
+        base.sort();
+        if (this.io.getIO().writeIfAbsent(basePath(start, epoch + 1), TableCodec.encode(base.table.table(), true)) == null) return false;
+
+        // remove the old base object; the deltas and the seal of the epoch are removed after GRACE_MILLIS, see removeSealed
+        if (this.bases.containsKey(start)) try {
+            this.io.getIO().remove(basePath(start, epoch));
+        } catch (final IOException e) {
+            Logger.warn("could not remove " + basePath(start, epoch).toString(), e);
+        }
+        this.modified.put(start, System.currentTimeMillis());
+        this.bases.put(start, epoch + 1);
+        this.loadedEpochs.put(start, epoch + 1);
+        final TreeMap<Integer, Integer> d = this.deltas.get(start);
+        if (d != null) {
+            d.headMap(epoch + 1).clear();
+            if (d.isEmpty()) this.deltas.remove(start);
+        }
+        return true;
+    }
+
+    /**
+     * Load rows which were written by another process since the segments were loaded
+     * and discover segments which were created by another process.
+     * Only the new deltas of a segment are read; a segment which was compacted by another process is dropped
+     * from memory and loaded again on the next access.
+     * @param appended a table to which the rows of the newly loaded deltas are appended, or null
+     * @return true if segments have changed in a way which is not covered by the appended rows:
+     *   a segment was compacted or removed by another process or a new segment was created
+     */
+    public synchronized boolean refresh(final MinuteSeriesTable appended) {
+        final TreeMap<Long, Integer> oldBases = this.bases;
+        final TreeMap<Long, TreeMap<Integer, Integer>> oldDeltas = this.deltas;
+        listSegments();
+        boolean changed = false;
+        for (final Long start: this.bases.keySet()) if (!oldBases.containsKey(start) && !oldDeltas.containsKey(start)) changed = true;
+        for (final Long start: this.deltas.keySet()) if (!oldBases.containsKey(start) && !oldDeltas.containsKey(start)) changed = true;
+        final Iterator<Map.Entry<Long, MinuteSeriesTable>> i = this.segments.entrySet().iterator();
+        while (i.hasNext()) {
+            final long start = i.next().getKey();
+            if (this.pending.containsKey(start)) continue; // our own rows are not written yet; the segment is checked when they are written
+            final Integer base = this.bases.get(start);
+            if ((base == null && !this.deltas.containsKey(start)) || (base == null ? 0 : base) != this.loadedEpochs.get(start)) {
+                // compacted or removed by another process
+                i.remove();
+                this.loadedEpochs.remove(start);
+                this.loadedDeltas.remove(start);
+                changed = true;
+            } else try {
+                loadDeltas(start, appended);
+            } catch (final IOException e) {
+                i.remove();
+                this.loadedEpochs.remove(start);
+                this.loadedDeltas.remove(start);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * drop loaded segments which end before the given time from memory; they are loaded again on the next access
+     * @param time
+     */
+    public synchronized void unloadBefore(final long time) {
+        for (final Long start: new ArrayList<>(this.segments.keySet())) {
+            if (this.partition.next(start) > time || this.pending.containsKey(start)) continue;
+            unload(start);
+        }
+    }
+
+    /**
+     * Remove all segments which end before the given time.
+     * Only whole segments are removed; rows before the time within the segment of the given time remain.
+     * @param time
+     * @return the number of removed segments
+     */
+    public synchronized int deleteBefore(final long time) {
+        final long limit = this.partition.start(time);
+        listSegments();
+        final TreeSet<Long> starts = new TreeSet<>(this.objects.keySet());
+        starts.addAll(this.segments.keySet());
+        int count = 0;
+        for (final Long start: starts.headSet(limit)) {
+            try {
+                for (final IOPath iop: this.objects.getOrDefault(start, new HashMap<>()).keySet()) this.io.getIO().remove(iop);
+                this.bases.remove(start);
+                this.deltas.remove(start);
+                this.objects.remove(start);
+                this.pending.remove(start);
+                unload(start);
+                count++;
+            } catch (final IOException e) {
+                Logger.warn("could not remove segment " + segmentPath(start).toString(), e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * get all rows within a time range; only the segments which overlap with the range are loaded
+     * @param from the first time, included
+     * @param until the end time, excluded
+     * @return a new table with the rows in time order
+     * @throws IOException
+     */
+    public synchronized MinuteSeriesTable range(final long from, final long until) throws IOException {
+        final MinuteSeriesTable range = emptySegment();
+        for (final Long start: segmentStarts()) {
+            if (start < this.partition.start(from) || start >= until) continue;
+            final MinuteSeriesTable segment = segment(start);
+            if (segment.size() == 0) continue;
+            if (start >= from && this.partition.next(start) <= until) {
+                range.append(segment);
+            } else {
+                range.append(segment.whereTime(from, until));
+            }
+        }
+        return range;
+    }
+
+    /**
+     * @return the start times of all segments
+     */
+    public synchronized List<Long> segmentStarts() {
+        final TreeSet<Long> starts = new TreeSet<>(this.bases.keySet());
+        starts.addAll(this.deltas.keySet());
+        starts.addAll(this.segments.keySet());
+        return List.copyOf(starts);
+    }
+}
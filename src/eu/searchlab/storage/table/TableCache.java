@@ -0,0 +1,176 @@
+/**
+ *  TableCache
+ *  Copyright 19.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.storage.table;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eu.searchlab.storage.io.GenericIO;
+import eu.searchlab.storage.io.IOObject;
+import eu.searchlab.storage.io.IOPath;
+
+/**
+ * TableCache holds tables which are parsed from JSON objects in IO.
+ * A cached table is validated with the ETag of its object when it was not checked within the staleness time;
+ * a changed object is loaded again. Concurrent requests for a table which is not cached wait for one single load.
+ * The memory of the cache is limited; the size of the JSON object is used as estimate of the memory usage
+ * of a table and the least recently used tables are evicted first.
+ * Tables in the cache are shared by all callers and must not be altered.
+ */
+public final class TableCache {
+
+    private final static class Entry {
+        private final IndexedTable table;
+        private final String etag;
+        private final long size;
+        private volatile long validated;
+
+        private Entry(final IndexedTable table, final String etag, final long size) {
+            this.table = table;
+            this.etag = etag;
+            this.size = size;
+            this.validated = System.currentTimeMillis();
+        }
+    }
+
+    private final GenericIO io;
+    private final LinkedHashMap<IOPath, Entry> lru; // in access order
+    private final ConcurrentHashMap<IOPath, CompletableFuture<Entry>> loading;
+    private final long maxSize, staleness;
+    private long size;
+
+    /**
+     * TableCache
+     * @param io the IO where the tables are stored
+     * @param maxSize the maximum size of all tables in bytes
+     * @param staleness the time in milliseconds in which a table is not checked for changes
+     */
+    public TableCache(final GenericIO io, final long maxSize, final long staleness) {
+        this.io = io;
+        this.lru = new LinkedHashMap<>(16, 0.75f, true);
+        this.loading = new ConcurrentHashMap<>();
+        this.maxSize = maxSize;
+        this.staleness = staleness;
+        this.size = 0;
+    }
+
+    /**
+     * get a table from the cache or load it from IO
+     * @param iop the path of a JSON object with an array of rows
+     * @return the table or null if the object does not exist
+     * @throws IOException
+     */
+    public IndexedTable get(final IOPath iop) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = this.lru.get(iop);
+        }
+        if (entry != null) {
+            if (System.currentTimeMillis() - entry.validated < this.staleness) return entry.table;
+            try {
+                if (entry.etag != null && entry.etag.equals(this.io.getETag(iop))) {
+                    entry.validated = System.currentTimeMillis();
+                    return entry.table;
+                }
+            } catch (final IOException e) {
+                // the object was removed; this is checked again when it is loaded
+            }
+            remove(iop, entry);
+        }
+
+        // load the table once for all concurrent requests
+        final CompletableFuture<Entry> future = new CompletableFuture<>();
+        final CompletableFuture<Entry> running = this.loading.putIfAbsent(iop, future);
+        if (running != null) {
+            try {
+                entry = running.join();
+                return entry == null ? null : entry.table;
+            } catch (final CompletionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getMessage());
+            }
+        }
+        try {
+            entry = load(iop);
+            if (entry != null) put(iop, entry);
+            future.complete(entry);
+            return entry == null ? null : entry.table;
+        } catch (final IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.loading.remove(iop, future);
+        }
+    }
+
+    private Entry load(final IOPath iop) throws IOException {
+        if (!this.io.exists(iop)) return null;
+        final IOObject o = this.io.readETagged(iop);
+        return new Entry(new IndexedTable(o.getJSONArray()), o.getETag(), o.getObject().length);
+    }
+
+    private synchronized void put(final IOPath iop, final Entry entry) {
+        if (entry.size > this.maxSize) return; // this table would evict all other tables
+        final Entry old = this.lru.put(iop, entry);
+        if (old != null) this.size -= old.size;
+        this.size += entry.size;
+        final Iterator<Entry> i = this.lru.values().iterator();
+        while (this.size > this.maxSize && i.hasNext()) {
+            final Entry eldest = i.next();
+            i.remove();
+            this.size -= eldest.size;
+        }
+    }
+
+    private synchronized void remove(final IOPath iop, final Entry entry) {
+        if (this.lru.remove(iop, entry)) this.size -= entry.size;
+    }
+
+    /**
+     * remove a table from the cache; this must be called when the object is written or removed
+     * @param iop
+     */
+    public synchronized void invalidate(final IOPath iop) {
+        final Entry entry = this.lru.remove(iop);
+        if (entry != null) this.size -= entry.size;
+    }
+
+    public synchronized void clear() {
+        this.lru.clear();
+        this.size = 0;
+    }
+
+    /**
+     * @return the number of cached tables
+     */
+    public synchronized int size() {
+        return this.lru.size();
+    }
+
+    /**
+     * @return the estimated memory usage of all cached tables in bytes
+     */
+    public synchronized long bytes() {
+        return this.size;
+    }
+}
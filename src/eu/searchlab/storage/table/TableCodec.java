@@ -0,0 +1,356 @@
+/**
+ *  TableCodec
+ *  Copyright 19.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.storage.table;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import eu.searchlab.storage.io.ConcurrentIO;
+import eu.searchlab.storage.io.FileIO;
+import eu.searchlab.storage.io.IOObject;
+import eu.searchlab.storage.io.IOPath;
+import eu.searchlab.tools.Logger;
+import tech.tablesaw.api.ColumnType;
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.api.InstantColumn;
+import tech.tablesaw.api.LongColumn;
+import tech.tablesaw.api.StringColumn;
+import tech.tablesaw.api.Table;
+import tech.tablesaw.columns.Column;
+
+/**
+ * Columnar binary storage format for tables.
+ * The format is much smaller than CSV and can be read without any text parsing:
+ * - a header with a magic number, the format version and flags
+ * - the number of rows and columns
+ * - each column with its name, its type and all values of the column in a row
+ * Column types are:
+ * - INSTANT: epoch milliseconds, delta-encoded to the previous value as zig-zag varint.
+ *   Time series are ordered by time, so most deltas need only one or two bytes.
+ * - LONG: delta-encoded zig-zag varints like INSTANT; counters change slowly and encode small.
+ * - DOUBLE: the raw IEEE 754 bits
+ * - STRING: either a dictionary of the distinct values followed by varint references to the dictionary,
+ *   or the plain values if most values are distinct.
+ * Columns of other types are stored as STRING.
+ * The column section is optionally compressed with deflate.
+ */
+public class TableCodec {
+
+    public final static String EXTENSION = ".tsb";
+
+    private final static int MAGIC = 0x54534231; // "TSB1"
+    private final static int VERSION = 1;
+    private final static int FLAG_COMPRESSED = 1;
+
+    private final static byte TYPE_INSTANT = 1;
+    private final static byte TYPE_LONG = 2;
+    private final static byte TYPE_DOUBLE = 3;
+    private final static byte TYPE_STRING_PLAIN = 4;
+    private final static byte TYPE_STRING_DICT = 5;
+
+    private final static long NULL_INSTANT = Long.MIN_VALUE;
+
+    /**
+     * check if the path denotes a table in the binary format
+     * @param iop
+     * @return true if the path has the binary extension
+     */
+    public static boolean isBinary(final IOPath iop) {
+        return iop.getObjectPath().endsWith(EXTENSION);
+    }
+
+    /**
+     * get the path of the CSV table which is replaced by the given binary table.
+     * @param iop a path with the binary extension
+     * @return the same path with the extension ".csv"
+     */
+    public static IOPath csvPath(final IOPath iop) {
+        final String path = iop.getObjectPath();
+        return new IOPath(iop.getBucket(), path.substring(0, path.length() - EXTENSION.length()) + ".csv");
+    }
+
+    // --------------------------------------------------------------------------------------------------------------
+
+    public static byte[] encode(final Table table, final boolean compress) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(64 + table.rowCount() * table.columnCount() * 4);
+        write(baos, table, compress);
+        return baos.toByteArray();
+    }
+
+    public static void write(final OutputStream os, final Table table, final boolean compress) throws IOException {
+        final DataOutputStream header = new DataOutputStream(os);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(compress ? FLAG_COMPRESSED : 0);
+        header.flush();
+        final Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        final OutputStream body = compress ? new DeflaterOutputStream(os, deflater, 65536) : new BufferedOutputStream(os, 65536);
+        final DataOutputStream dos = new DataOutputStream(body);
+        final int rows = table.rowCount();
+        writeVarLong(dos, rows);
+        writeVarLong(dos, table.columnCount());
+        for (final Column<?> column: table.columns()) {
+            dos.writeUTF(column.name());
+            if (column instanceof InstantColumn) {
+                dos.writeByte(TYPE_INSTANT);
+                final InstantColumn c = (InstantColumn) column;
+                long last = 0;
+                for (int i = 0; i < rows; i++) {
+                    final Instant instant = c.get(i);
+                    final long t = instant == null ? NULL_INSTANT : instant.toEpochMilli();
+                    writeVarLong(dos, zigzag(t - last));
+                    last = t;
+                }
+            } else if (column instanceof LongColumn) {
+                dos.writeByte(TYPE_LONG);
+                final LongColumn c = (LongColumn) column;
+                long last = 0;
+                for (int i = 0; i < rows; i++) {
+                    final long l = c.getLong(i);
+                    writeVarLong(dos, zigzag(l - last));
+                    last = l;
+                }
+            } else if (column instanceof DoubleColumn) {
+                dos.writeByte(TYPE_DOUBLE);
+                final DoubleColumn c = (DoubleColumn) column;
+                for (int i = 0; i < rows; i++) dos.writeLong(Double.doubleToRawLongBits(c.getDouble(i)));
+            } else {
+                writeStrings(dos, column, rows);
+            }
+        }
+        dos.flush();
+        if (deflater != null) {
+            ((DeflaterOutputStream) body).finish();
+            deflater.end();
+        }
+        os.flush();
+    }
+
+    private static void writeStrings(final DataOutputStream dos, final Column<?> column, final int rows) throws IOException {
+        // use a dictionary if values repeat: this is the case for view and meta columns
+        final Map<String, Integer> dict = new HashMap<>();
+        final List<String> values = new ArrayList<>();
+        final int[] refs = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            final String s = column.getString(i);
+            Integer ref = dict.get(s);
+            if (ref == null) {
+                if (dict.size() > rows / 2) break; // mostly distinct values
+                ref = dict.size();
+                dict.put(s, ref);
+                values.add(s);
+            }
+            refs[i] = ref;
+        }
+        if (dict.size() > rows / 2) {
+            dos.writeByte(TYPE_STRING_PLAIN);
+            for (int i = 0; i < rows; i++) dos.writeUTF(column.getString(i));
+        } else {
+            dos.writeByte(TYPE_STRING_DICT);
+            writeVarLong(dos, values.size());
+            for (final String s: values) dos.writeUTF(s);
+            for (int i = 0; i < rows; i++) writeVarLong(dos, refs[i]);
+        }
+    }
+
+    public static Table decode(final byte[] b) throws IOException {
+        return read(new ByteArrayInputStream(b));
+    }
+
+    public static Table read(final InputStream is) throws IOException {
+        final DataInputStream header = new DataInputStream(is);
+        if (header.readInt() != MAGIC) throw new IOException("not a binary table");
+        final int version = header.readByte();
+        if (version != VERSION) throw new IOException("unsupported binary table version " + version);
+        final int flags = header.readByte();
+        final Inflater inflater = (flags & FLAG_COMPRESSED) != 0 ? new Inflater() : null;
+        final InputStream body = inflater != null ? new InflaterInputStream(is, inflater, 65536) : new BufferedInputStream(is, 65536);
+        try {
+            return readColumns(new DataInputStream(body));
+        } finally {
+            if (inflater != null) inflater.end();
+        }
+    }
+
+    private static Table readColumns(final DataInputStream dis) throws IOException {
+        final int rows = (int) readVarLong(dis);
+        final int cols = (int) readVarLong(dis);
+        final Table table = Table.create();
+        for (int col = 0; col < cols; col++) {
+            final String name = dis.readUTF();
+            final byte type = dis.readByte();
+            switch (type) {
+                case TYPE_INSTANT: {
+                    final InstantColumn c = InstantColumn.create(name);
+                    long last = 0;
+                    for (int i = 0; i < rows; i++) {
+                        last += unzigzag(readVarLong(dis));
+                        if (last == NULL_INSTANT) c.appendMissing(); else c.append(Instant.ofEpochMilli(last));
+                    }
+                    table.addColumns(c);
+                    break;
+                }
+                case TYPE_LONG: {
+                    final long[] a = new long[rows];
+                    long last = 0;
+                    for (int i = 0; i < rows; i++) {
+                        last += unzigzag(readVarLong(dis));
+                        a[i] = last;
+                    }
+                    table.addColumns(LongColumn.create(name, a));
+                    break;
+                }
+                case TYPE_DOUBLE: {
+                    final double[] a = new double[rows];
+                    for (int i = 0; i < rows; i++) a[i] = Double.longBitsToDouble(dis.readLong());
+                    table.addColumns(DoubleColumn.create(name, a));
+                    break;
+                }
+                case TYPE_STRING_PLAIN: {
+                    final String[] a = new String[rows];
+                    for (int i = 0; i < rows; i++) a[i] = dis.readUTF();
+                    table.addColumns(StringColumn.create(name, a));
+                    break;
+                }
+                case TYPE_STRING_DICT: {
+                    final String[] values = new String[(int) readVarLong(dis)];
+                    for (int i = 0; i < values.length; i++) values[i] = dis.readUTF();
+                    final String[] a = new String[rows];
+                    for (int i = 0; i < rows; i++) a[i] = values[(int) readVarLong(dis)];
+                    table.addColumns(StringColumn.create(name, a));
+                    break;
+                }
+                default:
+                    throw new IOException("unknown column type " + type + " in column " + name);
+            }
+        }
+        return table;
+    }
+
+    private static long zigzag(final long l) {
+        return (l << 1) ^ (l >> 63);
+    }
+
+    private static long unzigzag(final long l) {
+        return (l >>> 1) ^ -(l & 1);
+    }
+
+    private static void writeVarLong(final DataOutputStream dos, long l) throws IOException {
+        while ((l & ~0x7FL) != 0) {
+            dos.writeByte((int) ((l & 0x7F) | 0x80));
+            l >>>= 7;
+        }
+        dos.writeByte((int) l);
+    }
+
+    private static long readVarLong(final DataInputStream dis) throws IOException {
+        long l = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = dis.readUnsignedByte();
+            l |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return l;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    // --------------------------------------------------------------------------------------------------------------
+
+    /**
+     * read a binary table
+     * @param io
+     * @param iop
+     * @return the table
+     * @throws IOException
+     */
+    public static Table readTable(final ConcurrentIO io, final IOPath iop) throws IOException {
+        final IOObject[] ioo = io.readForced(iop);
+        assert ioo.length == 1;
+        return decode(ioo[0].getObject());
+    }
+
+    /**
+     * write a table in the compressed binary format
+     * @param io
+     * @param iop
+     * @param table
+     * @throws IOException
+     */
+    public static void storeTable(final ConcurrentIO io, final IOPath iop, final Table table) throws IOException {
+        io.writeForced(new IOObject(iop, encode(table, true)));
+    }
+
+    /**
+     * convert a CSV table into the binary format.
+     * The CSV object is not removed; it is simply not read any more once the binary table exists.
+     * @param io
+     * @param csv the path of the CSV object
+     * @param bin the path of the binary object
+     * @param columnTypes the column types of the CSV
+     * @return the converted table
+     * @throws IOException
+     */
+    public static Table convert(final ConcurrentIO io, final IOPath csv, final IOPath bin, final ColumnType[] columnTypes) throws IOException {
+        final long start = System.currentTimeMillis();
+        final Table table = TableParser.readCSV(io, csv, true, Locale.ENGLISH, columnTypes);
+        storeTable(io, bin, table);
+        Logger.info("converted table " + csv.toString() + " to " + bin.toString() + " in " + (System.currentTimeMillis() - start) + " milliseconds");
+        return table;
+    }
+
+    /**
+     * Convert a CSV time series in a local directory and compare load times of both formats.
+     * @param args the base directory of the bucket "test", the CSV object path and the number of view, meta and data columns
+     */
+    public static void main(final String[] args) {
+        try {
+            final ConcurrentIO io = new ConcurrentIO(new FileIO(new File(args[0])), 10000);
+            final IOPath csv = new IOPath("test", args[1]);
+            final IOPath bin = new IOPath("test", args[1].substring(0, args[1].length() - 4) + EXTENSION);
+            final ColumnType[] columnTypes = MinuteSeriesTable.columnTypes4Table(Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]), false);
+            convert(io, csv, bin, columnTypes);
+            long start = System.currentTimeMillis();
+            final Table t0 = TableParser.readCSV(io, csv, true, Locale.ENGLISH, columnTypes);
+            System.out.println("csv:    " + io.getIO().size(csv) + " bytes, " + t0.rowCount() + " rows in " + (System.currentTimeMillis() - start) + " milliseconds");
+            start = System.currentTimeMillis();
+            final Table t1 = readTable(io, bin);
+            System.out.println("binary: " + io.getIO().size(bin) + " bytes, " + t1.rowCount() + " rows in " + (System.currentTimeMillis() - start) + " milliseconds");
+        } catch (final IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
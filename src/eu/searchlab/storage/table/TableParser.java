@@ -156,8 +156,54 @@ public class TableParser {
         return table;
     }
 
+    /**
+     * read a table in the format given by the path extension: binary tables are read with the TableCodec, all others as CSV.
+     * If a binary table does not exist yet, it is converted from the CSV table with the same name.
+     * @param io
+     * @param iop
+     * @param columnTypes the column types of a CSV table
+     * @return the table
+     * @throws IOException
+     */
+    public static Table readTable(final ConcurrentIO io, final IOPath iop, final ColumnType[] columnTypes) throws IOException {
+        if (!TableCodec.isBinary(iop)) return readCSV(io, iop, true, Locale.ENGLISH, columnTypes);
+        if (io.exists(iop)) return TableCodec.readTable(io, iop);
+        return TableCodec.convert(io, TableCodec.csvPath(iop), iop, columnTypes);
+    }
+
+    /**
+     * check if a table exists; a binary table also exists if the CSV table it will be converted from exists
+     * @param io
+     * @param iop
+     * @return true if readTable can read the table
+     */
+    public static boolean exists(final ConcurrentIO io, final IOPath iop) {
+        return io.exists(iop) || (TableCodec.isBinary(iop) && io.exists(TableCodec.csvPath(iop)));
+    }
+
     // --------------------------------------------------------------------------------------------------------------
 
+    /**
+     * write a table in the format given by the path extension
+     * @param io
+     * @param iop
+     * @param table
+     */
+    public static void storeTable(final ConcurrentIO io, final IOPath iop, final Table table) {
+        if (!TableCodec.isBinary(iop)) {
+            storeCSV(io, iop, table);
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        try {
+            TableCodec.storeTable(io, iop, table);
+            final long stop = System.currentTimeMillis();
+            Logger.info("wrote table " + iop.toString() + " in " + (stop - start) + " milliseconds");
+        } catch (final IOException e) {
+            Logger.warn("failed to write table to " + iop.toString(), e);
+        }
+    }
+
     public static void storeCSV( final ConcurrentIO io, final IOPath iop, final Table table) {
         final long start = System.currentTimeMillis();
         try {
@@ -0,0 +1,325 @@
+/**
+ *  TableQuery
+ *  Copyright 19.10.2026 by Michael Peter Christen, @orbiterlab
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.searchlab.storage.table;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+import tech.tablesaw.api.DoubleColumn;
+import tech.tablesaw.api.InstantColumn;
+import tech.tablesaw.api.LongColumn;
+import tech.tablesaw.api.NumericColumn;
+import tech.tablesaw.api.StringColumn;
+import tech.tablesaw.api.Table;
+import tech.tablesaw.columns.Column;
+import tech.tablesaw.selection.BitmapBackedSelection;
+import tech.tablesaw.selection.Selection;
+
+/**
+ * A query on an IndexedTable with predicates, projection, grouping, ordering and paging.
+ * Predicates are evaluated column by column into bitmap selections which are combined before any row is copied;
+ * only the selected rows of the needed columns are materialized.
+ *
+ * Predicates have the syntax "<column>:<value>" where the value can be
+ * - a value or a list of values separated by ';' which are matched with the column index, a value prefixed with '!' is negated
+ * - a range bound prefixed with one of the operators '>', '>=', '<', '<=', optionally negated with '!'
+ * - a prefix followed by '*' for string columns, optionally negated with '!'
+ * All predicates must match. Aggregates are named "count" or "<column>.<function>" with the functions sum, avg, min and max;
+ * the resulting columns of a grouping have the same names; with a grouping, the selected columns must be group columns
+ * or aggregates. Ordering columns prefixed with '-' are sorted descending.
+ * Unknown columns, aggregates and values which do not match the column type cause an IllegalArgumentException.
+ */
+public class TableQuery {
+
+    private final IndexedTable table;
+    private final List<IndexedTable.SplitSelect> selects;
+    private String[] columns, orderBy, groupBy, aggregates;
+    private int offset, limit, matches;
+
+    public TableQuery(final IndexedTable table) {
+        this.table = table;
+        this.selects = new ArrayList<>();
+        this.columns = new String[0];
+        this.orderBy = new String[0];
+        this.groupBy = new String[0];
+        this.aggregates = new String[0];
+        this.offset = 0;
+        this.limit = Integer.MAX_VALUE;
+        this.matches = -1;
+    }
+
+    /**
+     * @param selects predicates of the form "<column>:<value>"
+     * @return this
+     * @throws IllegalArgumentException if a predicate has no column or no ':'
+     */
+    public TableQuery where(final String... selects) throws IllegalArgumentException {
+        for (final String s: selects) {
+            if (s.length() == 0) continue;
+            if (s.indexOf(':') <= 0) throw new IllegalArgumentException("predicate must have the form <column>:<value>: " + s);
+            this.selects.add(new IndexedTable.SplitSelect(s));
+        }
+        return this;
+    }
+
+    public TableQuery columns(final String... columns) {
+        this.columns = columns;
+        return this;
+    }
+
+    public TableQuery orderBy(final String... columns) {
+        this.orderBy = columns;
+        return this;
+    }
+
+    public TableQuery groupBy(final String... columns) {
+        this.groupBy = columns;
+        return this;
+    }
+
+    public TableQuery aggregate(final String... aggregates) {
+        this.aggregates = aggregates;
+        return this;
+    }
+
+    public TableQuery offset(final int offset) {
+        this.offset = Math.max(0, offset);
+        return this;
+    }
+
+    /**
+     * @param limit the maximum number of rows in the result; a negative limit means no limit
+     * @return this
+     */
+    public TableQuery limit(final int limit) {
+        this.limit = limit < 0 ? Integer.MAX_VALUE : limit;
+        return this;
+    }
+
+    /**
+     * the number of rows which matched the predicates; in case of a grouping the number of groups
+     * @return the number of rows before offset and limit were applied or -1 if the query was not executed
+     */
+    public int matches() {
+        return this.matches;
+    }
+
+    /**
+     * evaluate the query
+     * @return the result rows
+     * @throws IllegalArgumentException if the query does not match the table
+     */
+    public IndexedTable execute() throws IllegalArgumentException {
+        final Table t = this.table.table();
+        final boolean grouped = this.groupBy.length > 0 || this.aggregates.length > 0;
+        final List<String> groupColumns = Arrays.asList(this.groupBy), aggregateColumns = Arrays.asList(this.aggregates);
+        for (final String column: this.groupBy) {
+            if (!t.containsColumn(column)) throw new IllegalArgumentException("column " + column + " does not exist");
+        }
+        for (final String column: this.columns) {
+            if (grouped) {
+                if (!groupColumns.contains(column) && !aggregateColumns.contains(column)) throw new IllegalArgumentException("column " + column + " is neither grouped nor aggregated");
+            } else {
+                if (!t.containsColumn(column)) throw new IllegalArgumentException("column " + column + " does not exist");
+            }
+        }
+
+        // evaluate the predicates into one selection
+        final Selection selection = Selection.withRange(0, t.rowCount());
+        for (final IndexedTable.SplitSelect s: this.selects) {
+            if (selection.isEmpty()) break;
+            selection.and(predicate(t, s.col, s.val));
+        }
+
+        Table result;
+        if (grouped) {
+            result = group(t, selection);
+            this.matches = result.rowCount();
+            if (this.orderBy.length > 0) result = result.sortOn(this.orderBy);
+            result = page(result);
+        } else {
+            this.matches = selection.size();
+            // copy only the columns which are needed for the result and the ordering
+            final Set<String> needed = new LinkedHashSet<>();
+            if (this.columns.length == 0) needed.addAll(t.columnNames()); else needed.addAll(Arrays.asList(this.columns));
+            for (final String o: this.orderBy) needed.add(unsigned(o));
+            final Table narrow = t.selectColumns(needed.toArray(new String[needed.size()]));
+            if (this.orderBy.length > 0) {
+                result = page(narrow.where(selection).sortOn(this.orderBy));
+            } else {
+                // without ordering the page is cut out of the selection before any row is copied
+                result = narrow.where(page(selection));
+            }
+        }
+        if (this.columns.length > 0) result = result.selectColumns(this.columns);
+        return new IndexedTable(result);
+    }
+
+    private Table page(final Table t) {
+        if (this.offset == 0 && t.rowCount() <= this.limit) return t;
+        final int from = Math.min(this.offset, t.rowCount());
+        return t.inRange(from, (int) Math.min((long) from + this.limit, t.rowCount()));
+    }
+
+    private Selection page(final Selection selection) {
+        if (this.offset == 0 && selection.size() <= this.limit) return selection;
+        final int[] rows = selection.toArray();
+        final int from = Math.min(this.offset, rows.length);
+        return Selection.with(Arrays.copyOfRange(rows, from, (int) Math.min((long) from + this.limit, rows.length)));
+    }
+
+    private static String unsigned(final String column) {
+        return column.startsWith("-") || column.startsWith("+") ? column.substring(1) : column;
+    }
+
+    private Selection predicate(final Table t, final String columnName, final String value) {
+        if (!t.containsColumn(columnName)) throw new IllegalArgumentException("column " + columnName + " does not exist");
+        final Column<?> column = t.column(columnName);
+        final boolean negation = value.startsWith("!");
+        final String v = negation ? value.substring(1) : value;
+        Selection selection;
+        if (v.startsWith(">=")) selection = compare(column, v.substring(2), c -> c >= 0);
+        else if (v.startsWith(">")) selection = compare(column, v.substring(1), c -> c > 0);
+        else if (v.startsWith("<=")) selection = compare(column, v.substring(2), c -> c <= 0);
+        else if (v.startsWith("<")) selection = compare(column, v.substring(1), c -> c < 0);
+        else if (v.endsWith("*") && column instanceof StringColumn) selection = ((StringColumn) column).startsWith(v.substring(0, v.length() - 1));
+        else if (column instanceof StringColumn || column instanceof LongColumn || column instanceof DoubleColumn) {
+            // equality and lists of values are answered by the column index which handles negation itself
+            return this.table.whereSelection(columnName, value);
+        } else {
+            selection = compare(column, v, c -> c == 0);
+        }
+        return negation ? selection.flip(0, t.rowCount()) : selection;
+    }
+
+    /**
+     * compare all values of a column with a given value
+     * @param column
+     * @param value the value which is parsed according to the column type
+     * @param test a test on the comparison of each column value with the given value
+     * @return the selection of the rows where the test is true; missing values are never selected
+     */
+    private static Selection compare(final Column<?> column, final String value, final IntPredicate test) {
+        final Selection selection = new BitmapBackedSelection();
+        final int size = column.size();
+        if (column instanceof LongColumn) {
+            final LongColumn c = (LongColumn) column;
+            final long v = Long.parseLong(value);
+            for (int r = 0; r < size; r++) if (!c.isMissing(r) && test.test(Long.compare(c.getLong(r), v))) selection.add(r);
+        } else if (column instanceof NumericColumn) {
+            final NumericColumn<?> c = (NumericColumn<?>) column;
+            final double v = Double.parseDouble(value);
+            for (int r = 0; r < size; r++) if (!c.isMissing(r) && test.test(Double.compare(c.getDouble(r), v))) selection.add(r);
+        } else if (column instanceof InstantColumn) {
+            final InstantColumn c = (InstantColumn) column;
+            final Instant v;
+            try {
+                v = value.matches("-?[0-9]+") ? Instant.ofEpochMilli(Long.parseLong(value)) : Instant.parse(value);
+            } catch (final DateTimeParseException e) {
+                throw new IllegalArgumentException("no instant: " + value);
+            }
+            for (int r = 0; r < size; r++) if (!c.isMissing(r) && test.test(c.get(r).compareTo(v))) selection.add(r);
+        } else {
+            for (int r = 0; r < size; r++) if (!column.isMissing(r) && test.test(column.getString(r).compareTo(value))) selection.add(r);
+        }
+        return selection;
+    }
+
+    /**
+     * group the selected rows by the values of the group columns and compute the aggregates for each group
+     * @param t
+     * @param selection
+     * @return a table with the group columns and one column for each aggregate
+     */
+    private Table group(final Table t, final Selection selection) {
+        final Column<?>[] keys = new Column<?>[this.groupBy.length];
+        for (int k = 0; k < keys.length; k++) keys[k] = t.column(this.groupBy[k]);
+
+        // assign a group number to each selected row
+        final int[] rows = selection.toArray();
+        final int[] groupOf = new int[rows.length];
+        final Map<String, Integer> groups = new HashMap<>();
+        final List<Integer> firstRows = new ArrayList<>();
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rows.length; i++) {
+            sb.setLength(0);
+            for (final Column<?> key: keys) sb.append(key.getString(rows[i])).append('\t');
+            final String key = sb.toString();
+            Integer g = groups.get(key);
+            if (g == null) {
+                g = firstRows.size();
+                groups.put(key, g);
+                firstRows.add(rows[i]);
+            }
+            groupOf[i] = g;
+        }
+        final int n = firstRows.size();
+        final int[] first = new int[n];
+        for (int g = 0; g < n; g++) first[g] = firstRows.get(g);
+        final Table result = t.selectColumns(this.groupBy).rows(first);
+
+        // compute the aggregates column-wise
+        for (final String aggregate: this.aggregates) {
+            if (aggregate.equals("count")) {
+                final long[] count = new long[n];
+                for (int i = 0; i < rows.length; i++) count[groupOf[i]]++;
+                result.addColumns(LongColumn.create(aggregate, count));
+                continue;
+            }
+            final int p = aggregate.lastIndexOf('.');
+            if (p <= 0) throw new IllegalArgumentException("aggregate " + aggregate + " unknown");
+            final String columnName = aggregate.substring(0, p);
+            final String function = aggregate.substring(p + 1);
+            if (!t.containsColumn(columnName) || !(t.column(columnName) instanceof NumericColumn)) throw new IllegalArgumentException("aggregate " + aggregate + " needs a numeric column");
+            if (!function.equals("sum") && !function.equals("avg") && !function.equals("min") && !function.equals("max")) throw new IllegalArgumentException("aggregate function " + function + " unknown");
+            final NumericColumn<?> c = (NumericColumn<?>) t.column(columnName);
+            final double[] value = new double[n];
+            final long[] count = new long[n];
+            if (function.equals("min")) Arrays.fill(value, Double.POSITIVE_INFINITY);
+            if (function.equals("max")) Arrays.fill(value, Double.NEGATIVE_INFINITY);
+            for (int i = 0; i < rows.length; i++) {
+                if (c.isMissing(rows[i])) continue;
+                final double d = c.getDouble(rows[i]);
+                final int g = groupOf[i];
+                count[g]++;
+                switch (function) {
+                    case "sum":
+                    case "avg": value[g] += d; break;
+                    case "min": if (d < value[g]) value[g] = d; break;
+                    case "max": if (d > value[g]) value[g] = d; break;
+                }
+            }
+            for (int g = 0; g < n; g++) {
+                if (count[g] == 0) value[g] = Double.NaN; // no value, this is a missing value of a DoubleColumn
+                else if (function.equals("avg")) value[g] = value[g] / count[g];
+            }
+            result.addColumns(DoubleColumn.create(aggregate, value));
+        }
+        return result;
+    }
+}
@@ -22,10 +22,13 @@
  * - fixed "statement unnecessary nested" warnings
  * - fixed raw type declarations
  * - added initializer with capacity and trimToSize to reduce memory usage
+ * - added write() to encode to a Writer in chunks
  */
 
 package org.json;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -651,6 +654,24 @@ public class JSONArray implements Iterable<Object> {
         return stringer.toString();
     }
 
+    /**
+     * Encodes this array to a writer in the same way as {@link #toString(int)}.
+     * The encoding is written in chunks and is not held in memory as a whole.
+     *
+     * @param writer the writer, which is not closed
+     * @param indentSpaces the number of spaces to indent for each level of
+     *     nesting or -1 for a compact encoding like {@link #toString()}.
+     */
+    public void write(final Writer writer, final int indentSpaces) throws IOException {
+        final JSONStringer stringer = new JSONStringer(writer, indentSpaces);
+        try {
+            this.writeTo(stringer);
+            stringer.flush();
+        } catch (final JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
     void writeTo(final JSONStringer stringer) throws JSONException {
         stringer.array();
         for (final Object value : this.values) {
@@ -25,10 +25,13 @@
  * - added deprecated flag to has() an get() methods (see comment in code)
  * - inlined opt() where appropriate
  * - removed unnecessary 'throws JSONException' where possible
+ * - added write() to encode to a Writer in chunks
  */
 
 package org.json;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -806,6 +809,24 @@ public class JSONObject {
         }
     }
 
+    /**
+     * Encodes this object to a writer in the same way as {@link #toString(int)}.
+     * The encoding is written in chunks and is not held in memory as a whole.
+     *
+     * @param writer the writer, which is not closed
+     * @param indentSpaces the number of spaces to indent for each level of
+     *     nesting or -1 for a compact encoding like {@link #toString()}.
+     */
+    public void write(final Writer writer, final int indentSpaces) throws IOException {
+        final JSONStringer stringer = new JSONStringer(writer, indentSpaces);
+        try {
+            this.writeTo(stringer);
+            stringer.flush();
+        } catch (final JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
     void writeTo(final JSONStringer stringer) throws JSONException {
         stringer.object();
         for (final Map.Entry<String, Object> entry : this.nameValuePairs.entrySet()) {
@@ -19,10 +19,13 @@
  * https://android.googlesource.com/platform/libcore/+/refs/heads/master/json/src/main/java/org/json
  * and slightly modified (by mc@yacy.net):
  * - removed dependency from other libraries (i.e. android.compat.annotation)
+ * - added output to a Writer in chunks
  */
 
 package org.json;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -70,6 +73,15 @@ public class JSONStringer {
     /** The output data, containing at most one top-level array or object. */
     final StringBuilder out = new StringBuilder();
 
+    /** The size of the chunks which are written to the writer. */
+    private static final int CHUNK_SIZE = 8192;
+
+    /** A writer which receives the output in chunks, or null if the output is kept in out. */
+    private final Writer writer;
+
+    /** true if some output was already written to the writer */
+    private boolean written;
+
     /**
      * Lexical scoping elements within this stringer, necessary to insert the
      * appropriate separator characters (ie. commas and colons) and to detect
@@ -128,12 +140,56 @@ public class JSONStringer {
 
     public JSONStringer() {
         indent = null;
+        writer = null;
     }
 
     JSONStringer(int indentSpaces) {
-        char[] indentChars = new char[indentSpaces];
-        Arrays.fill(indentChars, ' ');
-        indent = new String(indentChars);
+        this(null, indentSpaces);
+    }
+
+    /**
+     * Creates a stringer which writes its output to a writer in chunks, so the
+     * encoded string is never held in memory as a whole. The output must be
+     * completed with {@link #flush}.
+     *
+     * @param writer the writer for the output or null to keep the output in this stringer
+     * @param indentSpaces the number of spaces to indent for each level of nesting
+     *     or -1 for no pretty printing
+     */
+    JSONStringer(Writer writer, int indentSpaces) {
+        if (indentSpaces < 0) {
+            indent = null;
+        } else {
+            char[] indentChars = new char[indentSpaces];
+            Arrays.fill(indentChars, ' ');
+            indent = new String(indentChars);
+        }
+        this.writer = writer;
+    }
+
+    /**
+     * Writes the output to the writer if the output is large enough for a chunk.
+     */
+    private void drain() throws JSONException {
+        if (writer != null && out.length() >= CHUNK_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all remaining output to the writer.
+     */
+    void flush() throws JSONException {
+        if (writer == null || out.length() == 0) {
+            return;
+        }
+        try {
+            writer.append(out);
+        } catch (IOException e) {
+            throw new JSONException(e.getMessage());
+        }
+        out.setLength(0);
+        written = true;
     }
 
     /**
@@ -179,7 +235,7 @@ public class JSONStringer {
      * bracket.
      */
     JSONStringer open(Scope empty, String openBracket) throws JSONException {
-        if (stack.isEmpty() && out.length() > 0) {
+        if (stack.isEmpty() && (out.length() > 0 || written)) {
             throw new JSONException("Nesting problem: multiple top-level roots");
         }
         beforeValue();
@@ -203,6 +259,7 @@ public class JSONStringer {
             newline();
         }
         out.append(closeBracket);
+        drain();
         return this;
     }
 
@@ -259,6 +316,7 @@ public class JSONStringer {
             string(value.toString());
         }
 
+        drain();
         return this;
     }
 